@@ -0,0 +1,138 @@
+package app;
+
+import javafx.scene.PerspectiveCamera;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Transform;
+
+/**
+ * The view volume of a {@link PerspectiveCamera}, for deciding which parts of the 3D scene
+ * are worth sending to the renderer.
+ * <p>
+ * Once per frame {@link #update} takes the inverse of the camera's local-to-scene transform,
+ * so scene points can be moved into camera space (x right, y down, z forward) with a few
+ * multiplications. There a point is inside if it lies between the clipping planes and within
+ * {@code z * tan(fov / 2)} of the view axis. Tests are conservative: something reported as
+ * outside is certainly not on screen.
+ * </p>
+ */
+final class CameraFrustum
+{
+    // scene-to-camera matrix
+    private double mxx, mxy, mxz, tx;
+    private double myx, myy, myz, ty;
+    private double mzx, mzy, mzz, tz;
+    // camera position in the scene
+    private double eyeX, eyeY, eyeZ;
+    // half opening of the view in x and y, as slopes
+    private double tanX, tanY;
+    private double near, far;
+    private boolean valid = false;
+
+    /**
+     * Takes over the current position, orientation and projection of a camera.
+     *
+     * @param camera The camera, attached to the scene graph.
+     * @param width  The width of the viewport in pixels.
+     * @param height The height of the viewport in pixels.
+     * @return false if the camera has no usable transform; all tests then pass.
+     */
+    boolean update(PerspectiveCamera camera, double width, double height)
+    {
+        valid = false;
+        if (camera == null || width <= 0 || height <= 0) return false;
+
+        Transform toScene = camera.getLocalToSceneTransform();
+        Transform toCamera;
+        try
+        {
+            toCamera = toScene.createInverse();
+        }
+        catch (NonInvertibleTransformException e)
+        {
+            return false;
+        }
+        mxx = toCamera.getMxx(); mxy = toCamera.getMxy(); mxz = toCamera.getMxz(); tx = toCamera.getTx();
+        myx = toCamera.getMyx(); myy = toCamera.getMyy(); myz = toCamera.getMyz(); ty = toCamera.getTy();
+        mzx = toCamera.getMzx(); mzy = toCamera.getMzy(); mzz = toCamera.getMzz(); tz = toCamera.getTz();
+        eyeX = toScene.getTx();
+        eyeY = toScene.getTy();
+        eyeZ = toScene.getTz();
+
+        double tan = Math.tan(Math.toRadians(camera.getFieldOfView() / 2));
+        double aspect = width / height;
+        if (camera.isVerticalFieldOfView())
+        {
+            tanY = tan;
+            tanX = tan * aspect;
+        }
+        else
+        {
+            tanX = tan;
+            tanY = tan / aspect;
+        }
+        near = camera.getNearClip();
+        far = camera.getFarClip();
+        valid = true;
+        return true;
+    }
+
+    /**
+     * Tests an axis-aligned box in scene coordinates.
+     *
+     * @return false if the whole box is on the outer side of one of the frustum planes.
+     */
+    boolean intersectsBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ)
+    {
+        if (!valid) return true;
+
+        // bit i is set if all corners are outside plane i: near, far, left, right, top, bottom
+        int allOutside = 0x3F;
+        for (int corner = 0; corner < 8; corner++)
+        {
+            double x = (corner & 1) == 0 ? minX : maxX;
+            double y = (corner & 2) == 0 ? minY : maxY;
+            double z = (corner & 4) == 0 ? minZ : maxZ;
+            double cx = mxx * x + mxy * y + mxz * z + tx;
+            double cy = myx * x + myy * y + myz * z + ty;
+            double cz = mzx * x + mzy * y + mzz * z + tz;
+            int outside = 0;
+            if (cz < near) outside |= 1;
+            if (cz > far) outside |= 2;
+            if (cx < -cz * tanX) outside |= 4;
+            if (cx > cz * tanX) outside |= 8;
+            if (cy < -cz * tanY) outside |= 16;
+            if (cy > cz * tanY) outside |= 32;
+            allOutside &= outside;
+            if (allOutside == 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests a sphere in scene coordinates.
+     *
+     * @return false if the sphere is completely outside the frustum.
+     */
+    boolean intersectsSphere(double x, double y, double z, double radius)
+    {
+        if (!valid) return true;
+
+        double cx = mxx * x + mxy * y + mxz * z + tx;
+        double cy = myx * x + myy * y + myz * z + ty;
+        double cz = mzx * x + mzy * y + mzz * z + tz;
+        if (cz < near - radius || cz > far + radius) return false;
+        // distance to a side plane through the eye, e.g. cx = cz * tanX, is (cx - cz * tanX) / sqrt(1 + tanX^2)
+        double slackX = radius * Math.sqrt(1 + tanX * tanX);
+        double slackY = radius * Math.sqrt(1 + tanY * tanY);
+        return Math.abs(cx) - cz * tanX <= slackX && Math.abs(cy) - cz * tanY <= slackY;
+    }
+
+    // squared distance of a scene point from the camera
+    double distanceSquared(double x, double y, double z)
+    {
+        double dx = x - eyeX, dy = y - eyeY, dz = z - eyeZ;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    boolean isValid() { return valid; }
+}
@@ -2,6 +2,7 @@
 package app;
 
 import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.*;
@@ -23,6 +24,14 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.StrokeLineCap;
 import wrapperSUMO.ControlPanel;
+import wrapperSUMO.DemandScheduler;
+import wrapperSUMO.LaneGeometryStore;
+import wrapperSUMO.SegmentIndex;
+import wrapperSUMO.NetworkModel;
+import wrapperSUMO.SimulationEngine;
+import wrapperSUMO.SimulationFrame;
+import wrapperSUMO.StepStatistics;
+import wrapperSUMO.VehicleFrame;
 import wrapperSUMO.TrafficLightWrapper;
 import de.tudresden.sumo.objects.SumoPosition2D;
 import javafx.scene.control.Label;
@@ -31,7 +40,6 @@ import javafx.scene.control.Label;
 import javafx.scene.text.Font;
 
 import java.util.*;
-import java.awt.geom.Line2D;
 import java.util.List;
 
 
@@ -164,23 +172,39 @@ public class Controller {
     private Label XYZCoord;
 
     // traffic light
-    private boolean isOptimizationActive = false;
-    private boolean isGlobalOptimizationActive = false;
+    // volatile because the optimization runs on the simulation engine thread
+    private volatile boolean isOptimizationActive = false;
+    private volatile boolean isGlobalOptimizationActive = false;
+    // mirror of trafficIdCombo's value that the engine thread may read
+    private volatile String selectedTrafficLightId = null;
     @FXML private Button optimize_traffic;
     private int lastOptimizedPhase = -1;
     private String lastSelectedId = "";
     private TrafficLightWrapper tlsWrapper;
     private static final String NET_XML_PATH = "src/SumoConfig/demo.net.xml";
+    // average rate of vehicles spawned on a selected route (one every 2 seconds)
+    private static final double SPAWN_RATE_PER_HOUR = 1800.0;
     private Map<String, SumoPosition2D> trafficLightPositions = new HashMap<>();
     private boolean arePositionsLoaded = false;
+    // grid over the traffic light positions, owners index trafficLightIndexIds
+    private SegmentIndex trafficLightIndex = SegmentIndex.EMPTY;
+    private String[] trafficLightIndexIds = new String[0];
     // Interaction states (traffic light)
     private String hoveredTrafficLightId = null;
     private boolean isUserDraggingSlider = false;
 
     // logical variables
     private ControlPanel panel;
+    // steps SUMO on its own thread and publishes frames for the UI
+    private SimulationEngine engine;
+    // step number of the last frame the dashboard was updated with
+    private long lastDisplayedStep = -1;
     private AnimationTimer simulationLoop;
     private Map<String, List<SumoPosition2D>> mapShapes = null;
+    // the same lane shapes packed into arrays, handed to the renderers
+    private LaneGeometryStore laneGeometry = LaneGeometryStore.EMPTY;
+    // grid over the lane segments, answers hover and click tests
+    private SegmentIndex laneSegments = SegmentIndex.EMPTY;
 
     private MapDraw mapDraw;
     private MapDraw3D mapDraw3D;
@@ -218,15 +242,11 @@ public class Controller {
     private int clickRouteIndex = 0;
 
     // variable for stress test 2 button
-    private boolean isStressTest2Active = false;
+    private volatile boolean isStressTest2Active = false;
 
     // logic variables to show/hide to sidebar
     private boolean isSidebarVisible = true;
 
-    // variables for delay button
-    private long lastUpdate = 0;
-    private long simulationDelay = 100_000_000; // Default 100ms in nanoseconds
-
 
     private HashSet<KeyCode> keyInputSet = new HashSet<KeyCode>();
 
@@ -265,12 +285,16 @@ public class Controller {
             connectionStatus.setStyle("-fx-text-fill: green");
             tlsWrapper = panel.getTrafficLightWrapper();
             tlsWrapper.isRunning = true;
-            tlsWrapper.loadConnectionDirections(NET_XML_PATH);
+            loadConnectionDirections();
+            tlsWrapper.buildTopology();
         } else {
             connectionStatus.setText("Connection: Disconnected");
             connectionStatus.setStyle("-fx-text-fill: red");
         }
         mapShapes = panel.getMapShape();
+        laneGeometry = panel.getLaneGeometry();
+        laneSegments = panel.getLaneSegmentIndex();
+        engine = createEngine();
 
         initialize3D();
 
@@ -297,9 +321,11 @@ public class Controller {
                     trafficLightPositions.put(id, pos);
                 }
             }
+            buildTrafficLightIndex();
             arePositionsLoaded = true;
         }
         trafficIdCombo.getItems().clear();
+        trafficIdCombo.valueProperty().addListener((obs, oldVal, newVal) -> selectedTrafficLightId = newVal);
         if (tlsIds != null && !tlsIds.isEmpty()) {
             trafficIdCombo.getItems().addAll(tlsIds);
             trafficIdCombo.getSelectionModel().selectFirst();
@@ -313,12 +339,12 @@ public class Controller {
                 autoModeToggle.setText("ON");
                 autoModeToggle.setStyle("-fx-background-color: #4CAF50; -fx-text-fill: white;");
                 // Call backend:
-                panel.turnOnTrafficLight(selectedId);
+                engine.submit(p -> p.turnOnTrafficLight(selectedId));
             } else {
                 // Button is off -> disable Lights "off"
                 autoModeToggle.setText("OFF");
                 autoModeToggle.setStyle("-fx-background-color: #F44336; -fx-text-fill: white;");
-                panel.turnOffTrafficLight(selectedId);
+                engine.submit(p -> p.turnOffTrafficLight(selectedId));
             }
         });
 
@@ -332,7 +358,7 @@ public class Controller {
         OFFSET_Y = mapCanvas.getHeight() / 4;
         drawMap();
 
-        // setup loop
+        // setup loop: the FX thread only draws the latest frame published by the engine
         simulationLoop = new AnimationTimer() {
             @Override
             public void handle(long now) {
@@ -341,6 +367,7 @@ public class Controller {
                     // control the camera in 3D
                     if (currentRenderer instanceof MapDraw3D) {
                         ((MapDraw3D) currentRenderer).updateCamera(keyInputSet);
+                        currentRenderer.setFrame(engine.getLatestFrame());
                         currentRenderer.drawAll();
                     }
                     // same but for 2D
@@ -351,16 +378,17 @@ public class Controller {
                     // display the coords
                     displayCoords();
 
-                    // only update if enough time has passed
-                    if (now - lastUpdate >= simulationDelay) {
-                        updateSimulation();
-                        lastUpdate = now;
+                    // only update the dashboard when the engine published a new step
+                    SimulationFrame frame = engine.getLatestFrame();
+                    if (frame.stepNumber != lastDisplayedStep) {
+                        lastDisplayedStep = frame.stepNumber;
+                        updateStats(frame);
                         if (!isUserDraggingSlider && sliderPhaseDuration != null) {
                             String selectedId = trafficIdCombo.getValue();
 
-                            // Check if a valid ID is selected and we have the wrapper
-                            if (selectedId != null && tlsWrapper != null) {
-                                double remaining = tlsWrapper.getRemainingTimeForConnection(selectedId);
+                            // Check if a valid ID is selected, the countdown comes from the frame
+                            if (selectedId != null) {
+                                double remaining = frame.trafficLights.getRemainingTime(selectedId);
 
                                 // Update the slider and label automatically
                                 sliderPhaseDuration.setValue(remaining);
@@ -372,6 +400,7 @@ public class Controller {
                 }
             }
         };
+        engine.start();
         // redefine vehicle types that appear on the inject vehicle form
         vehicleTypeCombo.getItems().addAll(
                 "DEFAULT_VEHTYPE",
@@ -475,15 +504,10 @@ public class Controller {
                 String foundId = null;
                 double detectionRadius = 30.0;
 
-                for (Map.Entry<String, SumoPosition2D> entry : trafficLightPositions.entrySet()) {
-                    SumoPosition2D pos = entry.getValue();
-                    // Calculate distance in World Coordinates
-                    double dist = Math.sqrt(Math.pow(worldMouseX - pos.x, 2) + Math.pow(worldMouseY - pos.y, 2));
-
-                    if (dist < detectionRadius) {
-                        foundId = entry.getKey();
-                        break;
-                    }
+                // closest light within the radius, distance in World Coordinates
+                int found = trafficLightIndex.findNearest(worldMouseX, worldMouseY, detectionRadius);
+                if (found != -1) {
+                    foundId = trafficLightIndexIds[trafficLightIndex.getOwner(found)];
                 }
                 boolean changed = (foundId == null && hoveredTrafficLightId != null) ||
                         (foundId != null && !foundId.equals(hoveredTrafficLightId));
@@ -516,7 +540,21 @@ public class Controller {
                 if (selectedRouteEdges.isEmpty() || !selectedRouteEdges.getLast().equals(currentEdgeId)) {
                     selectedRouteEdges.add(currentEdgeId);
                     LOG.info("Added edge " + currentEdgeId);
-                    validNextEdges = panel.getValidEdges(currentEdgeId);
+                    if (panel.getNetworkModel() != null) {
+                        // read from the parsed network, no TraCI request on the FX thread
+                        validNextEdges = panel.getValidEdges(currentEdgeId);
+                    } else {
+                        // ask SUMO on the engine thread and highlight the result once it is back
+                        String edgeId = currentEdgeId;
+                        validNextEdges = new ArrayList<>();
+                        engine.submit(p -> {
+                            List<String> nextEdges = p.getValidEdges(edgeId);
+                            Platform.runLater(() -> {
+                                validNextEdges = nextEdges;
+                                drawMap();
+                            });
+                        });
+                    }
                     addVehicleBtn.setText("Add Vehicle(" + selectedRouteEdges.size() + ")");
                     addVehicleBtn.setStyle("-fx-background-color: #4CAF50;");
                     drawMap();
@@ -616,7 +654,8 @@ public class Controller {
                 if (selectedId != null && panel != null) {
                     double newDuration = sliderPhaseDuration.getValue();
                     // Call the new helper method we added to ControlPanel
-                    tlsWrapper.setPhaseDuration(selectedId, newDuration);
+                    TrafficLightWrapper wrapper = tlsWrapper;
+                    engine.submit(p -> wrapper.setPhaseDuration(selectedId, newDuration));
                 }
             });
 
@@ -630,10 +669,10 @@ public class Controller {
         // make delay slider function
         if (delaySlider != null) {
             // Set initial value
-            simulationDelay = (long) (delaySlider.getValue() * 1_000_000);
+            engine.setStepDelay(delaySlider.getValue());
 
             delaySlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-                simulationDelay = (long) (newVal.doubleValue() * 1_000_000);
+                engine.setStepDelay(newVal.doubleValue());
                 delayValue.setText(String.format("%.0f", newVal.doubleValue()));
                 LOG.info("Delay set to: " + newVal.intValue() + "ms");
             });
@@ -645,7 +684,7 @@ public class Controller {
                 double speed = newVal.doubleValue();
                 double visualSpeed = speed * 3.6;
                 maxSpeedValue.setText(String.format("%.1f km/h", visualSpeed));
-                panel.setGlobalMaxSpeed(speed);
+                engine.submit(p -> p.setGlobalMaxSpeed(speed));
                 LOG.info("Max Speed: " + visualSpeed);
             });
         }
@@ -690,13 +729,14 @@ public class Controller {
     /**
      * Resumes the simulation loop.
      * <p>
-     * Re-starts the {@link AnimationTimer} and updates the start/stop button states
-     * to prevent duplicate activation.
+     * Lets the {@link SimulationEngine} continue stepping, re-starts the {@link AnimationTimer}
+     * and updates the start/stop button states to prevent duplicate activation.
      * </p>
      */
     @FXML
     public void onStartClick() {
         LOG.info("Resuming Simulation Loop...");
+        engine.resume();
         simulationLoop.start();
         startBtn.setDisable(true);
         stopBtn.setDisable(false);
@@ -705,12 +745,13 @@ public class Controller {
     /**
      * Pauses the simulation loop.
      * <p>
-     * Stops the {@link AnimationTimer} and enables the start button.
+     * Pauses the {@link SimulationEngine}, stops the {@link AnimationTimer} and enables the start button.
      * </p>
      */
     @FXML
     public void onStopClick() {
         LOG.info("Stopping Simulation...");
+        engine.pause();
         simulationLoop.stop();
         startBtn.setDisable(false);
         stopBtn.setDisable(true);
@@ -745,37 +786,33 @@ public class Controller {
      * @return The ID of the edge found at the location, or {@code null} if no edge is found.
      */
     private String findEdge(double screenX, double screenY) {
-        if (mapShapes == null) return null;
+        if (laneSegments.size() == 0) return null;
 
         double worldX = screenToWorldX(screenX);
         double worldY = screenToWorldY(screenY);
 
         double minDistance = 15.0;
-        String bestEdge = null;
-        int bestIndex = -1;
 
-        for (Map.Entry<String, List<SumoPosition2D>> entry : mapShapes.entrySet()) {
-            List<SumoPosition2D> points = entry.getValue();
-
-            for (int i = 0; i < points.size() - 1; i++) {
-                SumoPosition2D p1 = points.get(i);
-                SumoPosition2D p2 = points.get(i + 1);
-
-                double dist = Line2D.ptSegDist(p1.x, p1.y, p2.x, p2.y, worldX, worldY);
-
-                if (dist < minDistance) {
-                    minDistance = dist;
-                    bestEdge = entry.getKey();
-                    bestIndex = i;
-                }
-            }
+        // only the segments in the grid cells around the mouse are tested
+        int segment = laneSegments.findNearest(worldX, worldY, minDistance);
+        if (segment != -1) {
+            this.hoveredSegmentIndex = laneSegments.getOrdinal(segment);
+            return laneGeometry.getLaneId(laneSegments.getOwner(segment));
         }
+        return null;
+    }
 
-        if (bestEdge != null) {
-            this.hoveredSegmentIndex = bestIndex;
-            return bestEdge;
+    // packs the traffic light positions into a grid for the hover test
+    private void buildTrafficLightIndex() {
+        trafficLightIndexIds = trafficLightPositions.keySet().toArray(new String[0]);
+        double[] xs = new double[trafficLightIndexIds.length];
+        double[] ys = new double[trafficLightIndexIds.length];
+        for (int i = 0; i < trafficLightIndexIds.length; i++) {
+            SumoPosition2D pos = trafficLightPositions.get(trafficLightIndexIds[i]);
+            xs[i] = pos.x;
+            ys[i] = pos.y;
         }
-        return null;
+        trafficLightIndex = SegmentIndex.fromPoints(xs, ys);
     }
 
     /**
@@ -913,8 +950,11 @@ public class Controller {
     /**
      * Spawns a batch of vehicles onto the selected route.
      *
+     * The vehicles are released at random times, on average one every 2 seconds
+     * ({@code SPAWN_RATE_PER_HOUR}), so gaps vary and two may be due in the same step.
+     * SUMO then holds back the second one until lane 0 is free at the start of the route.
+     *
      * @param count The number of vehicles to spawn.
-     * Vehicles are spawned with a 2-second time gap to prevent collisions.
      */
     private void spawnMultipleVehicles(int count) {
         long timestamp = System.currentTimeMillis();
@@ -922,21 +962,25 @@ public class Controller {
 
         // vehicle type
         String selectedType = vehicleTypeCombo.getValue();
+        // copy the route, the selection is cleared before the engine runs the command
+        List<String> routeEdges = new ArrayList<>(selectedRouteEdges);
 
-        try {
-            panel.addRoute(tempRouteId, selectedRouteEdges);
-            double currentTime = panel.getCurrentTime();
-
-            for (int i = 0; i < count; i++) {
-                String vehId = "veh_" + timestamp + "_" + i;
-                // define a gap when spawning vehicles (2 seconds) to prevent traffic jam.
-                int departTime = (int) (currentTime + (i * 2));
-                panel.addVehicle(vehId, selectedType, tempRouteId, departTime, 0.0, 5.0, (byte) 0);
+        engine.submit(p -> {
+            try {
+                p.addRoute(tempRouteId, routeEdges);
+                double currentTime = p.getCurrentTime();
+
+                // release the vehicles at random over time, one every 2 seconds on average,
+                // so they do not all queue up at the start of the route;
+                // like before, they start on lane 0 at position 0 with 5 m/s
+                p.getDemandScheduler().addRouteDemand("veh_" + timestamp, tempRouteId, selectedType,
+                        DemandScheduler.RateProfile.constant(SPAWN_RATE_PER_HOUR), count, currentTime,
+                        "0", "0", "5");
+                LOG.info("Scheduled " + count + " vehicles on route " + tempRouteId);
+            } catch (Exception e) {
+                LOG.error("Failed to spawn vehicle batch: " + e.getMessage());
             }
-            LOG.info("Successfully spawned " + count + " vehicles.");
-        } catch (Exception e) {
-            LOG.error("Failed to spawn vehicle batch: " + e.getMessage());
-        }
+        });
     }
 
     /**
@@ -1007,35 +1051,38 @@ public class Controller {
     private void spawnVehicleOnSelectedRoute() {
         String vehId = "veh_" + System.currentTimeMillis();
         String tempRouteId = "route_" + System.currentTimeMillis();
+        List<String> routeEdges = new ArrayList<>(selectedRouteEdges);
 
-        try {
-            panel.addRoute(tempRouteId, selectedRouteEdges);
+        engine.submit(p -> {
+            try {
+                p.addRoute(tempRouteId, routeEdges);
 
-            int departTime = (int) panel.getCurrentTime();
-            panel.addVehicle(vehId, "DEFAULT_VEHTYPE", tempRouteId, departTime, 0.0, 5.0, (byte) 0);
-            LOG.info("Spawned vehicle on route of length: " + selectedRouteEdges.size());
-        } catch (Exception e) {
-            LOG.error("Failed to spawn vehicle: " + e.getMessage());
-        }
+                int departTime = (int) p.getCurrentTime();
+                p.addVehicle(vehId, "DEFAULT_VEHTYPE", tempRouteId, departTime, 0.0, 5.0, (byte) 0);
+                LOG.info("Spawned vehicle on route of length: " + routeEdges.size());
+            } catch (Exception e) {
+                LOG.error("Failed to spawn vehicle: " + e.getMessage());
+            }
+        });
     }
 
     @FXML
     public void onTurnAllOffClick() {
         LOG.info("User requested: Turning ALL Lights OFF.");
-        panel.turnOffAllLights();
+        engine.submit(ControlPanel::turnOffAllLights);
     }
 
     // Action for the new button: Turn ALL Lights ON
     @FXML
     public void onTurnAllOnClick() {
         LOG.info("User requested: Turning ALL Lights ON.");
-        panel.turnOnAllLights();
+        engine.submit(ControlPanel::turnOnAllLights);
     }
     @FXML
     public void onRestoreAutoClick() {
         LOG.info("User requested: RESTORING AUTOMATIC PROGRAM.");
         // This calls the method that sets the program back to "0"
-        panel.turnOnAllLights();
+        engine.submit(ControlPanel::turnOnAllLights);
     }
 
     /**
@@ -1094,10 +1141,8 @@ public class Controller {
         LOG.info("Performing Stress Test");
         final int vehicleCount = 500;
         try {
-            // call the function stressTest
-            panel.stressTest(vehicleCount);
-            // redraw map
-            drawMap();
+            // call the function stressTest on the engine thread
+            engine.submit(p -> p.stressTest(vehicleCount));
             LOG.info("Adding " + vehicleCount + " to the simulation");
         } catch (Exception e) {
             LOG.error("Failed to perform stress test");
@@ -1139,7 +1184,7 @@ public class Controller {
         boolean check = (roadGroup.getChildren().isEmpty());
 
         if (check) {
-            mapDraw3D.setMapShapes(this.mapShapes);
+            mapDraw3D.setLaneGeometry(this.laneGeometry);
             mapDraw3D.drawRoad();
         }
         // make the subScene focus on the keyboard
@@ -1158,15 +1203,23 @@ public class Controller {
         if (simulationLoop != null) {
             simulationLoop.stop();
         }
-        // tell the backend to close the current SUMO connection and start a new one
-        panel.restartSimulation();
-
-        // re-link the traffic light logic to the new simulation connection
+        // stop stepping before the connection is replaced
+        engine.shutdown();
+        // go back to the initial state, in the same SUMO process if possible
+        boolean warm = panel.restartSimulation();
+
+        // a warm restart keeps the network, so the traffic light topology is still valid;
+        // otherwise re-link the traffic light logic to the new simulation connection.
+        // this runs before the new engine starts, so only one thread uses the connection
         tlsWrapper = panel.getTrafficLightWrapper();
-        if (tlsWrapper != null) {
+        if (!warm && tlsWrapper != null) {
             tlsWrapper.isRunning = true;
-            tlsWrapper.loadConnectionDirections(NET_XML_PATH);
+            loadConnectionDirections();
+            tlsWrapper.buildTopology();
         }
+        engine = createEngine();
+        engine.start();
+        lastDisplayedStep = -1;
 
         // reset the counter so the next car added starts back at the first route
         clickRouteIndex = 0;
@@ -1181,22 +1234,24 @@ public class Controller {
 
     /**
      * This is for the update cycle for the simulation UI and data recording.
+     * Everything shown comes from the given frame, so no TraCI request is made on the FX thread.
+     * @param frame The latest frame published by the simulation engine.
      */
-    private void updateStats() {
+    private void updateStats(SimulationFrame frame) {
         if (panel.isRunning()) {
-            // Fetch data
-            int vehicleCount = panel.getVehicleCount();
-            int edgeCount = panel.getEdgeCount();
-            int trafficLightCount = panel.getTrafficLightCount();
-            double currentSpeed = panel.getGlobalMeanSpeed(); // Convert m/s to km/h
-            double totalCo2 = panel.getTotalCO2();
-            double congestion = panel.getCongestionPercentage();
-            List<Double> waits = panel.getAccumulatedWaitingTimes();
-            String hotspot = panel.getMostCongestedEdge();
+            // Fetch data (vehicle metrics come from one pass over the latest step)
+            StepStatistics stats = frame.statistics;
+            int vehicleCount = stats.vehicleCount;
+            int edgeCount = frame.edgeCount;
+            int trafficLightCount = frame.trafficLightCount;
+            double currentSpeed = stats.meanSpeed; // already in km/h
+            double totalCo2 = stats.totalCO2;
+            double congestion = stats.stoppedPercentage;
+            String hotspot = frame.congestionHotspot;
 
             updateDashboardLabels(vehicleCount, edgeCount, trafficLightCount, currentSpeed, totalCo2, hotspot);
             updateCongestionIndicator(congestion);
-            updateCharts(currentSpeed, waits);
+            updateCharts(currentSpeed, stats);
             recordHistory(currentSpeed, totalCo2, congestion);
         }
     }
@@ -1235,10 +1290,10 @@ public class Controller {
 
     /**
      * Updates the real-time JavaFX charts with the latest simulation data.
-     * @param speed     The current average speed in km/h to be plotted on the timeline.
-     * @param waitTimes A list of accumulated waiting times (in seconds) for all active vehicles.
+     * @param speed The current average speed in km/h to be plotted on the timeline.
+     * @param stats The statistics of the latest step, holding the waiting-time histogram.
      */
-    private void updateCharts(double speed, List<Double> waitTimes) {
+    private void updateCharts(double speed, StepStatistics stats) {
         // Update Speed Line Chart
         timeSeconds += 0.1;
         speedSeries.getData().add(new XYChart.Data<>(timeSeconds, speed));
@@ -1248,18 +1303,10 @@ public class Controller {
             speedSeries.getData().remove(0);
         }
 
-        // Update Waiting Time Bar Chart
-        int stage1 = 0, stage2 = 0, stage3 = 0;
-        for (double w : waitTimes) {
-            if (w < 30) stage1++;
-            else if (w < 60) stage2++;
-            else stage3++;
+        // Update existing data series points (<30s, 30-60s, >60s)
+        for (int bucket = 0; bucket < stats.getWaitingTimeBucketCount(); bucket++) {
+            timeDataSeries.getData().get(bucket).setYValue(stats.getWaitingTimeCount(bucket));
         }
-
-        // Update existing data series points
-        timeDataSeries.getData().get(0).setYValue(stage1);
-        timeDataSeries.getData().get(1).setYValue(stage2);
-        timeDataSeries.getData().get(2).setYValue(stage3);
     }
 
     /**
@@ -1281,7 +1328,8 @@ public class Controller {
             if (cameraCoords.isEmpty()) {
                 LOG.error("Failed to get the camera coordinates");
             } else {
-                String coords = "X: " + cameraCoords.get(0) + " Y: " + cameraCoords.get(1) + " Z: " + cameraCoords.get(2);
+                String coords = "X: " + cameraCoords.get(0) + " Y: " + cameraCoords.get(1) + " Z: " + cameraCoords.get(2)
+                        + "  Visible nodes: " + mapDraw3D.getVisibleNodeCount();
                 XYZCoord.setText(coords);
             }
         }
@@ -1290,9 +1338,33 @@ public class Controller {
             LOG.error("Failed to set the coords");
         }
     }
-    // step and draw map accordingly
-    private void updateSimulation() {
-        panel.step();
+    // reuse the network parsed by the control panel, fall back to reading the net file
+    private void loadConnectionDirections() {
+        NetworkModel network = panel.getNetworkModel();
+        if (network != null) {
+            tlsWrapper.loadConnectionDirections(network);
+        } else {
+            tlsWrapper.loadConnectionDirections(NET_XML_PATH);
+        }
+    }
+
+    /**
+     * Creates a simulation engine for the current control panel and registers the
+     * per-step work (traffic light optimization and stress test 2) on it.
+     * @return A new engine that has not been started yet.
+     */
+    private SimulationEngine createEngine() {
+        SimulationEngine newEngine = new SimulationEngine(panel);
+        newEngine.addStepTask(this::onSimulationStep);
+        if (delaySlider != null) {
+            newEngine.setStepDelay(delaySlider.getValue());
+        }
+        return newEngine;
+    }
+
+    // runs on the engine thread after every step
+    private void onSimulationStep(ControlPanel panel) {
+        TrafficLightWrapper tlsWrapper = this.tlsWrapper;
         if (isGlobalOptimizationActive && tlsWrapper != null) {
             try {
                 // Get ALL Traffic Light IDs
@@ -1311,7 +1383,7 @@ public class Controller {
         }
         else if (isOptimizationActive && tlsWrapper != null) {
             try {
-                String selectedId = trafficIdCombo.getValue();
+                String selectedId = selectedTrafficLightId;
                 if (selectedId != null && !selectedId.isEmpty()) {
                     // Reuse the same smart method
                     tlsWrapper.checkAndOptimize(selectedId);
@@ -1321,31 +1393,20 @@ public class Controller {
             }
         }
         if (isStressTest2Active) {
-            // get a list of all vehicles currently active in the simulation
-            List<String> vehicles = panel.getVehicleIDs();
+            // get all vehicles of the step that just finished
+            VehicleFrame vehicles = panel.getVehicleFrame();
 
             // Loop through every vehicle found on the map
-            for (String id : vehicles) {
+            for (int i = 0; i < vehicles.size(); i++) {
                 // Generate a random number (0-255) for the Red, Green, and Blue channels
                 int r = (int) (Math.random() * 256);
                 int g = (int) (Math.random() * 256);
                 int b = (int) (Math.random() * 256);
 
                 // send the command to SUMO to change this specific vehicle's color
-                panel.setColor(id, r, g, b, 255);
+                panel.setColor(vehicles.getId(i), r, g, b, 255);
             }
         }
-        // refresh the UI labels
-
-        updateStats();
-        // redraw the entire map, including the new positions and colors of vehicles in 3D
-        if (currentRenderer instanceof MapDraw3D) {
-            currentRenderer.drawAll();
-        }
-        // same but for 2D
-        else {
-            drawMap();
-        }
     }
 
     private void drawMap() {
@@ -1355,13 +1416,14 @@ public class Controller {
         currentRenderer.setScale(this.SCALE);
         currentRenderer.setOffsetX(this.OFFSET_X);
         currentRenderer.setOffsetY(this.OFFSET_Y);
-        currentRenderer.setMapShapes(this.mapShapes);
+        currentRenderer.setLaneGeometry(this.laneGeometry);
 
         mapDraw.setShowEdgesID(this.showEdgesID);
         mapDraw.setShowVehicleID(this.showVehicleID);
         mapDraw.setShowRouteID(this.showRouteID);
 
         currentRenderer.setPanel(this.panel);
+        currentRenderer.setFrame(engine != null ? engine.getLatestFrame() : SimulationFrame.EMPTY);
         mapDraw.tlsWrapper = this.tlsWrapper;
 
         currentRenderer.drawAll();
@@ -1452,7 +1514,7 @@ public class Controller {
         }
 
         mapDraw3D.setPanel(this.panel);
-        mapDraw3D.setMapShapes(this.mapShapes);
+        mapDraw3D.setLaneGeometry(this.laneGeometry);
 
         boolean check1 = (mapDraw3D.getSubScene() == null);
 
@@ -1508,7 +1570,7 @@ public class Controller {
             });
         }
         // check roads if empty then draw roads
-        boolean check = mapDraw3D.allRoadBoxes.isEmpty();
+        boolean check = mapDraw3D.getRoadGroup().getChildren().isEmpty();
         if (check)
         {
             mapDraw3D.drawRoad();
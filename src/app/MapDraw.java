@@ -1,20 +1,31 @@
 package app;
 
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.TextAlignment;
 import javafx.scene.shape.StrokeLineCap;
 import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.transform.Transform;
+import javafx.stage.Window;
 import java.util.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import wrapperSUMO.ControlPanel;
 import wrapperSUMO.TrafficLightWrapper;
-import wrapperSUMO.TrafficConnectInfo;
+import wrapperSUMO.LaneGeometryStore;
+import wrapperSUMO.LaneMarkings;
+import wrapperSUMO.SegmentIndex;
+import wrapperSUMO.TrafficLightStateFrame;
+import wrapperSUMO.TrafficLightTopology;
+import wrapperSUMO.SimulationFrame;
+import wrapperSUMO.VehicleFrame;
 import de.tudresden.sumo.objects.SumoPosition2D;
 
 /**
@@ -44,8 +55,14 @@ public class MapDraw implements MapRenderer
     private Canvas canvas;
 
     private ControlPanel panel;
+    private SimulationFrame frame = SimulationFrame.EMPTY;
     public TrafficLightWrapper tlsWrapper;
     private Map<String, List<SumoPosition2D>> mapShapes;
+    // flat copy of the lane shapes that the road layers are drawn from
+    private LaneGeometryStore laneGeometry = LaneGeometryStore.EMPTY;
+    // screen coordinates of the polyline being drawn, grown to the longest lane and reused
+    private double[] screenX = new double[64];
+    private double[] screenY = new double[64];
 
     public double SCALE = 1.0;
     public double OFFSET_X = 0;
@@ -70,8 +87,66 @@ public class MapDraw implements MapRenderer
     private static final Color ASPHALT_COLOR = Color.web("#404040");
     private static final Color GRASS_COLOR = Color.web("#2E7D32");
 
-    private List<List<SumoPosition2D>> dashedWhiteLines = new ArrayList<>();
-    private List<List<SumoPosition2D>> solidCenterLines = new ArrayList<>();
+    // generated once per network by the control panel
+    private LaneMarkings laneMarkings = null;
+
+    // memory budget of the road tiles, -Dtraffic.tileCacheMB=<n> overrides it
+    private static final long TILE_CACHE_BUDGET = Long.getLong("traffic.tileCacheMB", 64L) << 20;
+    // pre-rendered road tiles per zoom level, used for the normal (non-debug) view; a budget of 0 disables them
+    private final RoadTileCache roadTiles = (TILE_CACHE_BUDGET > 0) ? new RoadTileCache(TILE_CACHE_BUDGET) : null;
+
+    // visible part of the world, updated at the start of every frame
+    private double viewMinX, viewMinY, viewMaxX, viewMaxY;
+    // extra screen pixels around the canvas that still count as visible (wide strokes, boxes, labels)
+    private static final double CULL_MARGIN_PX = 40.0;
+    // spatial indices of the drawn geometry, rebuilt when the geometry changes
+    private SegmentIndex laneSegments = null;
+    private SegmentIndex dashedSegments = null;
+    private SegmentIndex solidSegments = null;
+    private LaneMarkings indexedMarkings = null;
+    // reused query results
+    private final SegmentIndex.OwnerQuery visibleLanes = new SegmentIndex.OwnerQuery();
+    private final SegmentIndex.OwnerQuery visibleMarkings = new SegmentIndex.OwnerQuery();
+    // drawn/total counts of the latest frame, shown in the debug view
+    private int lanesDrawn, markingsDrawn, markingsTotal, labelsDrawn;
+    private int lightsDrawn, lightsTotal, vehiclesDrawn, vehiclesTotal;
+
+    // grass, roads and markings of the last settled view, copied to the canvas every frame
+    private WritableImage roadLayer = null;
+    // the view the road layer was rendered for
+    private RoadView roadLayerView = null;
+    // the view of the previous frame; a layer is only captured once the view stops changing
+    private RoadView lastRoadView = null;
+
+    /**
+     * Level of detail of the vehicles, chosen from the zoom scale.
+     */
+    private enum VehicleLod {
+        // vector bodies drawn by the VehicleRenderer of the type
+        FULL,
+        // the same bodies taken from the VehicleSpriteAtlas
+        SPRITE,
+        // one colored dot per vehicle, written into a pixel buffer
+        DOT
+    }
+
+    // below this scale vehicles are drawn as sprites, -Dtraffic.vehicleSpriteScale overrides it
+    private double spriteLodScale = doubleProperty("traffic.vehicleSpriteScale", 8.0);
+    // below this scale vehicles are drawn as dots, -Dtraffic.vehicleDotScale overrides it
+    private double dotLodScale = doubleProperty("traffic.vehicleDotScale", 0.4);
+
+    // memory budget of the vehicle sprites, -Dtraffic.spriteAtlasMB=<n> overrides it
+    private static final long SPRITE_ATLAS_BUDGET = Long.getLong("traffic.spriteAtlasMB", 16L) << 20;
+    private final VehicleSpriteAtlas spriteAtlas = new VehicleSpriteAtlas(SPRITE_ATLAS_BUDGET);
+
+    // canvas-sized pixel buffer of the dot tier and the area written in the previous frame
+    private WritableImage dotLayer = null;
+    private int[] dotPixels = null;
+    private int dotMinX, dotMinY, dotMaxX = -1, dotMaxY = -1;
+    private static final int DOT_SIZE = 3;
+
+    // positions and angles between the last two steps
+    private final VehicleInterpolator motion = new VehicleInterpolator();
 
     private final VehicleRenderer carRenderer = new CarRenderer();
     private final VehicleRenderer deliveryRenderer = new DeliveryRenderer();
@@ -86,6 +161,33 @@ public class MapDraw implements MapRenderer
     {
         this.canvas = canvas;
     }
+
+    // reads a double system property, the default if it is missing or invalid
+    private static double doubleProperty(String name, double defaultValue) {
+        try {
+            return Double.parseDouble(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            LOG.error("Invalid value for " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Sets the zoom scales at which vehicles switch to cheaper drawing.
+     *
+     * @param spriteBelow Below this scale vehicles are drawn as pre-rendered sprites.
+     * @param dotBelow    Below this scale vehicles are drawn as single dots.
+     */
+    public void setVehicleLodThresholds(double spriteBelow, double dotBelow) {
+        this.spriteLodScale = spriteBelow;
+        this.dotLodScale = Math.min(dotBelow, spriteBelow);
+    }
+
+    private VehicleLod vehicleLod() {
+        if (SCALE < dotLodScale) return VehicleLod.DOT;
+        if (SCALE < spriteLodScale) return VehicleLod.SPRITE;
+        return VehicleLod.FULL;
+    }
     /**
      * Executes the complete drawing sequence for the 2D map.
      * It clears the canvas and redraws the road infrastructure,
@@ -97,6 +199,7 @@ public class MapDraw implements MapRenderer
             return;
         }
 
+        updateViewport();
         drawRoads();
 
         if (tlsWrapper != null && panel != null && panel.isRunning()) {
@@ -104,30 +207,190 @@ public class MapDraw implements MapRenderer
         }
 
         drawAllVehicles();
+
+        if (showEdgesID) {
+            drawCullingOverlay(canvas.getGraphicsContext2D());
+        }
+    }
+
+    // computes the world rectangle on screen (plus the culling margin) from SCALE and OFFSET
+    private void updateViewport() {
+        double margin = CULL_MARGIN_PX / SCALE;
+        viewMinX = (0 - OFFSET_X) / SCALE - margin;
+        viewMaxX = (canvas.getWidth() - OFFSET_X) / SCALE + margin;
+        viewMinY = (0 - OFFSET_Y) / SCALE - margin;
+        viewMaxY = (canvas.getHeight() - OFFSET_Y) / SCALE + margin;
+    }
+
+    // true if a world position is inside the visible rectangle
+    private boolean isVisible(double worldX, double worldY) {
+        return worldX >= viewMinX && worldX <= viewMaxX && worldY >= viewMinY && worldY <= viewMaxY;
+    }
+
+    // collects the lanes crossing the viewport into visibleLanes
+    private void queryVisibleLanes() {
+        if (laneSegments == null) {
+            // share the panel's index if it was built for the same geometry
+            laneSegments = (panel != null && panel.getLaneGeometry() == laneGeometry)
+                    ? panel.getLaneSegmentIndex() : SegmentIndex.fromLanes(laneGeometry);
+        }
+        laneSegments.queryOwners(viewMinX, viewMinY, viewMaxX, viewMaxY, visibleLanes);
+        lanesDrawn = visibleLanes.size();
+    }
+
+    /**
+     * Draws how many objects survived viewport culling in the top left corner.
+     * Only shown in the debug view (edge IDs enabled).
+     */
+    private void drawCullingOverlay(GraphicsContext gc) {
+        String text = String.format("lanes %d/%d  labels %d  markings %d/%d  lights %d/%d  vehicles %d/%d  sprites %d hit %d miss",
+                lanesDrawn, laneGeometry.getLaneCount(), labelsDrawn, markingsDrawn, markingsTotal,
+                lightsDrawn, lightsTotal, vehiclesDrawn, vehiclesTotal, spriteAtlas.getHits(), spriteAtlas.getMisses());
+        gc.setFont(Font.font("Monospaced", 12));
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setFill(Color.rgb(0, 0, 0, 0.6));
+        gc.fillRect(8, 8, text.length() * 7.3 + 12, 22);
+        gc.setFill(Color.WHITE);
+        gc.fillText(text, 14, 24);
     }
 
     /**
      * Manages the rendering of the road network infrastructure.
      * Depending on current settings, it renders either the detailed
      * road textures (asphalt, markings) or a debug view with IDs.
+     * <p>
+     * The normal view is assembled from pre-rendered tiles (see {@link RoadTileCache}), so its cost
+     * does not depend on the size of the network. The debug view keeps its labels in one piece and
+     * uses a single cached layer instead.
+     * </p>
+     * <p>
+     * The debug layer only changes on screen when the view changes (zoom, pan, canvas size,
+     * the edge ID toggle or a new map). It is therefore rendered into an off-screen image once
+     * the view has been the same for two frames, and every following frame only copies that
+     * image to the canvas. While the user pans or zooms the roads are drawn directly, so no
+     * snapshot is taken for views that are only shown for a single frame.
+     * </p>
      */
     public void drawRoads() {
         GraphicsContext gc = canvas.getGraphicsContext2D();
 
-        if (mapShapes == null || mapShapes.isEmpty()) return;
+        if (laneGeometry.getLaneCount() == 0) return;
 
-        drawGrass(gc);
+        if (laneMarkings == null && panel != null) {
+            laneMarkings = panel.getLaneMarkings();
+        }
 
-        if (dashedWhiteLines.isEmpty()) {
-            generateWhiteLines();
+        if (!showEdgesID && roadTiles != null) {
+            roadTiles.setContent(laneGeometry, laneMarkings);
+            drawGrass(gc);
+            roadTiles.draw(gc, SCALE, OFFSET_X, OFFSET_Y, canvas.getWidth(), canvas.getHeight());
+            return;
         }
 
+        // the cached layer is still valid, copy it
+        if (roadLayer != null && roadLayerView.matches(this)) {
+            gc.drawImage(roadLayer, 0, 0, canvas.getWidth(), canvas.getHeight());
+            return;
+        }
+
+        drawStaticRoads(gc);
+
+        if (lastRoadView != null && lastRoadView.matches(this)) {
+            // the view settled, keep what was just drawn for the next frames
+            captureRoadLayer();
+            roadLayerView = lastRoadView;
+        } else {
+            lastRoadView = new RoadView(this);
+        }
+    }
+
+    // draws grass, roads and markings directly to the canvas
+    private void drawStaticRoads(GraphicsContext gc) {
+        drawGrass(gc);
+        queryVisibleLanes();
+
         if (showEdgesID) {
             drawDebugRoads(gc);
         } else {
             drawBaseRoads(gc);
         }
     }
+
+    /**
+     * Copies the current canvas content (only the static roads at this point) into the road layer.
+     * The image uses the output scale of the window so the layer stays sharp on HiDPI screens,
+     * and the existing image is reused when its size still fits.
+     */
+    private void captureRoadLayer() {
+        double pixelScale = 1.0;
+        if (canvas.getScene() != null) {
+            Window window = canvas.getScene().getWindow();
+            if (window != null) {
+                pixelScale = Math.max(1.0, window.getOutputScaleX());
+            }
+        }
+        int width = (int) Math.ceil(canvas.getWidth() * pixelScale);
+        int height = (int) Math.ceil(canvas.getHeight() * pixelScale);
+        if (width <= 0 || height <= 0) {
+            roadLayer = null;
+            return;
+        }
+
+        SnapshotParameters params = new SnapshotParameters();
+        params.setFill(GRASS_COLOR);
+        params.setTransform(Transform.scale(pixelScale, pixelScale));
+        WritableImage target = (roadLayer != null && (int) roadLayer.getWidth() == width
+                && (int) roadLayer.getHeight() == height) ? roadLayer : null;
+        try {
+            roadLayer = canvas.snapshot(params, target);
+        } catch (Exception e) {
+            // drawing directly still works, just without the cache
+            LOG.error("Failed to capture the road layer: " + e.getMessage());
+            roadLayer = null;
+        }
+    }
+
+    /**
+     * Drops the cached road layer, e.g. after the map or its markings changed.
+     * The next frames draw the roads directly until the view settles again.
+     */
+    public void invalidateRoadLayer() {
+        roadLayer = null;
+        roadLayerView = null;
+        lastRoadView = null;
+    }
+
+    /**
+     * Everything the static road layer depends on.
+     */
+    private static final class RoadView {
+        final double scale;
+        final double offsetX;
+        final double offsetY;
+        final double width;
+        final double height;
+        final boolean showEdgesID;
+        final LaneGeometryStore geometry;
+        final LaneMarkings markings;
+
+        RoadView(MapDraw map) {
+            scale = map.SCALE;
+            offsetX = map.OFFSET_X;
+            offsetY = map.OFFSET_Y;
+            width = map.canvas.getWidth();
+            height = map.canvas.getHeight();
+            showEdgesID = map.showEdgesID;
+            geometry = map.laneGeometry;
+            markings = map.laneMarkings;
+        }
+
+        boolean matches(MapDraw map) {
+            return scale == map.SCALE && offsetX == map.OFFSET_X && offsetY == map.OFFSET_Y
+                    && width == map.canvas.getWidth() && height == map.canvas.getHeight()
+                    && showEdgesID == map.showEdgesID
+                    && geometry == map.laneGeometry && markings == map.laneMarkings;
+        }
+    }
     /**
      * Fills the entire background of the canvas with a grass texture color.
      * * @param gc The GraphicsContext used to issue draw calls to the canvas.
@@ -141,12 +404,14 @@ public class MapDraw implements MapRenderer
     private void drawDebugRoads(GraphicsContext gc) {
         gc.setFill(Color.WHITE);
         gc.setTextAlign(TextAlignment.CENTER);
-        for (Map.Entry<String, List<SumoPosition2D>> entry : mapShapes.entrySet()) {
-            drawPolyLine(gc, entry.getValue());
-
-            String laneID = entry.getKey();
-            if (!laneID.startsWith(":") && entry.getValue().size() > 1) {
-                drawEdgeLabel(gc, laneID, entry.getValue());
+        labelsDrawn = 0;
+        for (int i = 0; i < visibleLanes.size(); i++) {
+            int lane = visibleLanes.get(i);
+            drawPolyLine(gc, laneGeometry, lane);
+
+            if (!laneGeometry.isInternal(lane) && laneGeometry.getPointCount(lane) > 1) {
+                drawEdgeLabel(gc, laneGeometry, lane);
+                labelsDrawn++;
             }
         }
     }
@@ -169,8 +434,8 @@ public class MapDraw implements MapRenderer
         // draw second layer: asphalt
         drawRoadLayer(gc, ASPHALT_COLOR, baseRoadWidth);
 
-        // draw dashed white lines and solid white lines
-        if (SCALE > 0.5) {
+        // draw dashed white lines and solid white lines, from the same zoom as the road tiles
+        if (RoadTileCache.drawsMarkings(SCALE)) {
             drawRoadMarkings(gc);
         }
     }
@@ -184,8 +449,9 @@ public class MapDraw implements MapRenderer
     private void drawRoadLayer(GraphicsContext gc, Color color, double width) {
         gc.setStroke(color);
         gc.setLineWidth(width);
-        for (List<SumoPosition2D> points : mapShapes.values()) {
-            drawPolyLine(gc, points);
+        // only the lanes found by queryVisibleLanes
+        for (int i = 0; i < visibleLanes.size(); i++) {
+            drawPolyLine(gc, laneGeometry, visibleLanes.get(i));
         }
     }
     /**
@@ -195,6 +461,14 @@ public class MapDraw implements MapRenderer
      * * @param gc the GraphicsContext used for drawing.
      */
     private void drawRoadMarkings(GraphicsContext gc) {
+        if (laneMarkings == null) return;
+        if (indexedMarkings != laneMarkings) {
+            dashedSegments = SegmentIndex.fromLanes(laneMarkings.getDashedLines());
+            solidSegments = SegmentIndex.fromLanes(laneMarkings.getSolidLines());
+            indexedMarkings = laneMarkings;
+        }
+        markingsTotal = laneMarkings.getDashedLines().getLaneCount() + laneMarkings.getSolidLines().getLaneCount();
+        markingsDrawn = 0;
         double lineWidth = 0.3 * SCALE;
         gc.setLineWidth(lineWidth);
 
@@ -202,20 +476,110 @@ public class MapDraw implements MapRenderer
         gc.setStroke(Color.WHITESMOKE);
         gc.setLineCap(StrokeLineCap.BUTT);
         gc.setLineDashes(2.0 * SCALE, 3.0 * SCALE);
-        for (List<SumoPosition2D> points : dashedWhiteLines) {
-            drawPolyLine(gc, points);
+        LaneGeometryStore dashed = laneMarkings.getDashedLines();
+        dashedSegments.queryOwners(viewMinX, viewMinY, viewMaxX, viewMaxY, visibleMarkings);
+        for (int i = 0; i < visibleMarkings.size(); i++) {
+            drawPolyLine(gc, dashed, visibleMarkings.get(i));
         }
+        markingsDrawn += visibleMarkings.size();
 
         // draw solid Lines
         gc.setLineDashes(null);
         gc.setStroke(Color.WHITE);
-        for (List<SumoPosition2D> points : solidCenterLines) {
-            drawPolyLine(gc, points);
+        LaneGeometryStore solid = laneMarkings.getSolidLines();
+        solidSegments.queryOwners(viewMinX, viewMinY, viewMaxX, viewMaxY, visibleMarkings);
+        for (int i = 0; i < visibleMarkings.size(); i++) {
+            drawPolyLine(gc, solid, visibleMarkings.get(i));
         }
+        markingsDrawn += visibleMarkings.size();
 
         gc.setLineCap(StrokeLineCap.ROUND); // Reset cap
     }
 
+    /**
+     * Writes one dot per visible vehicle into a canvas-sized pixel buffer and draws it with a
+     * single image call. Only the area covered by this and the previous frame's dots is cleared
+     * and uploaded.
+     */
+    private void drawVehicleDots(GraphicsContext gc, VehicleFrame vehicles) {
+        int width = (int) canvas.getWidth();
+        int height = (int) canvas.getHeight();
+        if (width <= 0 || height <= 0) return;
+        if (dotLayer == null || (int) dotLayer.getWidth() != width || (int) dotLayer.getHeight() != height) {
+            dotLayer = new WritableImage(width, height);
+            dotPixels = new int[width * height];
+            dotMaxX = dotMaxY = -1;
+        }
+
+        // erase the dots of the previous frame
+        int minX = dotMinX, minY = dotMinY, maxX = dotMaxX, maxY = dotMaxY;
+        for (int y = minY; y <= maxY; y++) {
+            Arrays.fill(dotPixels, y * width + minX, y * width + maxX + 1, 0);
+        }
+
+        int newMinX = width, newMinY = height, newMaxX = -1, newMaxY = -1;
+        double canvasHeight = canvas.getHeight();
+        for (int i = 0; i < vehicles.size(); i++) {
+            double worldX = motion.getX(i);
+            double worldY = motion.getY(i);
+            if (!isVisible(worldX, worldY)) continue;
+            String typeID = vehicles.getTypeID(i);
+            if (!shouldDrawVehicle(typeID)) continue;
+
+            int px = (int) ((worldX * SCALE) + OFFSET_X) - DOT_SIZE / 2;
+            int py = (int) (canvasHeight - ((worldY * SCALE) + OFFSET_Y)) - DOT_SIZE / 2;
+            int x0 = Math.max(0, px), x1 = Math.min(width - 1, px + DOT_SIZE - 1);
+            int y0 = Math.max(0, py), y1 = Math.min(height - 1, py + DOT_SIZE - 1);
+            if (x0 > x1 || y0 > y1) continue;
+
+            vehiclesDrawn++;
+            // taxis are always drawn gold, see TaxiRenderer
+            int argb = (typeID != null && typeID.equals("DEFAULT_TAXITYPE")) ? VehicleSpriteAtlas.toArgb(Color.GOLD) : VehicleSpriteAtlas.toArgb(vehicles.getColor(i));
+            argb |= 0xFF000000;
+            for (int y = y0; y <= y1; y++) {
+                Arrays.fill(dotPixels, y * width + x0, y * width + x1 + 1, argb);
+            }
+            newMinX = Math.min(newMinX, x0);
+            newMinY = Math.min(newMinY, y0);
+            newMaxX = Math.max(newMaxX, x1);
+            newMaxY = Math.max(newMaxY, y1);
+        }
+
+        // upload the union of the old and the new dot area
+        int upMinX = Math.min(minX, newMinX), upMinY = Math.min(minY, newMinY);
+        int upMaxX = Math.max(maxX, newMaxX), upMaxY = Math.max(maxY, newMaxY);
+        if (maxX < 0) { upMinX = newMinX; upMinY = newMinY; }
+        if (newMaxX < 0) { upMinX = minX; upMinY = minY; }
+        if (upMaxX >= 0 && upMaxY >= 0) {
+            dotLayer.getPixelWriter().setPixels(upMinX, upMinY, upMaxX - upMinX + 1, upMaxY - upMinY + 1,
+                    PixelFormat.getIntArgbInstance(), dotPixels, upMinY * width + upMinX, width);
+        }
+        dotMinX = newMinX;
+        dotMinY = newMinY;
+        dotMaxX = newMaxX;
+        dotMaxY = newMaxY;
+
+        if (newMaxX >= 0) {
+            gc.drawImage(dotLayer, 0, 0);
+        }
+    }
+
+    // drops the dot buffer when another tier is active, it is rebuilt when zooming out again
+    private void clearVehicleDots() {
+        dotLayer = null;
+        dotPixels = null;
+        dotMaxX = dotMaxY = -1;
+    }
+
+    // stable number of the renderer of a type, used in sprite keys
+    private int rendererIndex(String typeID) {
+        VehicleRenderer renderer = getRenderer(typeID);
+        if (renderer == deliveryRenderer) return 1;
+        if (renderer == evRenderer) return 2;
+        if (renderer == taxiRenderer) return 3;
+        return 0;
+    }
+
     //Helper to select the correct renderer based on XML ID
     private VehicleRenderer getRenderer(String typeID) {
         if (typeID == null) return carRenderer;
@@ -254,12 +618,19 @@ public class MapDraw implements MapRenderer
         }
     }
 
+    /**
+     * Draws every vehicle of the latest simulation step.
+     * <p>
+     * All values come from the {@link VehicleFrame} of the current {@link SimulationFrame},
+     * so drawing vehicles does not issue any TraCI request.
+     * </p>
+     */
     public void drawAllVehicles() {
         if (panel == null || !panel.isRunning()) return;
         GraphicsContext gc = canvas.getGraphicsContext2D();
 
-        //Get the list of current vehicle IDs
-        List<String> vehicles = panel.getVehicleIDs();
+        //Get the vehicles of the latest step
+        VehicleFrame vehicles = frame.vehicles;
 
         double carLength = 4.5 * SCALE;
         if (carLength < 8.0) carLength = 8.0;
@@ -267,40 +638,58 @@ public class MapDraw implements MapRenderer
         double carWidth = 2.0 * SCALE;
         if (carWidth < 4.0) carWidth = 4.0;
 
-        for (String id : vehicles) {
-            SumoPosition2D pos = panel.getPosition(id);
-            double x = (pos.x * SCALE) + OFFSET_X;
-            double y = canvas.getHeight() - ((pos.y * SCALE) + OFFSET_Y);
-            double angle = panel.getVehicleAngle(id);
-
-            Color color;
-            //Select the specific renderer
-            try {
-                color = panel.getVehicleColor(id);
-
-                //Ask the panel for the Type ID
-                String typeID = panel.getVehicleTypeID(id);
-                if (!shouldDrawVehicle(typeID)) {
-                    continue;
-                }
+        vehiclesTotal = vehicles.size();
+        vehiclesDrawn = 0;
+        motion.update(frame, System.nanoTime());
+        VehicleLod lod = vehicleLod();
+        if (lod == VehicleLod.DOT) {
+            drawVehicleDots(gc, vehicles);
+            if (!showVehicleID && !showRouteID) return;
+        } else {
+            clearVehicleDots();
+        }
+        // sprites are rendered for the scale bucket and drawn scaled to the exact size
+        double spriteFactor = 1.0;
+        if (lod == VehicleLod.SPRITE) {
+            spriteAtlas.setScale(SCALE, 8.0, 4.0);
+            spriteFactor = carLength / spriteAtlas.getSpriteLength();
+        }
+
+        for (int i = 0; i < vehicles.size(); i++) {
+            // vehicles move every step, so a plain bounds test is cheaper than indexing them
+            double worldX = motion.getX(i);
+            double worldY = motion.getY(i);
+            if (!isVisible(worldX, worldY)) {
+                continue;
+            }
+            String typeID = vehicles.getTypeID(i);
+            if (!shouldDrawVehicle(typeID)) {
+                continue;
+            }
+            double x = (worldX * SCALE) + OFFSET_X;
+            double y = canvas.getHeight() - ((worldY * SCALE) + OFFSET_Y);
+
+            //Select the specific renderer and draw
+            if (lod == VehicleLod.FULL) {
+                vehiclesDrawn++;
                 VehicleRenderer renderer = getRenderer(typeID);
-                //Draw
-                renderer.draw(gc, x, y, angle, carLength, carWidth, color);
-            } catch (Exception e) {
-                color = Color.YELLOW;
+                renderer.draw(gc, x, y, motion.getAngle(i), carLength, carWidth, vehicles.getColor(i));
+            } else if (lod == VehicleLod.SPRITE) {
+                vehiclesDrawn++;
+                WritableImage sprite = spriteAtlas.get(getRenderer(typeID), rendererIndex(typeID),
+                        motion.getAngle(i), vehicles.getColor(i));
+                double size = sprite.getWidth() * spriteFactor;
+                gc.drawImage(sprite, x - size / 2, y - size / 2, size, size);
             }
 
             if (showVehicleID) {
                 gc.setFill(Color.LIME);
-                gc.fillText(id, x, y - 8);
+                gc.fillText(vehicles.getId(i), x, y - 8);
             }
 
             if (showRouteID) {
-                try {
-                    String routeID = panel.getVehicleRouteID(id);
-                    gc.setFill(Color.RED);
-                    gc.fillText(routeID, x, y + 15);
-                } catch (Exception e) {}
+                gc.setFill(Color.RED);
+                gc.fillText(vehicles.getRouteID(i), x, y + 15);
             }
         }
     }
@@ -317,17 +706,56 @@ public class MapDraw implements MapRenderer
         if (points.isEmpty()) {
             return;
         }
-        double[] xPoints = new double[points.size()];
-        double[] yPoints = new double[points.size()];
+        ensureScreenCapacity(points.size());
+        double height = canvas.getHeight();
         for (int i = 0; i < points.size(); i++)
         {
             // apply zoom scale and horizontal offset
-            xPoints[i] = (points.get(i).x * SCALE ) + OFFSET_X;
+            screenX[i] = (points.get(i).x * SCALE ) + OFFSET_X;
             // invert the y-axis to match the javafx
-            yPoints[i] = canvas.getHeight() - ((points.get(i).y * SCALE) + OFFSET_Y);
+            screenY[i] = height - ((points.get(i).y * SCALE) + OFFSET_Y);
         }
         // draw the connected line segment on the canvas
-        gc.strokePolyline(xPoints, yPoints, points.size());
+        gc.strokePolyline(screenX, screenY, points.size());
+    }
+
+    /**
+     * Renders one polyline of a {@link LaneGeometryStore}.
+     * <p>
+     * Same transformation as {@link #drawPolyLine(GraphicsContext, List)}, but the points are read
+     * straight from the packed coordinate arrays into reused screen buffers, so drawing the whole
+     * network does not allocate anything.
+     * </p>
+     *
+     * @param gc       The GraphicsContext used for drawing.
+     * @param geometry The store holding the polyline.
+     * @param handle   The handle of the lane (or marking line) in the store.
+     */
+    public void drawPolyLine(GraphicsContext gc, LaneGeometryStore geometry, int handle)
+    {
+        int start = geometry.getStart(handle);
+        int count = geometry.getEnd(handle) - start;
+        if (count == 0) {
+            return;
+        }
+        ensureScreenCapacity(count);
+        double height = canvas.getHeight();
+        for (int i = 0; i < count; i++)
+        {
+            screenX[i] = (geometry.getX(start + i) * SCALE) + OFFSET_X;
+            screenY[i] = height - ((geometry.getY(start + i) * SCALE) + OFFSET_Y);
+        }
+        gc.strokePolyline(screenX, screenY, count);
+    }
+
+    // grows the screen buffers; only happens until the longest lane has been drawn once
+    private void ensureScreenCapacity(int count)
+    {
+        if (screenX.length < count) {
+            int capacity = Math.max(count, screenX.length * 2);
+            screenX = new double[capacity];
+            screenY = new double[capacity];
+        }
     }
 
     /**
@@ -344,22 +772,46 @@ public class MapDraw implements MapRenderer
     public void drawEdgeLabel(GraphicsContext gc, String laneID, List<SumoPosition2D> points)
     {
         if (points.size() < 2) return;
-        String edgeID = laneID;
-        int _index = laneID.lastIndexOf('_');
-        if (_index != -1) {
-            edgeID = laneID.substring(0, _index);
-        }
-
         int midIndex = points.size() / 2;
         if (midIndex >= points.size() - 1) {
             midIndex = points.size() - 2;
         }
-
         SumoPosition2D p1 = points.get(midIndex);
         SumoPosition2D p2 = points.get(midIndex + 1);
+        drawEdgeLabel(gc, laneID, p1.x, p1.y, p2.x, p2.y);
+    }
+
+    /**
+     * Draws the ID label of a lane stored in a {@link LaneGeometryStore}.
+     *
+     * @param gc       The GraphicsContext used for drawing.
+     * @param geometry The store holding the lane.
+     * @param handle   The handle of the lane in the store.
+     */
+    public void drawEdgeLabel(GraphicsContext gc, LaneGeometryStore geometry, int handle)
+    {
+        int count = geometry.getPointCount(handle);
+        if (count < 2) return;
+        int midIndex = count / 2;
+        if (midIndex >= count - 1) {
+            midIndex = count - 2;
+        }
+        int p1 = geometry.getStart(handle) + midIndex;
+        drawEdgeLabel(gc, geometry.getLaneId(handle),
+                geometry.getX(p1), geometry.getY(p1), geometry.getX(p1 + 1), geometry.getY(p1 + 1));
+    }
 
-        double dx = p2.x - p1.x;
-        double dy = p2.y - p1.y;
+    // draws the label next to the middle segment (x1, y1) -> (x2, y2) of a lane
+    private void drawEdgeLabel(GraphicsContext gc, String laneID, double x1, double y1, double x2, double y2)
+    {
+        String edgeID = laneID;
+        int _index = laneID.lastIndexOf('_');
+        if (_index != -1) {
+            edgeID = laneID.substring(0, _index);
+        }
+
+        double dx = x2 - x1;
+        double dy = y2 - y1;
         double length = Math.sqrt(dx * dx + dy * dy);
 
         if (length == 0) return;
@@ -370,8 +822,8 @@ public class MapDraw implements MapRenderer
         double normalY = -unitX;
 
         double offsetDistance = 7.0;
-        double worldX = ((p1.x + p2.x) / 2.0) + (normalX * offsetDistance);
-        double worldY = ((p1.y + p2.y) / 2.0) + (normalY * offsetDistance);
+        double worldX = ((x1 + x2) / 2.0) + (normalX * offsetDistance);
+        double worldY = ((y1 + y2) / 2.0) + (normalY * offsetDistance);
 
         double screenX = (worldX * SCALE) + OFFSET_X;
         double screenY = canvas.getHeight() - ((worldY * SCALE) + OFFSET_Y);
@@ -383,236 +835,6 @@ public class MapDraw implements MapRenderer
         gc.setFill(Color.WHITE);
         gc.fillText(edgeID, screenX, screenY);
     }
-    /**
-     * performs vector normalization by dividing a component by the vector length.
-     * this helper ensures that the resulting directional components are within a unit range.
-     * * @param length the calculated magnitude of the vector.
-     * @param var the specific x or y component to be normalized.
-     * @return the normalized component, or 0.0 if length is zero or an error occurs.
-     */
-    private double normalizeVector(double length, double var)
-    {
-        try {
-            if (length > 0)
-            {
-                return var / length;
-            }
-        }
-        catch (Exception e)
-        {
-            LOG.error("Failed to normalize vectors");
-        }
-        return 0.0;
-    }
-    /**
-     * calculates a new path that runs parallel to the provided coordinates at a specific offset.
-     * this is used to determine road boundaries or centerlines by calculating perpendicular
-     * vectors for each segment of the road.
-     * * @param points the original list of coordinates representing the lane center.
-     * @param offset the distance to shift the line (positive for left, negative for right).
-     * @return a list of coordinates representing the shifted parallel path.
-     */
-    // find the line parallel to the left most lane
-    private List<SumoPosition2D> calculateLeftParallelLine(List<SumoPosition2D> points, double offset) {
-
-        List<SumoPosition2D> leftParallelLine = new ArrayList<>();
-        if (points.size() < 2) {
-            return leftParallelLine;
-        }
-
-        for (int i = 0; i < points.size(); i++) {
-            // create variables to store the 90 degrees vector
-            double leftDirectionalX = 0, leftDirectionalY = 0;
-
-            if (i > 0) {
-                // calculate dx, dy from the current point to the point before
-                double dx = points.get(i).x - points.get(i - 1).x;
-                double dy = points.get(i).y - points.get(i - 1).y;
-                // calculate the length of the segment between the 2 points using Pythargon
-                double len = Math.sqrt(dx * dx + dy * dy);
-
-                // to find the perpendicular vector, take (x, y) --> (-x, y)
-                // normalize dx, dy
-
-                leftDirectionalX -= normalizeVector(len, dy);
-                leftDirectionalY += normalizeVector(len, dx);
-            }
-
-            if (i < points.size() - 1) {
-                // calculate the points from the next point to the current point
-                double dx = points.get(i + 1).x - points.get(i).x;
-                double dy = points.get(i + 1).y - points.get(i).y;
-                // calculate the length of the segment between the 2 points using Pythargon
-                double len = Math.sqrt(dx*dx + dy*dy);
-
-                // to find the perpendicular vector, take (x, y) --> (-x, y)
-                // normalize dx, dy
-                if (len > 0) {
-                    leftDirectionalX -= normalizeVector(len, dy);
-                    leftDirectionalY += normalizeVector(len, dx);
-                }
-            }
-
-            // calculate the length
-            double len = Math.sqrt(leftDirectionalX * leftDirectionalX + leftDirectionalY * leftDirectionalY);
-            if (len > 0) {
-                // normalize the vectors
-                leftDirectionalX /= len;
-                leftDirectionalY /= len;
-
-            }
-
-            // calculate the left parallel points
-            double newX = points.get(i).x + (leftDirectionalX * offset);
-            double newY = points.get(i).y + (leftDirectionalY * offset);
-
-            SumoPosition2D leftParallelPoint = new SumoPosition2D(newX, newY);
-
-            // add to the list
-            leftParallelLine.add(leftParallelPoint);
-        }
-        return leftParallelLine;
-    }
-
-    /**
-     * coordinates the generation of all white road markings.
-     * it groups lanes by their parent edge, sorts them, and then generates either
-     * dashed lines (for lane separation) or solid lines (for road boundaries).
-     */
-    private void generateWhiteLines() {
-        dashedWhiteLines.clear();
-        solidCenterLines.clear();
-        if (mapShapes == null) return;
-
-        // create the hashset
-        Map<String, Map<Integer, List<SumoPosition2D>>> edgeGroups = createRoadHashMap();
-        Set<String> alreadyDrawn = new HashSet<>();
-
-        for (Map<Integer, List<SumoPosition2D>> laneMap : edgeGroups.values()) {
-            if (laneMap.isEmpty()) {
-                continue;
-            }
-
-            List<Integer> sortedIndices = new ArrayList<>(laneMap.keySet());
-            Collections.sort(sortedIndices);
-
-            // draw dashed white lines
-            createDashedWhiteLine(laneMap, sortedIndices);
-
-            // draw the left parallel line
-            createLeftBoundaryLine(laneMap, sortedIndices, alreadyDrawn);
-        }
-    }
-
-    /**
-     * parses the raw map data to group individual lanes into their respective road edges.
-     * it filters out internal sumo junctions and organizes coordinates by edge id and lane index.
-     * * @return a nested map structure where the primary key is the edge id and the value is a map of lanes.
-     */
-    // create road hash map
-    private Map<String, Map<Integer, List<SumoPosition2D>>> createRoadHashMap()
-    {
-        // create a hashmap
-        Map<String, Map<Integer, List<SumoPosition2D>>> roadMap = new HashMap<>();
-        // loop through each pairs of keys and values
-        for (Map.Entry<String, List<SumoPosition2D>> entry : mapShapes.entrySet()){
-            // extract the key
-            String fullEdgeID = entry.getKey();
-
-            // skip internal edges
-            if (fullEdgeID.startsWith(":")){
-                continue;
-            }
-
-            // get the position of "_"
-            int underScoreIndex = fullEdgeID.lastIndexOf("_");
-
-            if (underScoreIndex != -1) {
-                // get the edgeID
-                String edgeID = fullEdgeID.substring(0, underScoreIndex);
-                try {
-                    // get the laneID
-                    int laneID = Integer.parseInt(fullEdgeID.substring(underScoreIndex + 1));
-                    // create a hashmap for that edgeID
-                    roadMap.putIfAbsent(edgeID, new HashMap<>());
-                    // put laneID and 2D data into the hashmap
-                    roadMap.get(edgeID).put(laneID, entry.getValue());
-                }
-                catch (NumberFormatException e) {
-                    LOG.error("Could not parse lane index for: " + fullEdgeID);
-                }
-            }
-        }
-        return roadMap;
-    }
-    /**
-     * generates coordinates for dashed lines that separate multiple lanes on the same road.
-     * it calculates the midpoint between adjacent lanes to place the separator correctly.
-     * * @param laneMap the map containing lane indices and their coordinates for a specific edge.
-     * @param sortedIndicies the list of lane indices sorted from right to left.
-     */
-    private void createDashedWhiteLine(Map<Integer, List<SumoPosition2D>> laneMap, List<Integer> sortedIndicies){
-        for (int i = 0; i < sortedIndicies.size() - 1; i++)
-        {
-            // get laneA and laneB
-            List<SumoPosition2D> laneA = laneMap.get(sortedIndicies.get(i));
-            List<SumoPosition2D> laneB = laneMap.get(sortedIndicies.get(i+1));
-
-            // create a list for the middle line
-            List<SumoPosition2D> separator = new ArrayList<>();
-            // find number of points
-            int numberOfPoints = Math.min(laneA.size(), laneB.size());
-
-            for (int j = 0; j < numberOfPoints; j++)
-            {
-                // find the middle point
-                double midX = (laneA.get(j).x + laneB.get(j).x) / 2.0;
-                double midY = (laneA.get(j).y + laneB.get(j).y) / 2.0;
-                SumoPosition2D centerPoint = new SumoPosition2D(midX, midY);
-                // add to the list
-                separator.add(centerPoint);
-            }
-            // add the middle line into dashedWhiteLines
-            dashedWhiteLines.add(separator);
-        }
-    }
-    /**
-     * generates the leftmost boundary line for a road edge.
-     * depending on the lane count and road type, it assigns the boundary as either
-     * a solid center line or a dashed outer marking.
-     * * @param laneMap the map of lanes for the current edge.
-     * @param sortedIndices the sorted indices of the lanes.
-     * @param alreadyDrawn a set used to track and prevent duplicate drawing of identical boundaries.
-     */
-    private void createLeftBoundaryLine(Map<Integer, List<SumoPosition2D>> laneMap, List<Integer> sortedIndices, Set<String> alreadyDrawn)
-    {
-        // get the index of the leftMostLane
-        int maxIndex = sortedIndices.getLast();
-        // get the leftMostLane
-        List<SumoPosition2D> leftMostLane = laneMap.get(maxIndex);
-        // calculate the road boundary
-        List<SumoPosition2D> roadBoundary = calculateLeftParallelLine(leftMostLane, 1.6);
-
-        // draw solid lines if the road has more than 1 lane
-        if (sortedIndices.size() > 1){
-            solidCenterLines.add(roadBoundary);
-        }
-        // draw dashed lines if the road has 1 lane
-        else if (!roadBoundary.isEmpty())
-        {
-            // create a unique key
-            int midIdx = roadBoundary.size() / 2;
-            SumoPosition2D mid = roadBoundary.get(midIdx);
-            String key = Math.round(mid.x) + "_" + Math.round(mid.y);
-            // add the key to the set
-            if (alreadyDrawn.add(key)) {
-                // if true, add the line to dashedWhiteLine
-                dashedWhiteLines.add(roadBoundary);
-            }
-        }
-    }
-
-
     /**
      * Renders all traffic lights onto the simulation canvas.
      * <p>
@@ -629,40 +851,37 @@ public class MapDraw implements MapRenderer
      */
     public void drawTrafficLights(GraphicsContext gc) {
         if (tlsWrapper == null || !panel.isRunning()) return;
+        lightsDrawn = 0;
         if (SCALE < 0.2) return;
 
-        List<String> trafficLightIds = tlsWrapper.getTrafficLightIDs();
-
-        for (String trafficid : trafficLightIds) {
-            Map<String, List<TrafficConnectInfo>> connectionsByEdge = tlsWrapper.get_traffic_connections(trafficid);
-            Map<String, List<SumoPosition2D>> edgeGeometry = panel.get_traffic_light_pos(trafficid);
-            int secondsLeft = (int) tlsWrapper.getRemainingTimeForConnection(trafficid);
-
-            for (Map.Entry<String, List<TrafficConnectInfo>> edgeEntry : connectionsByEdge.entrySet()) {
-                String incomingEdgeID = edgeEntry.getKey();
-                List<TrafficConnectInfo> edgeConnections = edgeEntry.getValue();
-
-                if (edgeGeometry.containsKey(incomingEdgeID)) {
-                    List<SumoPosition2D> shape = edgeGeometry.get(incomingEdgeID);
-                    if (shape == null || shape.isEmpty() || shape.size() < 2) continue;
-
-                    SumoPosition2D stopPos = shape.get(shape.size() - 1);
-                    double drawX = (stopPos.x * SCALE) + OFFSET_X;
-                    double drawY = canvas.getHeight() - ((stopPos.y * SCALE) + OFFSET_Y);
-
-                    SumoPosition2D prevPos = shape.get(shape.size() - 2);
-                    double prevX = (prevPos.x * SCALE) + OFFSET_X;
-                    double prevY = canvas.getHeight() - ((prevPos.y * SCALE) + OFFSET_Y);
-
-                    double angle = Math.toDegrees(Math.atan2(drawY - prevY, drawX - prevX));
-                    double rotation = angle + 90;
-
-                    gc.save();
-                    gc.translate(drawX, drawY);
-                    gc.rotate(rotation);
-                    drawDirectionalTrafficLight(gc, 0, 0, secondsLeft, edgeConnections, trafficid);
-                    gc.restore();
-                }
+        // links, directions and stop lines are static, the signals come from the step's snapshot
+        TrafficLightTopology topology = tlsWrapper.getTopology();
+        TrafficLightStateFrame states = frame.trafficLights;
+        lightsTotal = topology.getApproaches().size();
+
+        for (String trafficid : topology.getTrafficLightIds()) {
+            List<TrafficLightTopology.Approach> approaches = topology.getApproaches(trafficid);
+            if (approaches.isEmpty()) continue;
+            char[] state = states.getState(trafficid);
+            int secondsLeft = (int) states.getRemainingTime(trafficid);
+
+            for (TrafficLightTopology.Approach approach : approaches) {
+                if (!isVisible(approach.stopX, approach.stopY)) continue;
+                lightsDrawn++;
+                double drawX = (approach.stopX * SCALE) + OFFSET_X;
+                double drawY = canvas.getHeight() - ((approach.stopY * SCALE) + OFFSET_Y);
+
+                double prevX = (approach.prevX * SCALE) + OFFSET_X;
+                double prevY = canvas.getHeight() - ((approach.prevY * SCALE) + OFFSET_Y);
+
+                double angle = Math.toDegrees(Math.atan2(drawY - prevY, drawX - prevX));
+                double rotation = angle + 90;
+
+                gc.save();
+                gc.translate(drawX, drawY);
+                gc.rotate(rotation);
+                drawDirectionalTrafficLight(gc, 0, 0, secondsLeft, approach, state);
+                gc.restore();
             }
         }
     }
@@ -676,14 +895,13 @@ public class MapDraw implements MapRenderer
      * @param x The center X coordinate.
      * @param y The center Y coordinate.
      * @param secondsLeft The countdown timer value to display (if detailed mode is on).
-     * @param connections The list of lane connections controlled by this light.
-     * @param trafficId The ID of the traffic light (for state lookup).
+     * @param approach The incoming edge of the traffic light, with the link index of each arrow slot.
+     * @param state The current signals of the traffic light, indexed by link index.
      */
-    private void drawDirectionalTrafficLight(GraphicsContext gc, double x, double y, int secondsLeft, List<TrafficConnectInfo> connections, String trafficId) {
-        if (connections.isEmpty()) return;
+    private void drawDirectionalTrafficLight(GraphicsContext gc, double x, double y, int secondsLeft,
+                                             TrafficLightTopology.Approach approach, char[] state) {
+        if (approach.getConnections().isEmpty()) return;
         boolean isDetailed = SCALE > 0.6;
-        Map<String, TrafficConnectInfo> slotMap = new HashMap<>();
-        for (TrafficConnectInfo info : connections) slotMap.putIfAbsent(info.getDirection().toLowerCase(), info);
 
         double sizeFactor = Math.min(1.0, Math.max(0.6, SCALE));
         double lightRadius = (isDetailed ? 4 : 2.5) * sizeFactor;
@@ -692,7 +910,7 @@ public class MapDraw implements MapRenderer
         double slotSize = (lightRadius * 2);
         double slotStep = slotSize + spacing;
 
-        String[] directions = {"t", "l", "s", "r"};
+        String[] directions = TrafficLightTopology.DIRECTIONS;
         double boxWidth = (slotStep * 4) + padding;
         double boxHeight = slotSize + (padding * 2);
         if (isDetailed) boxHeight += (10 * sizeFactor);
@@ -709,15 +927,17 @@ public class MapDraw implements MapRenderer
         double currentX = startX + padding + lightRadius;
         double lightY = startY + padding + lightRadius;
 
-        for (String dir : directions) {
-            TrafficConnectInfo info = slotMap.get(dir);
+        for (int slot = 0; slot < directions.length; slot++) {
+            String dir = directions[slot];
+            int linkIndex = approach.getSlotLinkIndex(slot);
             Color arrowColor = Color.web("#444444");
 
-            if (info != null) {
-                char state = tlsWrapper.getStateForConnection(trafficId, info.getLinkIndex());
-                if (state == 'r' || state == 'R') arrowColor = Color.web("#FF3333");
-                else if (state == 'y' || state == 'Y') arrowColor = Color.web("#FFCC00");
-                else if (state == 'g' || state == 'G') arrowColor = Color.web("#00FF66");
+            if (linkIndex >= 0) {
+                // default to red if the state is missing
+                char signal = (linkIndex < state.length) ? state[linkIndex] : 'r';
+                if (signal == 'r' || signal == 'R') arrowColor = Color.web("#FF3333");
+                else if (signal == 'y' || signal == 'Y') arrowColor = Color.web("#FFCC00");
+                else if (signal == 'g' || signal == 'G') arrowColor = Color.web("#00FF66");
             }
 
             if (isDetailed) {
@@ -727,7 +947,7 @@ public class MapDraw implements MapRenderer
                 gc.fillOval(currentX - lightRadius, lightY - lightRadius, lightRadius * 2, lightRadius * 2);
             }
 
-            if (isDetailed && secondsLeft >= 0 && info != null) {
+            if (isDetailed && secondsLeft >= 0 && linkIndex >= 0) {
                 gc.setFill(Color.web("#DDDDDD"));
                 gc.setFont(Font.font("Segoe UI", FontWeight.BOLD, 8 * sizeFactor));
                 gc.setTextAlign(TextAlignment.CENTER);
@@ -767,7 +987,18 @@ public class MapDraw implements MapRenderer
     }
     @Override
     public void setMapShapes(Map<String, List<SumoPosition2D>> mapShapes) {
+        if (mapShapes == this.mapShapes) return;
         this.mapShapes = mapShapes;
+        setLaneGeometry(LaneGeometryStore.fromShapes(mapShapes));
+    }
+    @Override
+    public void setLaneGeometry(LaneGeometryStore geometry) {
+        if (geometry == this.laneGeometry) return;
+        this.laneGeometry = (geometry != null) ? geometry : LaneGeometryStore.EMPTY;
+        // fetch the markings of the new map on the next draw
+        this.laneMarkings = null;
+        this.laneSegments = null;
+        invalidateRoadLayer();
     }
     @Override
     public void setScale(double scale) {
@@ -797,4 +1028,8 @@ public class MapDraw implements MapRenderer
     public void setPanel(ControlPanel panel) {
         this.panel = panel;
     }
+    @Override
+    public void setFrame(SimulationFrame frame) {
+        this.frame = frame;
+    }
 }
\ No newline at end of file
@@ -1,17 +1,23 @@
 package app;
 
+import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.scene.*;
 import javafx.scene.input.KeyCode;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.PhongMaterial;
 import javafx.scene.shape.Box;
-import javafx.scene.shape.Cylinder;
+import javafx.scene.shape.CullFace;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
 import javafx.scene.transform.Rotate;
 
 import java.util.*;
 
 import wrapperSUMO.ControlPanel;
+import wrapperSUMO.LaneGeometryStore;
+import wrapperSUMO.SimulationFrame;
+import wrapperSUMO.VehicleFrame;
 import de.tudresden.sumo.objects.SumoPosition2D;
 
 import org.apache.logging.log4j.LogManager;
@@ -40,19 +46,50 @@ public class MapDraw3D implements MapRenderer {
     private Group lightGroup = new Group();
     private Group cameraGroup = new Group();
 
-    // map the vehicle id with its box
-    private Map<String, Group> vehicleWithNames = new HashMap<>();
-    private Map<String, Box> roadWithNames = new HashMap<>();
+    // map the vehicle id with its model
+    private Map<String, VehicleModelPool.Model> vehicleWithNames = new HashMap<>();
+    // IDs of the current step, reused every frame
+    private final Set<String> vehicleIDs = new HashSet<>();
+    private final VehicleModelPool vehicleModels = new VehicleModelPool(vehicleGroup);
+
+    // view volume of the camera in the current frame
+    private final CameraFrustum frustum = new CameraFrustum();
+    // shapes left for the renderer after culling
+    private int visibleNodeCount = 0;
 
     private ControlPanel panel;
+    private SimulationFrame frame = SimulationFrame.EMPTY;
 
     private Map<String, List<SumoPosition2D>> mapShapes;
-    List<Box> allRoadBoxes = new ArrayList<>();
+    // positions and angles between the last two steps
+    private final VehicleInterpolator motion = new VehicleInterpolator();
+    private LaneGeometryStore laneGeometry = LaneGeometryStore.EMPTY;
+    // geometry the current road meshes are (being) built from
+    private LaneGeometryStore roadSource = null;
+    // bumped by every drawRoad, so a slow build never adds outdated meshes
+    private int roadGeneration = 0;
+    List<MeshView> roadChunks = new ArrayList<>();
+    private final List<RoadMeshBuilder.Chunk> roadChunkData = new ArrayList<>();
 
     private static final double CAMERA_INITIAL_Y = -100.0;
     private static final double CAMERA_INITIAL_Z_OFFSET = -600.0;
     private static final double ROAD_WIDTH = 4.5;
     private static final double GRASS_SIZE = 2000.0;
+    // edge length of a road mesh chunk in meters
+    private static final double ROAD_CHUNK_SIZE = 250.0;
+    // vehicles further away are drawn as a single box, -Dtraffic.vehicleDetailDistance overrides it
+    private static final double VEHICLE_DETAIL_DISTANCE = Long.getLong("traffic.vehicleDetailDistance", 150L);
+    // vehicles further away are not drawn, -Dtraffic.vehicleCutoffDistance overrides it
+    private static final double VEHICLE_CUTOFF_DISTANCE = Long.getLong("traffic.vehicleCutoffDistance", 800L);
+    // radius of a sphere around a vehicle model, for the frustum test
+    private static final double VEHICLE_RADIUS = 3.0;
+
+    // one material for all roads, so the meshes share their shader state
+    private static final PhongMaterial ROAD_MATERIAL = new PhongMaterial();
+    static {
+        ROAD_MATERIAL.setDiffuseColor(Color.rgb(40, 40, 40));
+        ROAD_MATERIAL.setSpecularColor(Color.rgb(30, 30, 30));
+    }
 
     /**
      * Constructs a MapDraw3D instance and initializes the root 3D group.
@@ -161,109 +198,23 @@ public class MapDraw3D implements MapRenderer {
         vehicles.clear();
 
         vehicleWithNames.clear();
-    }
-
-    private Box createCentralVehicleBox(double width, double height, double depth) {
-        // width, height, depth
-        Box centralVehicleBox = new Box(width, height, depth);
-
-        // color the car
-        PhongMaterial mat = new PhongMaterial();
-        mat.setDiffuseColor(Color.RED);
-        centralVehicleBox.setMaterial(mat);
-
-        centralVehicleBox.setTranslateY(-0.7);
-
-        return centralVehicleBox;
-    }
-
-    private Box createEngineBox(double width, double height, double depth) {
-        Box engineBox = new Box(width, height, depth);
-        PhongMaterial mat1 = new PhongMaterial();
-        mat1.setDiffuseColor(Color.BLUE);
-        engineBox.setMaterial(mat1);
-
-        engineBox.setTranslateZ(-1.75);
-        engineBox.setTranslateY(-0.45);
-
-        return engineBox;
-    }
-
-    private Box createWindshieldBox(double width, double height, double depth) {
-        Box windShieldBox = new Box(width, height, depth);
-        PhongMaterial mat2 = new PhongMaterial();
-        mat2.setDiffuseColor(Color.BLACK);
-        windShieldBox.setMaterial(mat2);
-
-        windShieldBox.setTranslateY(-0.95);
-        windShieldBox.setTranslateZ(-1.75);
-
-        return windShieldBox;
-    }
-
-    private Group createVehicleTires(double radius, double height) {
-        PhongMaterial mat = new PhongMaterial();
-        mat.setDiffuseColor(Color.BLACK);
-
-        Group carTireGroup = new Group();
-
-        for (int i = 0; i < 4; i++)
-        {
-            Cylinder carTire = new Cylinder(radius, height);
-            carTire.setRotationAxis(Rotate.Z_AXIS);
-            carTire.setRotate(90);
-            carTire.setMaterial(mat);
-            carTireGroup.getChildren().add(carTire);
-        }
-
-        Cylinder leftFrontTire = (Cylinder) carTireGroup.getChildren().get(0);
-        leftFrontTire.setTranslateX(-1.1);
-        leftFrontTire.setTranslateY(0);
-        leftFrontTire.setTranslateZ(-2.0);
+        vehicleModels.clear();
 
-        Cylinder rightFrontTire = (Cylinder) carTireGroup.getChildren().get(1);
-        rightFrontTire.setTranslateX(1.1);
-        rightFrontTire.setTranslateY(0);
-        rightFrontTire.setTranslateZ(-2.0);
-
-        Cylinder leftBackTire = (Cylinder) carTireGroup.getChildren().get(2);
-        leftBackTire.setTranslateX(-1.1);
-        leftBackTire.setTranslateY(0);
-        leftBackTire.setTranslateZ(0.5);
-
-        Cylinder rightBackTire = (Cylinder) carTireGroup.getChildren().get(3);
-        rightBackTire.setTranslateX(1.1);
-        rightBackTire.setTranslateY(0);
-        rightBackTire.setTranslateZ(0.5);
-
-        return carTireGroup;
-    }
-
-    private Group createVehicle() {
-        // width, height, depth
-        Box centralVehicleBox = createCentralVehicleBox(2.0, 1.0, 2.0);
-
-        Box engineBox = createEngineBox(2.0, 0.5, 1.5);
-
-        Box windShieldBox = createWindshieldBox(2.0, 0.5, 1.5);
-
-        Group tireGroup =  createVehicleTires(0.5, 0.5);
-
-
-        Group carGroup = new Group();
-        carGroup.getChildren().addAll(tireGroup, centralVehicleBox, engineBox, windShieldBox);
-        return carGroup;
+        // drop meshes of a build that is still running, and build again on the next frame
+        roadGeneration++;
+        roadSource = null;
+        roadChunks.clear();
+        roadChunkData.clear();
     }
 
-    private void rotateVehicle(String vehicleId, Group vehicle) {
-        double vehAngle = panel.getVehicleAngle(vehicleId);
+    private void rotateVehicle(double vehAngle, Group vehicle) {
         vehicle.setRotationAxis(Rotate.Y_AXIS);
         vehicle.setRotate(vehAngle+180);
     }
     /**
      * Synchronizes 3D vehicle models with the current simulation data.
-     * Creates, updates, or removes 3D car models based on the active vehicle list
-     * in the simulation.
+     * Creates, updates, or removes 3D car models based on the vehicles of the
+     * latest simulation step.
      */
     public void updateVehicles() {
         if (panel == null)
@@ -271,52 +222,107 @@ public class MapDraw3D implements MapRenderer {
             return;
         }
 
-        List<String> vehicleIDs = panel.getVehicleIDs();
-        for (String id : vehicleIDs)
+        VehicleFrame vehicles = frame.vehicles;
+        motion.update(frame, System.nanoTime());
+        vehicleIDs.clear();
+        for (int i = 0; i < vehicles.size(); i++)
         {
+            String id = vehicles.getId(i);
+            vehicleIDs.add(id);
+            VehicleModelPool.Model model = vehicleWithNames.get(id);
             // check if the car exists
-            if (!vehicleWithNames.containsKey(id))
+            if (model == null)
+            {
+                // take a car of its type from the pool
+                model = vehicleModels.acquire(VehicleModelPool.kindOf(vehicles.getTypeID(i)), vehicles.getColor(i));
+                vehicleWithNames.put(id, model);
+            }
+            else
             {
-                // create the car
-                Group aCar = createVehicle();
-                // add in the hash map
-                vehicleWithNames.put(id, aCar);
-                // add in the vehicleGroup
-                ObservableList<Node> vehicle = vehicleGroup.getChildren();
-                vehicle.add(aCar);
+                vehicleModels.paint(model, vehicles.getColor(i));
             }
-            // get the current car
-            Group currentCarBox = vehicleWithNames.get(id);
-            // get the SUMOPosition2D
-            SumoPosition2D pos = panel.getPosition(id);
+
+            // pick the level of detail by the distance to the camera
+            int lod = vehicleLod(motion.getX(i), motion.getY(i));
+            vehicleModels.setLod(model, lod);
+            if (lod == VehicleModelPool.LOD_HIDDEN)
+            {
+                // the position is updated again once the car comes into view
+                continue;
+            }
+            visibleNodeCount += (lod == VehicleModelPool.LOD_FULL) ? VehicleModelPool.FULL_NODE_COUNT : 1;
+
+            Group currentCarBox = model.group;
             // assign SUMO X to the car's X
-            currentCarBox.setTranslateX(pos.x);
+            currentCarBox.setTranslateX(motion.getX(i));
             // move the car up by 1 meter
             currentCarBox.setTranslateY(-1.0);
             // assign SUMO Y to the car's Z
-            currentCarBox.setTranslateZ(pos.y);
+            currentCarBox.setTranslateZ(motion.getY(i));
 
             // rotate the vehicle along the road
-            rotateVehicle(id, currentCarBox);
+            rotateVehicle(motion.getAngle(i), currentCarBox);
         }
 
-        vehicleWithNames.entrySet().removeIf(entry -> {
-            // check if the car exists
-            boolean check = vehicleIDs.contains(entry.getKey());
-            // if not exist
-            if (!check)
-            {
-                // get the car's data
-                Group currentCarBox = entry.getValue();
-                ObservableList<Node> vehicle = vehicleGroup.getChildren();
-                // remove the box data from vehicleGroup
-                vehicle.remove(currentCarBox);
-                // removeIf(true) --> delete from vehicleWithNames
+        // only look for departures if some vehicle of the last frame is missing
+        if (vehicleWithNames.size() > vehicleIDs.size())
+        {
+            vehicleWithNames.entrySet().removeIf(entry -> {
+                if (vehicleIDs.contains(entry.getKey()))
+                {
+                    return false;
+                }
+                // hide the car and keep it for the next arrival
+                vehicleModels.release(entry.getValue());
                 return true;
+            });
+        }
+    }
+
+    private int vehicleLod(double x, double z) {
+        if (!frustum.isValid())
+        {
+            return VehicleModelPool.LOD_FULL;
+        }
+        // the car floats 1 meter above the road
+        double distanceSquared = frustum.distanceSquared(x, -1.0, z);
+        if (distanceSquared > VEHICLE_CUTOFF_DISTANCE * VEHICLE_CUTOFF_DISTANCE
+                || !frustum.intersectsSphere(x, -1.0, z, VEHICLE_RADIUS))
+        {
+            return VehicleModelPool.LOD_HIDDEN;
+        }
+        if (distanceSquared > VEHICLE_DETAIL_DISTANCE * VEHICLE_DETAIL_DISTANCE)
+        {
+            return VehicleModelPool.LOD_SIMPLE;
+        }
+        return VehicleModelPool.LOD_FULL;
+    }
+    /**
+     * Hides the road chunks that lie completely outside the camera's view.
+     * Counts the remaining road meshes and the grass as visible nodes.
+     */
+    private void cullRoads() {
+        // the grass is always in view
+        visibleNodeCount = 1;
+        for (int i = 0; i < roadChunks.size(); i++)
+        {
+            RoadMeshBuilder.Chunk chunk = roadChunkData.get(i);
+            boolean visible = frustum.intersectsBox(chunk.minX, -0.5, chunk.minZ, chunk.maxX, 0.5, chunk.maxZ);
+            MeshView roadMesh = roadChunks.get(i);
+            if (roadMesh.isVisible() != visible)
+            {
+                roadMesh.setVisible(visible);
+            }
+            if (visible)
+            {
+                visibleNodeCount++;
             }
-            // removeIf(false) --> don't delete
-            return false;
-        });
+        }
+    }
+
+    // number of road meshes and vehicle shapes drawn in the last frame
+    public int getVisibleNodeCount() {
+        return visibleNodeCount;
     }
 
     private Box createGrassBox(double width, double length) {
@@ -331,68 +337,70 @@ public class MapDraw3D implements MapRenderer {
         return grassBox;
     }
 
-    private Box createRoadBox(double width, double length) {
-        // width, height, depth
-        Box roadBox = new Box(width, 1, length);
-
-        // color the road
-        PhongMaterial mat = new PhongMaterial();
-        mat.setDiffuseColor(Color.rgb(40, 40, 40));
-        mat.setSpecularColor(Color.rgb(30, 30, 30));
-        roadBox.setMaterial(mat);
+    private MeshView createRoadMesh(RoadMeshBuilder.Chunk chunk) {
+        TriangleMesh mesh = new TriangleMesh();
+        mesh.getPoints().setAll(chunk.points);
+        // the roads are plain colored, so one texture coordinate serves all vertices
+        mesh.getTexCoords().setAll(0, 0);
+        mesh.getFaces().setAll(chunk.faces);
+        mesh.getFaceSmoothingGroups().setAll(chunk.smoothingGroups);
 
-        return roadBox;
+        MeshView roadMesh = new MeshView(mesh);
+        roadMesh.setMaterial(ROAD_MATERIAL);
+        // the ribbon faces are not consistently wound
+        roadMesh.setCullFace(CullFace.NONE);
+        return roadMesh;
     }
     /**
-     * Generates 3D box primitives representing the road network geometry.
-     * Calculates the length, position, and rotation of each road segment
-     * based on the map's coordinate shapes.
+     * Generates the 3D road network from the lane geometry.
+     * The lanes are extruded into ribbons and merged into one mesh per map chunk
+     * on a background thread; the meshes are added to the road group once they are done.
+     * The grass is added right away.
      */
     public void drawRoad() {
-        allRoadBoxes.clear();
-        Box grassBox = createGrassBox(GRASS_SIZE, GRASS_SIZE);
-        for (Map.Entry<String, List<SumoPosition2D>> data : mapShapes.entrySet())
-        {
-            // get the points
-            List<SumoPosition2D> points = data.getValue();
-            for (int i = 0; i < points.size() - 1; i++)
-            {
-
-                SumoPosition2D startPoint = points.get(i);
-                SumoPosition2D endPoint = points.get(i+1);
-
-                // calculate length
-                double dx = endPoint.x - startPoint.x;
-                double dz = endPoint.y - startPoint.y;
-                double roadLength = Math.sqrt(dx*dx + dz*dz);
-
-                // calculate midPoint
-                double midPointX = (startPoint.x + endPoint.x) / 2;
-                double midPointY = (startPoint.y + endPoint.y) / 2;
-                SumoPosition2D midPoint = new SumoPosition2D(midPointX, midPointY);
-
-                // calculate the angle of the road(*)
-                double angle_rad = Math.atan2(dx, dz);
-                double angle_deg = Math.toDegrees(angle_rad);
+        LaneGeometryStore geometry = laneGeometry;
+        int generation = ++roadGeneration;
+        roadSource = geometry;
+        roadChunks.clear();
+        roadChunkData.clear();
 
-                // create the roadBox
-                Box roadBox = createRoadBox(4.5, roadLength);
-
-                // set the position of the road box
-                roadBox.setTranslateX(midPoint.x);
-                roadBox.setTranslateZ(midPoint.y);
-
-                // set the rotation axis of the road box
-                roadBox.setRotationAxis(Rotate.Y_AXIS);
-                roadBox.setRotate(angle_deg);
+        ObservableList<Node> roadList = roadGroup.getChildren();
+        roadList.clear();
+        roadList.add(createGrassBox(GRASS_SIZE, GRASS_SIZE));
+        if (geometry.getLaneCount() == 0)
+        {
+            return;
+        }
 
-                // add in the list
-                allRoadBoxes.add(roadBox);
+        Thread builder = new Thread(() -> {
+            try
+            {
+                // top face at y = -0.5, bottom at 0.5 (the y-axis points down)
+                List<RoadMeshBuilder.Chunk> chunks = RoadMeshBuilder.build(geometry, ROAD_WIDTH, -0.5, 0.5, ROAD_CHUNK_SIZE);
+                Platform.runLater(() -> addRoadChunks(chunks, generation));
+            }
+            catch (Exception e)
+            {
+                LOG.error("Failed to build the 3D road meshes: " + e.getMessage());
             }
+        }, "road-mesh-builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private void addRoadChunks(List<RoadMeshBuilder.Chunk> chunks, int generation) {
+        // a newer drawRoad or clearAll happened in the meantime
+        if (generation != roadGeneration)
+        {
+            return;
         }
-        ObservableList<Node> roadList = roadGroup.getChildren();
-        roadList.addAll(allRoadBoxes);
-        roadList.add(grassBox);
+        for (RoadMeshBuilder.Chunk chunk : chunks)
+        {
+            roadChunks.add(createRoadMesh(chunk));
+            roadChunkData.add(chunk);
+        }
+        roadGroup.getChildren().addAll(roadChunks);
+        LOG.info("Built " + chunks.size() + " road meshes from " + roadSource.getLaneCount() + " lanes");
     }
     /**
      * Calculates the geographic center point of the simulation map.
@@ -681,15 +689,29 @@ public class MapDraw3D implements MapRenderer {
     @Override
     public void drawAll() {
 
-        if (allRoadBoxes.isEmpty() && mapShapes != null) {
+        // build the roads once, and again if the network changed
+        if (roadSource != laneGeometry && laneGeometry.getLaneCount() > 0) {
             drawRoad();
         }
+        // cull against the camera as it is this frame
+        if (subScene != null)
+        {
+            frustum.update(camera, subScene.getWidth(), subScene.getHeight());
+        }
+        cullRoads();
         updateVehicles();
     }
 
     @Override
     public void setMapShapes(Map<String, List<SumoPosition2D>> mapShapes) {
+        if (mapShapes == this.mapShapes) return;
         this.mapShapes = mapShapes;
+        setLaneGeometry(LaneGeometryStore.fromShapes(mapShapes));
+    }
+
+    @Override
+    public void setLaneGeometry(LaneGeometryStore geometry) {
+        this.laneGeometry = (geometry != null) ? geometry : LaneGeometryStore.EMPTY;
     }
 
     @Override
@@ -704,6 +726,10 @@ public class MapDraw3D implements MapRenderer {
         this.panel = panel;
     }
     @Override
+    public void setFrame(SimulationFrame frame) {
+        this.frame = frame;
+    }
+    @Override
     public void setScale(double scale) {
     }
 
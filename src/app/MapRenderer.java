@@ -4,6 +4,8 @@ import java.util.List;
 import java.util.Map;
 import de.tudresden.sumo.objects.SumoPosition2D;
 import wrapperSUMO.ControlPanel;
+import wrapperSUMO.LaneGeometryStore;
+import wrapperSUMO.SimulationFrame;
 
 /**
  * the maprenderer interface defines the essential contract for simulation visualization.
@@ -23,6 +25,13 @@ public interface MapRenderer {
      */
     void setMapShapes(Map<String, List<SumoPosition2D>> mapShapes);
 
+    /**
+     * updates the road geometry from the packed lane store, without converting it to lists.
+     * renderers should prefer this over {@link #setMapShapes(Map)} when a store is available.
+     * @param geometry the lane polylines of the network.
+     */
+    void setLaneGeometry(LaneGeometryStore geometry);
+
     /**
      * toggles the visibility of road edge identifiers on the display.
      * @param show true to enable id labels, false to hide them.
@@ -44,6 +53,12 @@ public interface MapRenderer {
      * * @param panel The active ControlPanel instance.
      */
     void setPanel(ControlPanel panel);
+    /**
+     * Sets the simulation snapshot to draw on the next call to {@link #drawAll()}.
+     * Frames are immutable, so the renderer never has to query SUMO while drawing.
+     * * @param frame The latest frame published by the simulation engine.
+     */
+    void setFrame(SimulationFrame frame);
     /**
      * Sets the global zoom scale for the visualization.
      * * @param scale The multiplier for coordinate translation (e.g., 1.0 for default).
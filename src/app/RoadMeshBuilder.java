@@ -0,0 +1,244 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import wrapperSUMO.LaneGeometryStore;
+
+/**
+ * Turns lane polylines into triangle meshes for the 3D view.
+ * <p>
+ * Every lane becomes one ribbon: each polyline point is pushed out to both sides along the
+ * averaged direction of its two segments (a mitered joint, so consecutive segments share
+ * their vertices and leave no gaps), and the ribbon is extruded downwards into a slab with a
+ * top and two side walls. Lanes are grouped into square chunks by the center of their
+ * bounding box, and each chunk is one mesh, so the scene holds a few nodes instead of one
+ * box per segment and whole chunks can be culled later.
+ * </p>
+ * <p>
+ * The builder only produces arrays and touches no JavaFX nodes, so it can run on any thread;
+ * the {@link javafx.scene.shape.TriangleMesh} is created from a {@link Chunk} on the JavaFX
+ * thread.
+ * </p>
+ */
+final class RoadMeshBuilder
+{
+    // a joint never pushes its vertices further out than this many half widths
+    private static final double MAX_MITER = 2.0;
+    // segments shorter than this are treated as duplicate points
+    private static final double MIN_SEGMENT = 1e-6;
+
+    /**
+     * Mesh data of one chunk, in the layout of a {@code TriangleMesh} with a single
+     * texture coordinate. World x maps to x, world y to z.
+     */
+    static final class Chunk
+    {
+        final float[] points;
+        final int[] faces;
+        final int[] smoothingGroups;
+        // bounds of all lanes in the chunk, in world units
+        final double minX;
+        final double minZ;
+        final double maxX;
+        final double maxZ;
+
+        private Chunk(float[] points, int[] faces, int[] smoothingGroups,
+                      double minX, double minZ, double maxX, double maxZ)
+        {
+            this.points = points;
+            this.faces = faces;
+            this.smoothingGroups = smoothingGroups;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+        }
+    }
+
+    // growable arrays of the chunk being filled
+    private static final class ChunkBuffer
+    {
+        float[] points = new float[1024];
+        int pointCount = 0;
+        int[] faces = new int[1024];
+        int faceCount = 0;
+        int[] groups = new int[256];
+        int groupCount = 0;
+        double minX = Double.POSITIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+
+        int addPoint(double x, double y, double z)
+        {
+            if (pointCount + 3 > points.length)
+            {
+                points = Arrays.copyOf(points, points.length * 2);
+            }
+            points[pointCount++] = (float) x;
+            points[pointCount++] = (float) y;
+            points[pointCount++] = (float) z;
+            return pointCount / 3 - 1;
+        }
+
+        // two triangles a-b-c and a-c-d; the single texture coordinate is index 0
+        void addQuad(int a, int b, int c, int d, int smoothingGroup)
+        {
+            if (faceCount + 12 > faces.length)
+            {
+                faces = Arrays.copyOf(faces, faces.length * 2);
+            }
+            if (groupCount + 2 > groups.length)
+            {
+                groups = Arrays.copyOf(groups, groups.length * 2);
+            }
+            faces[faceCount++] = a; faces[faceCount++] = 0;
+            faces[faceCount++] = b; faces[faceCount++] = 0;
+            faces[faceCount++] = c; faces[faceCount++] = 0;
+            faces[faceCount++] = a; faces[faceCount++] = 0;
+            faces[faceCount++] = c; faces[faceCount++] = 0;
+            faces[faceCount++] = d; faces[faceCount++] = 0;
+            groups[groupCount++] = smoothingGroup;
+            groups[groupCount++] = smoothingGroup;
+        }
+
+        Chunk toChunk()
+        {
+            return new Chunk(Arrays.copyOf(points, pointCount), Arrays.copyOf(faces, faceCount),
+                    Arrays.copyOf(groups, groupCount), minX, minZ, maxX, maxZ);
+        }
+    }
+
+    private RoadMeshBuilder()
+    {
+    }
+
+    /**
+     * Builds the road meshes of all lanes.
+     *
+     * @param geometry  The lane polylines.
+     * @param width     The width of a lane ribbon.
+     * @param top       The y coordinate of the road surface (JavaFX y points down).
+     * @param bottom    The y coordinate of the bottom of the slab.
+     * @param chunkSize The edge length of a chunk in world units.
+     * @return One entry per non-empty chunk.
+     */
+    static List<Chunk> build(LaneGeometryStore geometry, double width, double top, double bottom, double chunkSize)
+    {
+        Map<Long, ChunkBuffer> buffers = new HashMap<>();
+        double halfWidth = width / 2;
+        for (int lane = 0; lane < geometry.getLaneCount(); lane++)
+        {
+            if (geometry.getPointCount(lane) < 2) continue;
+
+            // the chunk of a lane is the cell that holds the center of its bounding box
+            long cx = (long) Math.floor((geometry.getMinX(lane) + geometry.getMaxX(lane)) / 2 / chunkSize);
+            long cz = (long) Math.floor((geometry.getMinY(lane) + geometry.getMaxY(lane)) / 2 / chunkSize);
+            ChunkBuffer buffer = buffers.computeIfAbsent((cx << 32) ^ (cz & 0xFFFFFFFFL), key -> new ChunkBuffer());
+            addRibbon(buffer, geometry, lane, halfWidth, top, bottom);
+        }
+
+        List<Chunk> chunks = new ArrayList<>(buffers.size());
+        for (ChunkBuffer buffer : buffers.values())
+        {
+            if (buffer.faceCount > 0)
+            {
+                chunks.add(buffer.toChunk());
+            }
+        }
+        return chunks;
+    }
+
+    private static void addRibbon(ChunkBuffer buffer, LaneGeometryStore geometry, int lane,
+                                  double halfWidth, double top, double bottom)
+    {
+        int start = geometry.getStart(lane);
+        int end = geometry.getEnd(lane);
+        // index of the previous ribbon cross-section: top left, top right, bottom left, bottom right
+        int previous = -1;
+        for (int p = start; p < end; p++)
+        {
+            double x = geometry.getX(p);
+            double z = geometry.getY(p);
+
+            // unit directions of the incoming and outgoing segment (zero if there is none)
+            double inX = 0, inZ = 0, outX = 0, outZ = 0;
+            if (p > start)
+            {
+                double dx = x - geometry.getX(p - 1);
+                double dz = z - geometry.getY(p - 1);
+                double length = Math.sqrt(dx * dx + dz * dz);
+                if (length < MIN_SEGMENT) continue;
+                inX = dx / length;
+                inZ = dz / length;
+            }
+            if (p < end - 1)
+            {
+                // skip duplicate points to find the real outgoing direction
+                for (int q = p + 1; q < end; q++)
+                {
+                    double dx = geometry.getX(q) - x;
+                    double dz = geometry.getY(q) - z;
+                    double length = Math.sqrt(dx * dx + dz * dz);
+                    if (length >= MIN_SEGMENT)
+                    {
+                        outX = dx / length;
+                        outZ = dz / length;
+                        break;
+                    }
+                }
+            }
+            double dirX = inX + outX;
+            double dirZ = inZ + outZ;
+            double dirLength = Math.sqrt(dirX * dirX + dirZ * dirZ);
+            if (dirLength < MIN_SEGMENT)
+            {
+                // a lane that turns back on itself, or a single point: use whichever side exists
+                dirX = (outX != 0 || outZ != 0) ? outX : inX;
+                dirZ = (outX != 0 || outZ != 0) ? outZ : inZ;
+                dirLength = Math.sqrt(dirX * dirX + dirZ * dirZ);
+                if (dirLength < MIN_SEGMENT) continue;
+            }
+            dirX /= dirLength;
+            dirZ /= dirLength;
+
+            // the joint is widened so that both segments keep their full width
+            double miter;
+            double refX = (inX != 0 || inZ != 0) ? inX : outX;
+            double refZ = (inX != 0 || inZ != 0) ? inZ : outZ;
+            double cos = dirX * refX + dirZ * refZ;
+            if (cos > 1.0 / MAX_MITER)
+            {
+                miter = halfWidth / cos;
+            }
+            else
+            {
+                miter = halfWidth * MAX_MITER;
+            }
+            double sideX = -dirZ * miter;
+            double sideZ = dirX * miter;
+
+            int topLeft = buffer.addPoint(x + sideX, top, z + sideZ);
+            int topRight = buffer.addPoint(x - sideX, top, z - sideZ);
+            int bottomLeft = buffer.addPoint(x + sideX, bottom, z + sideZ);
+            int bottomRight = buffer.addPoint(x - sideX, bottom, z - sideZ);
+            buffer.minX = Math.min(buffer.minX, x - miter);
+            buffer.minZ = Math.min(buffer.minZ, z - miter);
+            buffer.maxX = Math.max(buffer.maxX, x + miter);
+            buffer.maxZ = Math.max(buffer.maxZ, z + miter);
+
+            if (previous >= 0)
+            {
+                // surface and both walls; faces are drawn from both sides, so the winding does not matter
+                buffer.addQuad(previous, topLeft, topRight, previous + 1, 1);
+                buffer.addQuad(previous, previous + 2, bottomLeft, topLeft, 2);
+                buffer.addQuad(previous + 1, topRight, bottomRight, previous + 3, 4);
+            }
+            previous = topLeft;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package app;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import wrapperSUMO.LaneGeometryStore;
+import wrapperSUMO.LaneMarkings;
+
+/**
+ * Tile pyramid of the static 2D road layer (grass, curb, asphalt and lane markings).
+ * <p>
+ * The world is cut into square tiles of {@link #TILE_SIZE} pixels per zoom level, level
+ * {@code l} being drawn at scale {@code 2^l}. Missing tiles are rendered by a small pool of
+ * worker threads with Java2D into an int buffer, which is then copied into a {@link WritableImage};
+ * the JavaFX thread only copies finished tiles to the canvas. While a tile is still being
+ * rendered the nearest cached level (a part of a coarser tile, or the finer tiles) is drawn
+ * in its place, so panning and zooming never wait for the renderer.
+ * </p>
+ * <p>
+ * Finished tiles are kept in an LRU cache whose size is bounded by a memory budget; each tile
+ * costs {@code 4 * TILE_SIZE * TILE_SIZE} bytes. The cache always keeps room for twice the tiles
+ * around the screen, even if the budget is smaller, so a small budget never evicts tiles that are
+ * still on screen and makes the workers render them again every frame.
+ * </p>
+ */
+final class RoadTileCache
+{
+    private static final Logger LOG = LogManager.getLogger(RoadTileCache.class.getName());
+
+    static final int TILE_SIZE = 256;
+    private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+    private static final int MIN_LEVEL = -10;
+    private static final int MAX_LEVEL = 8;
+    // how many coarser levels are searched for a stand-in of a missing tile
+    private static final int FALLBACK_LEVELS = 4;
+    // lane markings are drawn from this level on (view scale >= sqrt(0.5)), see drawsMarkings
+    private static final int MARKINGS_MIN_LEVEL = 0;
+
+    // same colors as MapDraw
+    private static final Color GRASS_COLOR = new Color(0x2E, 0x7D, 0x32);
+    private static final Color CURB_COLOR = new Color(211, 211, 211);
+    private static final Color ASPHALT_COLOR = new Color(0x40, 0x40, 0x40);
+    private static final Color DASHED_COLOR = new Color(245, 245, 245);
+    private static final Color SOLID_COLOR = Color.WHITE;
+
+    private final long budgetBytes;
+    // access-ordered, so the eldest entry is the least recently drawn tile
+    private final Map<Long, WritableImage> tiles;
+    // tiles queued or being rendered
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers;
+
+    private volatile LaneGeometryStore geometry = LaneGeometryStore.EMPTY;
+    private volatile LaneMarkings markings = LaneMarkings.EMPTY;
+    // bumped whenever the content changes, tiles of an older generation are thrown away
+    private final AtomicInteger generation = new AtomicInteger();
+    // tile range of the last drawn frame: level, minTx, minTy, maxTx, maxTy
+    private volatile int[] visible = {Integer.MIN_VALUE, 0, 0, -1, -1};
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param budgetBytes The maximum memory of all cached tiles.
+     */
+    RoadTileCache(long budgetBytes)
+    {
+        this.budgetBytes = Math.max(TILE_BYTES, budgetBytes);
+        this.tiles = new LinkedHashMap<>(256, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, WritableImage> eldest)
+            {
+                return size() * TILE_BYTES > RoadTileCache.this.budgetBytes && size() > minTiles();
+            }
+        };
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "road-tile-" + threadNumber.incrementAndGet());
+            // the tiles are only a cache, never keep the application alive for them
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the roads to render. Drops all tiles if the geometry or markings changed.
+     *
+     * @param geometry The lane polylines.
+     * @param markings The lane markings, may be null.
+     */
+    void setContent(LaneGeometryStore geometry, LaneMarkings markings)
+    {
+        if (markings == null) markings = LaneMarkings.EMPTY;
+        if (geometry == this.geometry && markings == this.markings) return;
+
+        this.geometry = geometry;
+        this.markings = markings;
+        generation.incrementAndGet();
+        synchronized (tiles)
+        {
+            tiles.clear();
+        }
+        pending.clear();
+    }
+
+    /**
+     * Draws the tiles covering the canvas and queues the missing ones.
+     * Must be called on the JavaFX thread.
+     *
+     * @param gc      The canvas to draw on.
+     * @param scale   The current zoom scale.
+     * @param offsetX The horizontal pan offset in pixels.
+     * @param offsetY The vertical pan offset in pixels.
+     * @param width   The canvas width.
+     * @param height  The canvas height.
+     */
+    void draw(GraphicsContext gc, double scale, double offsetX, double offsetY, double width, double height)
+    {
+        if (geometry.getLaneCount() == 0 || scale <= 0) return;
+
+        int level = levelFor(scale);
+        // world size of one tile at that level
+        double tileWorld = TILE_SIZE / Math.scalb(1.0, level);
+        double tileScreen = tileWorld * scale;
+
+        // visible world rectangle, the y-axis of the canvas points down
+        double minWorldX = -offsetX / scale;
+        double maxWorldX = (width - offsetX) / scale;
+        double minWorldY = -offsetY / scale;
+        double maxWorldY = (height - offsetY) / scale;
+        int minTx = (int) Math.floor(minWorldX / tileWorld);
+        int maxTx = (int) Math.floor(maxWorldX / tileWorld);
+        int minTy = (int) Math.floor(minWorldY / tileWorld);
+        int maxTy = (int) Math.floor(maxWorldY / tileWorld);
+        visible = new int[]{level, minTx, minTy, maxTx, maxTy};
+
+        for (int ty = minTy; ty <= maxTy; ty++)
+        {
+            // snap tile edges to whole pixels so neighbouring tiles share their border without seams
+            double top = Math.floor(height - ((ty + 1) * tileScreen + offsetY));
+            double bottom = Math.floor(height - (ty * tileScreen + offsetY));
+            for (int tx = minTx; tx <= maxTx; tx++)
+            {
+                double left = Math.floor(tx * tileScreen + offsetX);
+                double right = Math.floor((tx + 1) * tileScreen + offsetX);
+
+                WritableImage tile = get(key(level, tx, ty));
+                if (tile != null)
+                {
+                    gc.drawImage(tile, left, top, right - left, bottom - top);
+                }
+                else
+                {
+                    request(level, tx, ty);
+                    drawFallback(gc, level, tx, ty, left, top, right - left, bottom - top);
+                }
+            }
+        }
+    }
+
+    // zoom level whose tile scale is closest to the view scale
+    static int levelFor(double scale)
+    {
+        int level = (int) Math.round(Math.log(scale) / Math.log(2.0));
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+    }
+
+    // whether lane markings are shown at a view scale; decided by the tile level, so the tiled
+    // and the directly drawn road layer switch them on at the same zoom
+    static boolean drawsMarkings(double scale)
+    {
+        return levelFor(scale) >= MARKINGS_MIN_LEVEL;
+    }
+
+    /**
+     * Draws the closest cached level in place of a missing tile: a quarter (or smaller part) of a
+     * coarser tile, or else the cached tiles of the next finer level.
+     */
+    private void drawFallback(GraphicsContext gc, int level, int tx, int ty,
+                              double x, double y, double w, double h)
+    {
+        for (int d = 1; d <= FALLBACK_LEVELS && level - d >= MIN_LEVEL; d++)
+        {
+            int factor = 1 << d;
+            WritableImage parent = get(key(level - d, Math.floorDiv(tx, factor), Math.floorDiv(ty, factor)));
+            if (parent != null)
+            {
+                double part = (double) TILE_SIZE / factor;
+                double sourceX = Math.floorMod(tx, factor) * part;
+                // image rows grow downwards, tile rows upwards
+                double sourceY = (factor - 1 - Math.floorMod(ty, factor)) * part;
+                gc.drawImage(parent, sourceX, sourceY, part, part, x, y, w, h);
+                return;
+            }
+        }
+
+        if (level + 1 <= MAX_LEVEL)
+        {
+            for (int j = 0; j < 2; j++)
+            {
+                for (int i = 0; i < 2; i++)
+                {
+                    WritableImage child = get(key(level + 1, tx * 2 + i, ty * 2 + j));
+                    if (child != null)
+                    {
+                        gc.drawImage(child, x + i * w / 2, y + (1 - j) * h / 2, w / 2, h / 2);
+                    }
+                }
+            }
+        }
+    }
+
+    private void request(int level, int tx, int ty)
+    {
+        long key = key(level, tx, ty);
+        if (!pending.add(key)) return;
+
+        int tileGeneration = generation.get();
+        LaneGeometryStore tileGeometry = geometry;
+        LaneMarkings tileMarkings = markings;
+        workers.execute(() ->
+        {
+            try
+            {
+                // the view moved on before the worker got to this tile
+                if (tileGeneration != generation.get() || !isWanted(level, tx, ty)) return;
+
+                WritableImage tile = renderTile(tileGeometry, tileMarkings, level, tx, ty);
+                if (tileGeneration == generation.get())
+                {
+                    synchronized (tiles)
+                    {
+                        tiles.put(key, tile);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                LOG.error("Failed to render road tile " + level + "/" + tx + "/" + ty + ": " + e.getMessage());
+            }
+            finally
+            {
+                pending.remove(key);
+            }
+        });
+    }
+
+    // the visible tiles with the ring around them, doubled for the stand-ins of other levels
+    private int minTiles()
+    {
+        int[] range = visible;
+        long columns = range[3] - range[1] + 3L;
+        long rows = range[4] - range[2] + 3L;
+        return (int) Math.min(Integer.MAX_VALUE, 2 * Math.max(1L, columns) * Math.max(1L, rows));
+    }
+
+    // true if the tile is on screen (or right next to it) at the current level
+    private boolean isWanted(int level, int tx, int ty)
+    {
+        int[] range = visible;
+        return level == range[0]
+                && tx >= range[1] - 1 && tx <= range[3] + 1
+                && ty >= range[2] - 1 && ty <= range[4] + 1;
+    }
+
+    private WritableImage get(long key)
+    {
+        synchronized (tiles)
+        {
+            return tiles.get(key);
+        }
+    }
+
+    // level in the top byte, then 28 bits for each tile coordinate
+    private static long key(int level, int tx, int ty)
+    {
+        return ((long) (level + 128) << 56) | ((tx & 0xFFFFFFFL) << 28) | (ty & 0xFFFFFFFL);
+    }
+
+    /**
+     * Renders one tile off the JavaFX thread. Line widths and dash lengths follow
+     * {@code MapDraw.drawBaseRoads} at the tile's scale.
+     */
+    private static WritableImage renderTile(LaneGeometryStore geometry, LaneMarkings markings, int level, int tx, int ty)
+    {
+        double tileScale = Math.scalb(1.0, level);
+        double tileWorld = TILE_SIZE / tileScale;
+        double minX = tx * tileWorld;
+        double minY = ty * tileWorld;
+        double maxX = minX + tileWorld;
+        double maxY = minY + tileWorld;
+
+        float roadWidth = (float) Math.max(2.0, 4.5 * tileScale);
+        float curbWidth = roadWidth + (float) tileScale;
+        // lanes whose stroke reaches into the tile from outside
+        double margin = curbWidth / tileScale;
+
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = image.createGraphics();
+        try
+        {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.setColor(GRASS_COLOR);
+            g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+            Path2D.Double roads = buildPath(geometry, tileScale, tx, ty, minX, minY, maxX, maxY, margin);
+            g.setStroke(new BasicStroke(curbWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.setColor(CURB_COLOR);
+            g.draw(roads);
+            g.setStroke(new BasicStroke(roadWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.setColor(ASPHALT_COLOR);
+            g.draw(roads);
+
+            if (level >= MARKINGS_MIN_LEVEL)
+            {
+                float lineWidth = (float) (0.3 * tileScale);
+                float[] dashes = {(float) (2.0 * tileScale), (float) (3.0 * tileScale)};
+                g.setStroke(new BasicStroke(lineWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 10f, dashes, 0f));
+                g.setColor(DASHED_COLOR);
+                g.draw(buildPath(markings.getDashedLines(), tileScale, tx, ty, minX, minY, maxX, maxY, margin));
+                g.setStroke(new BasicStroke(lineWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND));
+                g.setColor(SOLID_COLOR);
+                g.draw(buildPath(markings.getSolidLines(), tileScale, tx, ty, minX, minY, maxX, maxY, margin));
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        WritableImage tile = new WritableImage(TILE_SIZE, TILE_SIZE);
+        tile.getPixelWriter().setPixels(0, 0, TILE_SIZE, TILE_SIZE, PixelFormat.getIntArgbPreInstance(), pixels, 0, TILE_SIZE);
+        return tile;
+    }
+
+    // one path with a subpath per polyline touching the tile, in tile pixel coordinates
+    private static Path2D.Double buildPath(LaneGeometryStore lines, double tileScale, int tx, int ty,
+                                           double minX, double minY, double maxX, double maxY, double margin)
+    {
+        Path2D.Double path = new Path2D.Double();
+        double originX = (double) tx * TILE_SIZE;
+        double originY = (double) (ty + 1) * TILE_SIZE;
+        for (int line = 0; line < lines.getLaneCount(); line++)
+        {
+            if (lines.getPointCount(line) < 2 || !lines.intersects(line, minX, minY, maxX, maxY, margin)) continue;
+
+            int start = lines.getStart(line);
+            path.moveTo(lines.getX(start) * tileScale - originX, originY - lines.getY(start) * tileScale);
+            for (int p = start + 1; p < lines.getEnd(line); p++)
+            {
+                path.lineTo(lines.getX(p) * tileScale - originX, originY - lines.getY(p) * tileScale);
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,194 @@
+package app;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import wrapperSUMO.SimulationFrame;
+import wrapperSUMO.VehicleFrame;
+
+/**
+ * Smooths vehicle motion between simulation steps.
+ * <p>
+ * SUMO only advances every few hundred milliseconds, while the renderers draw at display
+ * rate. For every vehicle the interpolator keeps the position and angle it moves from and
+ * the one of the latest step, and each frame blends them by the time elapsed since that
+ * step was published, relative to the measured step interval. Vehicles therefore lag
+ * one step behind the simulation but move continuously.
+ * </p>
+ * <p>
+ * Vehicles are addressed by an int handle that stays the same while the vehicle is in the
+ * simulation; handles of vehicles that left are reused. All state lives in primitive arrays
+ * indexed by handle, so drawing a frame allocates nothing. Must only be used by one thread.
+ * </p>
+ */
+final class VehicleInterpolator
+{
+    // a vehicle that moved further than this in one step was teleported, it is not slid across the map
+    private static final double MAX_STEP_DISTANCE = 50.0;
+    // assumed step interval until two consecutive steps were seen (the default simulation delay)
+    private static final double DEFAULT_INTERVAL_NANOS = 100_000_000.0;
+    // weight of the newest measurement in the smoothed step interval
+    private static final double INTERVAL_SMOOTHING = 0.3;
+
+    private final Map<String, Integer> handles = new HashMap<>();
+    private int[] freeHandles = new int[64];
+    private int freeCount = 0;
+    private int handleCount = 0;
+
+    private double[] fromX = new double[64];
+    private double[] fromY = new double[64];
+    private double[] fromAngle = new double[64];
+    private double[] toX = new double[64];
+    private double[] toY = new double[64];
+    private double[] toAngle = new double[64];
+    private long[] seenStep = new long[64];
+
+    // handle of the vehicle at each index of the current VehicleFrame
+    private int[] frameHandles = new int[64];
+    private long frameStep = -1;
+    private VehicleFrame frameVehicles = null;
+    private long framePublished = 0;
+    private double intervalNanos = DEFAULT_INTERVAL_NANOS;
+    // progress from the "from" to the "to" state, 0..1
+    private double alpha = 1.0;
+
+    /**
+     * Takes over a new simulation frame (if the step changed) and computes the blend factor
+     * for the current display frame.
+     *
+     * @param frame      The latest simulation frame.
+     * @param nowNanos   The current {@link System#nanoTime()}.
+     */
+    void update(SimulationFrame frame, long nowNanos)
+    {
+        // a restarted engine counts steps from the beginning again, so compare the vehicles too
+        if (frame.stepNumber != frameStep || frame.vehicles != frameVehicles)
+        {
+            if (frame.stepNumber == frameStep + 1 && framePublished != 0 && frame.publishedNanos > framePublished)
+            {
+                double measured = frame.publishedNanos - framePublished;
+                intervalNanos += (measured - intervalNanos) * INTERVAL_SMOOTHING;
+            }
+            // vehicles continue from where they are drawn right now, so a late or early step does not jump
+            alpha = blend(nowNanos);
+            ingest(frame.vehicles, frame.stepNumber);
+            frameStep = frame.stepNumber;
+            frameVehicles = frame.vehicles;
+            framePublished = frame.publishedNanos;
+        }
+        alpha = blend(nowNanos);
+    }
+
+    private double blend(long nowNanos)
+    {
+        if (framePublished == 0) return 1.0;
+        double t = (nowNanos - framePublished) / intervalNanos;
+        return Math.max(0.0, Math.min(1.0, t));
+    }
+
+    private void ingest(VehicleFrame vehicles, long step)
+    {
+        int n = vehicles.size();
+        if (frameHandles.length < n)
+        {
+            frameHandles = new int[Math.max(n, frameHandles.length * 2)];
+        }
+        for (int i = 0; i < n; i++)
+        {
+            String id = vehicles.getId(i);
+            Integer existing = handles.get(id);
+            int h;
+            if (existing == null)
+            {
+                h = allocate();
+                handles.put(id, h);
+                // new vehicles appear in place
+                fromX[h] = vehicles.getX(i);
+                fromY[h] = vehicles.getY(i);
+                fromAngle[h] = vehicles.getAngle(i);
+            }
+            else
+            {
+                h = existing;
+                double x = lerp(fromX[h], toX[h], alpha);
+                double y = lerp(fromY[h], toY[h], alpha);
+                double dx = vehicles.getX(i) - x;
+                double dy = vehicles.getY(i) - y;
+                if (dx * dx + dy * dy > MAX_STEP_DISTANCE * MAX_STEP_DISTANCE)
+                {
+                    x = vehicles.getX(i);
+                    y = vehicles.getY(i);
+                }
+                fromAngle[h] = lerpAngle(fromAngle[h], toAngle[h], alpha);
+                fromX[h] = x;
+                fromY[h] = y;
+            }
+            toX[h] = vehicles.getX(i);
+            toY[h] = vehicles.getY(i);
+            toAngle[h] = vehicles.getAngle(i);
+            seenStep[h] = step;
+            frameHandles[i] = h;
+        }
+
+        // release the handles of vehicles that left the simulation
+        if (handles.size() > n)
+        {
+            handles.values().removeIf(h ->
+            {
+                if (seenStep[h] == step) return false;
+                release(h);
+                return true;
+            });
+        }
+    }
+
+    private int allocate()
+    {
+        if (freeCount > 0)
+        {
+            return freeHandles[--freeCount];
+        }
+        if (handleCount == toX.length)
+        {
+            int capacity = handleCount * 2;
+            fromX = Arrays.copyOf(fromX, capacity);
+            fromY = Arrays.copyOf(fromY, capacity);
+            fromAngle = Arrays.copyOf(fromAngle, capacity);
+            toX = Arrays.copyOf(toX, capacity);
+            toY = Arrays.copyOf(toY, capacity);
+            toAngle = Arrays.copyOf(toAngle, capacity);
+            seenStep = Arrays.copyOf(seenStep, capacity);
+        }
+        return handleCount++;
+    }
+
+    private void release(int handle)
+    {
+        if (freeCount == freeHandles.length)
+        {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+    }
+
+    private static double lerp(double from, double to, double t)
+    {
+        return from + (to - from) * t;
+    }
+
+    // blends two angles in degrees along the shorter way around the circle
+    private static double lerpAngle(double from, double to, double t)
+    {
+        double delta = ((to - from) % 360.0 + 540.0) % 360.0 - 180.0;
+        return from + delta * t;
+    }
+
+    // handle of the vehicle at index i of the current frame
+    int getHandle(int i) { return frameHandles[i]; }
+
+    // interpolated position and angle of the vehicle at index i of the current frame
+    double getX(int i) { int h = frameHandles[i]; return lerp(fromX[h], toX[h], alpha); }
+    double getY(int i) { int h = frameHandles[i]; return lerp(fromY[h], toY[h], alpha); }
+    double getAngle(int i) { int h = frameHandles[i]; return lerpAngle(fromAngle[h], toAngle[h], alpha); }
+}
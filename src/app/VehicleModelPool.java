@@ -0,0 +1,286 @@
+package app;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+import javafx.scene.shape.Box;
+import javafx.scene.shape.Cylinder;
+import javafx.scene.transform.Rotate;
+
+/**
+ * Recycles the 3D vehicle models of {@link MapDraw3D}.
+ * <p>
+ * Building a model means creating a group of boxes and cylinders, so models of vehicles that
+ * left the simulation are not thrown away but hidden and kept per vehicle kind (car, delivery
+ * van, electric car, taxi) until a vehicle of the same kind arrives. Hidden models stay in the
+ * scene graph, so arrivals and departures do not restructure it either.
+ * </p>
+ * <p>
+ * All models draw with a shared set of materials. The fixed parts (tires, windows, hood)
+ * share one static material each. The bodies share one material per vehicle color, from a
+ * palette that belongs to the pool. Colors are rounded to 16 levels per channel, and the palette
+ * holds at most {@link #MAX_BODY_MATERIALS} entries, dropping the least recently used one. This
+ * way vehicles that change color every step cannot pile up materials.
+ * </p>
+ * <p>
+ * Every model also holds a single box of the same size and body color, which replaces the
+ * detailed parts for vehicles far from the camera ({@link #LOD_SIMPLE}).
+ * Must only be used on the JavaFX thread.
+ * </p>
+ */
+final class VehicleModelPool
+{
+    static final int KIND_CAR = 0;
+    static final int KIND_DELIVERY = 1;
+    static final int KIND_ELECTRIC = 2;
+    static final int KIND_TAXI = 3;
+    private static final int KIND_COUNT = 4;
+
+    // levels of detail: all parts, one box, not drawn
+    static final int LOD_FULL = 0;
+    static final int LOD_SIMPLE = 1;
+    static final int LOD_HIDDEN = 2;
+    // shapes drawn for a vehicle at LOD_FULL (4 tires, body, hood, windshield)
+    static final int FULL_NODE_COUNT = 7;
+
+    private static final PhongMaterial TIRE_MATERIAL = material(Color.BLACK);
+    private static final PhongMaterial WINDSHIELD_MATERIAL = material(Color.BLACK);
+    private static final PhongMaterial HOOD_MATERIAL = material(Color.BLUE);
+    private static final PhongMaterial ELECTRIC_HOOD_MATERIAL = material(Color.LIMEGREEN);
+    private static final PhongMaterial TAXI_MATERIAL = material(Color.GOLD);
+    // distinct body materials kept for reuse
+    static final int MAX_BODY_MATERIALS = 256;
+    // keeps the upper 4 bits of every color channel
+    private static final int COLOR_QUANTIZATION_MASK = 0xFFF0F0F0;
+
+    /**
+     * A vehicle model and the parts that change when it is reused.
+     */
+    static final class Model
+    {
+        final Group group;
+        final int kind;
+        final Box body;
+        // the detailed parts, and the box that stands in for them
+        final Group detail;
+        final Box simple;
+        // ARGB of the body material, 0 if none was set yet
+        private int bodyColor = 0;
+        private int lod = LOD_FULL;
+
+        private Model(Group group, int kind, Box body, Group detail, Box simple)
+        {
+            this.group = group;
+            this.kind = kind;
+            this.body = body;
+            this.detail = detail;
+            this.simple = simple;
+        }
+
+        int getLod() { return lod; }
+    }
+
+    private final List<ArrayDeque<Model>> free = new ArrayList<>(KIND_COUNT);
+    // body materials by quantized ARGB color, access-ordered so the eldest is the least recently used
+    private final Map<Integer, PhongMaterial> bodyMaterials = new LinkedHashMap<>(64, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PhongMaterial> eldest)
+        {
+            // models that still use an evicted material keep it, it is just no longer shared
+            return size() > MAX_BODY_MATERIALS;
+        }
+    };
+    private final Group parent;
+    private int created = 0;
+
+    /**
+     * @param parent The group the models are added to.
+     */
+    VehicleModelPool(Group parent)
+    {
+        this.parent = parent;
+        for (int kind = 0; kind < KIND_COUNT; kind++)
+        {
+            free.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Maps a SUMO vehicle type to a model kind, the same way the 2D renderers are chosen.
+     *
+     * @param typeID The vehicle type ID.
+     * @return One of the {@code KIND_} constants.
+     */
+    static int kindOf(String typeID)
+    {
+        if (typeID == null) return KIND_CAR;
+        switch (typeID)
+        {
+            case "Delivery":         return KIND_DELIVERY;
+            case "Evehicle":         return KIND_ELECTRIC;
+            case "DEFAULT_TAXITYPE": return KIND_TAXI;
+            default:                 return KIND_CAR;
+        }
+    }
+
+    /**
+     * Takes a model from the pool, or builds one if none of that kind is free, and shows it.
+     *
+     * @param kind  The model kind.
+     * @param color The vehicle color.
+     * @return A visible model.
+     */
+    Model acquire(int kind, Color color)
+    {
+        Model model = free.get(kind).poll();
+        if (model == null)
+        {
+            model = build(kind);
+            parent.getChildren().add(model.group);
+            created++;
+        }
+        paint(model, color);
+        setLod(model, LOD_FULL);
+        return model;
+    }
+
+    /**
+     * Gives the body of a model the material of a color, if it does not have it already.
+     * Taxis keep their own color.
+     *
+     * @param model The model.
+     * @param color The vehicle color.
+     */
+    void paint(Model model, Color color)
+    {
+        int argb = (VehicleSpriteAtlas.toArgb(color) | 0xFF000000) & COLOR_QUANTIZATION_MASK;
+        if (model.kind == KIND_TAXI || argb == model.bodyColor) return;
+        model.bodyColor = argb;
+        // the middle of the rounded range, so the strongest channels stay close to the original
+        PhongMaterial mat = bodyMaterials.computeIfAbsent(argb, key -> material(Color.rgb(
+                ((key >> 16) & 0xFF) | 0x08, ((key >> 8) & 0xFF) | 0x08, (key & 0xFF) | 0x08)));
+        model.body.setMaterial(mat);
+        model.simple.setMaterial(mat);
+    }
+
+    /**
+     * Switches a model between its detailed parts, its stand-in box and not being drawn.
+     *
+     * @param model The model.
+     * @param lod   One of the {@code LOD_} constants.
+     */
+    void setLod(Model model, int lod)
+    {
+        if (lod == model.lod) return;
+        model.lod = lod;
+        model.group.setVisible(lod != LOD_HIDDEN);
+        model.detail.setVisible(lod == LOD_FULL);
+        model.simple.setVisible(lod == LOD_SIMPLE);
+    }
+
+    /**
+     * Hides a model and returns it to the pool.
+     *
+     * @param model The model of a vehicle that left.
+     */
+    void release(Model model)
+    {
+        setLod(model, LOD_HIDDEN);
+        free.get(model.kind).push(model);
+    }
+
+    // number of models ever built, visible or pooled
+    int getCreatedCount() { return created; }
+
+    /**
+     * Forgets all models and body materials, after the parent group was cleared.
+     */
+    void clear()
+    {
+        for (ArrayDeque<Model> models : free)
+        {
+            models.clear();
+        }
+        bodyMaterials.clear();
+        created = 0;
+    }
+
+    private static PhongMaterial material(Color color)
+    {
+        PhongMaterial mat = new PhongMaterial();
+        mat.setDiffuseColor(color);
+        return mat;
+    }
+
+    private static Model build(int kind)
+    {
+        // delivery vans are longer and taller than cars
+        boolean van = (kind == KIND_DELIVERY);
+        double bodyHeight = van ? 2.0 : 1.0;
+        double bodyLength = van ? 3.0 : 2.0;
+
+        // width, height, depth
+        Box body = new Box(2.0, bodyHeight, bodyLength);
+        body.setTranslateY(-0.2 - bodyHeight / 2);
+        body.setTranslateZ(van ? 0.5 : 0.0);
+        if (kind == KIND_TAXI)
+        {
+            body.setMaterial(TAXI_MATERIAL);
+        }
+
+        Box hood = new Box(2.0, 0.5, 1.5);
+        hood.setMaterial(kind == KIND_ELECTRIC ? ELECTRIC_HOOD_MATERIAL : HOOD_MATERIAL);
+        hood.setTranslateZ(-1.75);
+        hood.setTranslateY(-0.45);
+
+        Box windshield = new Box(2.0, 0.5, 1.5);
+        windshield.setMaterial(WINDSHIELD_MATERIAL);
+        windshield.setTranslateY(-0.95);
+        windshield.setTranslateZ(-1.75);
+
+        Group detail = new Group(createTires(0.5, 0.5), body, hood, windshield);
+
+        // from the front of the hood to the back of the body, and from the ground to the roof
+        double front = -2.5;
+        double back = van ? 2.0 : 1.0;
+        double roof = -0.2 - bodyHeight;
+        Box simple = new Box(2.0, 0.5 - roof, back - front);
+        simple.setTranslateY((0.5 + roof) / 2);
+        simple.setTranslateZ((front + back) / 2);
+        if (kind == KIND_TAXI)
+        {
+            simple.setMaterial(TAXI_MATERIAL);
+        }
+        simple.setVisible(false);
+
+        Group group = new Group(detail, simple);
+        return new Model(group, kind, body, detail, simple);
+    }
+
+    private static Group createTires(double radius, double height)
+    {
+        // left front, right front, left back, right back
+        double[] xs = {-1.1, 1.1, -1.1, 1.1};
+        double[] zs = {-2.0, -2.0, 0.5, 0.5};
+
+        Group carTireGroup = new Group();
+        for (int i = 0; i < 4; i++)
+        {
+            Cylinder carTire = new Cylinder(radius, height);
+            carTire.setRotationAxis(Rotate.Z_AXIS);
+            carTire.setRotate(90);
+            carTire.setMaterial(TIRE_MATERIAL);
+            carTire.setTranslateX(xs[i]);
+            carTire.setTranslateZ(zs[i]);
+            carTireGroup.getChildren().add(carTire);
+        }
+        return carTireGroup;
+    }
+}
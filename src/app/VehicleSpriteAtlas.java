@@ -0,0 +1,206 @@
+package app;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Pre-rendered vehicle bodies, so drawing a vehicle is a single {@code drawImage}.
+ * <p>
+ * Sprites exist per renderer, rotation bucket ({@link #ANGLES} steps) and scale bucket (two per
+ * doubling of the zoom). When the zoom crosses into another scale bucket all sprites are
+ * dropped and rendered again on demand; within a bucket they are drawn slightly scaled down.
+ * </p>
+ * <p>
+ * Colors are applied by tinting instead of drawing the body again: every (renderer, angle) is
+ * rendered once with a black and once with a white body. Since the body color only enters
+ * the image through its fill, each premultiplied pixel is linear in that color, so the sprite
+ * of any opaque color is {@code black + (white - black) * color}, channel by channel. Renderers
+ * that ignore the color (taxis) have identical base images and tint to themselves.
+ * Translucent colors are rendered directly.
+ * </p>
+ * <p>
+ * Base images and tinted sprites share one LRU cache bounded by a memory budget.
+ * Must only be used on the JavaFX thread.
+ * </p>
+ */
+final class VehicleSpriteAtlas
+{
+    static final int ANGLES = 72;
+    // scale buckets per doubling of the zoom
+    private static final int BUCKETS_PER_OCTAVE = 2;
+
+    private final long budgetBytes;
+    // values are WritableImage (tinted sprites) or int[][] {black, white} (base images)
+    private final Map<Long, Object> entries = new LinkedHashMap<>(512, 0.75f, true);
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    private int bucket = Integer.MIN_VALUE;
+    private double spriteLength;
+    private double spriteWidth;
+    private int size;
+    private Canvas canvas;
+    private final SnapshotParameters params = new SnapshotParameters();
+
+    VehicleSpriteAtlas(long budgetBytes)
+    {
+        this.budgetBytes = budgetBytes;
+        params.setFill(Color.TRANSPARENT);
+    }
+
+    /**
+     * Selects the scale bucket of a zoom level; drops all sprites if it changed.
+     *
+     * @param scale     The current zoom scale.
+     * @param minLength The smallest vehicle length in pixels.
+     * @param minWidth  The smallest vehicle width in pixels.
+     */
+    void setScale(double scale, double minLength, double minWidth)
+    {
+        // round up, so sprites are scaled down (sharp) rather than up
+        int newBucket = (int) Math.ceil(Math.log(scale) / Math.log(2.0) * BUCKETS_PER_OCTAVE);
+        if (newBucket == bucket) return;
+
+        bucket = newBucket;
+        double bucketScale = Math.pow(2.0, (double) newBucket / BUCKETS_PER_OCTAVE);
+        spriteLength = Math.max(minLength, 4.5 * bucketScale);
+        spriteWidth = Math.max(minWidth, 2.0 * bucketScale);
+        // square that holds the body at any rotation, plus the outline
+        size = (int) Math.ceil(Math.hypot(spriteLength, spriteWidth)) + 4;
+        canvas = new Canvas(size, size);
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    // vehicle length the sprites of the current bucket were rendered for
+    double getSpriteLength() { return spriteLength; }
+    long getHits() { return hits; }
+    long getMisses() { return misses; }
+
+    /**
+     * Gets the sprite of a vehicle.
+     *
+     * @param renderer  The renderer of the vehicle type.
+     * @param typeIndex A stable number of that renderer (0-15).
+     * @param angle     The SUMO angle in degrees.
+     * @param color     The vehicle color.
+     * @return The sprite, centered on the vehicle position.
+     */
+    WritableImage get(VehicleRenderer renderer, int typeIndex, double angle, Color color)
+    {
+        int angleBucket = Math.floorMod((int) Math.round(angle * ANGLES / 360.0), ANGLES);
+        int argb = toArgb(color);
+        long key = ((long) typeIndex << 40) | ((long) angleBucket << 32) | (argb & 0xFFFFFFFFL);
+        Object cached = entries.get(key);
+        if (cached != null)
+        {
+            hits++;
+            return (WritableImage) cached;
+        }
+        misses++;
+
+        WritableImage sprite;
+        double rotation = angleBucket * 360.0 / ANGLES;
+        if ((argb >>> 24) == 0xFF)
+        {
+            sprite = tint(getBase(renderer, typeIndex, angleBucket, rotation), argb);
+        }
+        else
+        {
+            sprite = toImage(render(renderer, rotation, color));
+        }
+        put(key, sprite, 4L * size * size);
+        return sprite;
+    }
+
+    // black-body and white-body images of one renderer and angle
+    private int[][] getBase(VehicleRenderer renderer, int typeIndex, int angleBucket, double rotation)
+    {
+        // the base keys use bit 63, which no sprite key has
+        long key = Long.MIN_VALUE | ((long) typeIndex << 40) | ((long) angleBucket << 32);
+        int[][] base = (int[][]) entries.get(key);
+        if (base == null)
+        {
+            base = new int[][]{render(renderer, rotation, Color.BLACK), render(renderer, rotation, Color.WHITE)};
+            put(key, base, 8L * size * size);
+        }
+        return base;
+    }
+
+    // draws the body with the vector renderer and reads back its premultiplied pixels
+    private int[] render(VehicleRenderer renderer, double rotation, Color color)
+    {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, size, size);
+        renderer.draw(gc, size / 2.0, size / 2.0, rotation, spriteLength, spriteWidth, color);
+        WritableImage image = canvas.snapshot(params, null);
+        int[] pixels = new int[size * size];
+        image.getPixelReader().getPixels(0, 0, size, size, PixelFormat.getIntArgbPreInstance(), pixels, 0, size);
+        return pixels;
+    }
+
+    private WritableImage tint(int[][] base, int argb)
+    {
+        int[] black = base[0];
+        int[] white = base[1];
+        int red = (argb >> 16) & 0xFF;
+        int green = (argb >> 8) & 0xFF;
+        int blue = argb & 0xFF;
+        int[] pixels = new int[black.length];
+        for (int i = 0; i < pixels.length; i++)
+        {
+            int b = black[i];
+            int w = white[i];
+            pixels[i] = (b & 0xFF000000)
+                    | (lerp((b >> 16) & 0xFF, (w >> 16) & 0xFF, red) << 16)
+                    | (lerp((b >> 8) & 0xFF, (w >> 8) & 0xFF, green) << 8)
+                    | lerp(b & 0xFF, w & 0xFF, blue);
+        }
+        return toImage(pixels);
+    }
+
+    private static int lerp(int black, int white, int channel)
+    {
+        return black + ((white - black) * channel + 127) / 255;
+    }
+
+    private WritableImage toImage(int[] pixels)
+    {
+        WritableImage image = new WritableImage(size, size);
+        image.getPixelWriter().setPixels(0, 0, size, size, PixelFormat.getIntArgbPreInstance(), pixels, 0, size);
+        return image;
+    }
+
+    private void put(long key, Object value, long bytes)
+    {
+        entries.put(key, value);
+        usedBytes += bytes;
+        // drop the least recently used entries until the atlas fits its budget again
+        Iterator<Map.Entry<Long, Object>> iterator = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext())
+        {
+            Map.Entry<Long, Object> eldest = iterator.next();
+            if (eldest.getKey() == key) continue;
+            usedBytes -= (eldest.getValue() instanceof int[][]) ? 8L * size * size : 4L * size * size;
+            iterator.remove();
+        }
+    }
+
+    static int toArgb(Color color)
+    {
+        if (color == null) return 0xFFFFFF00;
+        return ((int) Math.round(color.getOpacity() * 255) << 24)
+                | ((int) Math.round(color.getRed() * 255) << 16)
+                | ((int) Math.round(color.getGreen() * 255) << 8)
+                | (int) Math.round(color.getBlue() * 255);
+    }
+}
@@ -0,0 +1,198 @@
+package wrapperSUMO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of vehicles currently in the simulation, kept up to date from the departed,
+ * arrived and teleport ID lists of every step instead of fetching {@code Vehicle.getIDList()}.
+ * <p>
+ * Every vehicle gets a dense int handle when it departs. Handles of arrived vehicles go to a
+ * free list and are reused, so they stay below the peak number of simultaneous vehicles and
+ * per-vehicle data can live in parallel primitive arrays indexed by handle; owners of such
+ * arrays size them with {@link #getCapacity()}. The active handles are also kept in a packed
+ * list for iteration, and vehicles in the middle of a teleport are flagged.
+ * </p>
+ * <p>
+ * Not thread-safe; it is updated and read on the thread that steps the simulation.
+ * </p>
+ */
+public class ActiveVehicleRegistry
+{
+    private final Map<String, Integer> handles = new HashMap<>();
+    private String[] ids = new String[64];
+    private boolean[] teleporting = new boolean[64];
+    // position of every handle in the packed active list, -1 for free handles
+    private int[] activeIndex = new int[64];
+    private int[] active = new int[64];
+    private int activeCount = 0;
+
+    private int[] freeHandles = new int[64];
+    private int freeCount = 0;
+    private int handleCount = 0;
+
+    // Constructor
+    public ActiveVehicleRegistry()
+    {
+        Arrays.fill(activeIndex, -1);
+    }
+
+    /**
+     * Registers a departed vehicle.
+     *
+     * @param vehicleId The vehicle ID.
+     * @return Its handle; the existing one if the vehicle is already registered.
+     */
+    public int add(String vehicleId)
+    {
+        Integer existing = handles.get(vehicleId);
+        if (existing != null)
+        {
+            return existing;
+        }
+        int handle = (freeCount > 0) ? freeHandles[--freeCount] : allocate();
+        handles.put(vehicleId, handle);
+        ids[handle] = vehicleId;
+        teleporting[handle] = false;
+        activeIndex[handle] = activeCount;
+        active[activeCount++] = handle;
+        return handle;
+    }
+
+    /**
+     * Forgets an arrived (or removed) vehicle and frees its handle.
+     *
+     * @param vehicleId The vehicle ID.
+     * @return The handle it had, or -1 if the vehicle was unknown.
+     */
+    public int remove(String vehicleId)
+    {
+        Integer handle = handles.remove(vehicleId);
+        if (handle == null)
+        {
+            return -1;
+        }
+        // move the last active handle into the gap
+        int index = activeIndex[handle];
+        int last = active[--activeCount];
+        active[index] = last;
+        activeIndex[last] = index;
+        activeIndex[handle] = -1;
+        ids[handle] = null;
+
+        if (freeCount == freeHandles.length)
+        {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+        return handle;
+    }
+
+    /**
+     * Applies the ID lists SUMO reported for one step.
+     *
+     * @param departed       Vehicles that entered the network.
+     * @param arrived        Vehicles that left it (arrived or removed).
+     * @param teleportStart  Vehicles that started a teleport.
+     * @param teleportEnd    Vehicles that were put back on the network.
+     * @return The handles of the departed vehicles that are still in the simulation.
+     */
+    public List<Integer> applyStep(List<String> departed, List<String> arrived,
+                                   List<String> teleportStart, List<String> teleportEnd)
+    {
+        for (String id : departed)
+        {
+            add(id);
+        }
+        for (String id : arrived)
+        {
+            remove(id);
+        }
+        for (String id : teleportStart)
+        {
+            setTeleporting(id, true);
+        }
+        for (String id : teleportEnd)
+        {
+            setTeleporting(id, false);
+        }
+        // a vehicle can depart and arrive within the same step
+        List<Integer> added = new ArrayList<>(departed.size());
+        for (String id : departed)
+        {
+            Integer handle = handles.get(id);
+            if (handle != null)
+            {
+                added.add(handle);
+            }
+        }
+        return added;
+    }
+
+    private void setTeleporting(String vehicleId, boolean value)
+    {
+        Integer handle = handles.get(vehicleId);
+        if (handle != null)
+        {
+            teleporting[handle] = value;
+        }
+    }
+
+    private int allocate()
+    {
+        if (handleCount == ids.length)
+        {
+            int capacity = handleCount * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            teleporting = Arrays.copyOf(teleporting, capacity);
+            activeIndex = Arrays.copyOf(activeIndex, capacity);
+            Arrays.fill(activeIndex, handleCount, capacity, -1);
+            active = Arrays.copyOf(active, capacity);
+        }
+        return handleCount++;
+    }
+
+    /**
+     * Forgets all vehicles, e.g. after the simulation was restarted.
+     */
+    public void clear()
+    {
+        handles.clear();
+        Arrays.fill(ids, null);
+        Arrays.fill(activeIndex, -1);
+        activeCount = 0;
+        freeCount = 0;
+        handleCount = 0;
+    }
+
+    // handle of a vehicle, -1 if it is not in the simulation
+    public int getHandle(String vehicleId)
+    {
+        Integer handle = handles.get(vehicleId);
+        return (handle != null) ? handle : -1;
+    }
+
+    // number of vehicles in the simulation
+    public int size() { return activeCount; }
+    // handle of the i-th active vehicle, 0 <= i < size()
+    public int getActiveHandle(int i) { return active[i]; }
+    public String getId(int handle) { return ids[handle]; }
+    public boolean isActive(int handle) { return handle < handleCount && activeIndex[handle] >= 0; }
+    public boolean isTeleporting(int handle) { return teleporting[handle]; }
+    // every handle is below this bound, for sizing parallel arrays
+    public int getCapacity() { return ids.length; }
+
+    // IDs of all vehicles in the simulation, as a new list
+    public List<String> getVehicleIds()
+    {
+        List<String> result = new ArrayList<>(activeCount);
+        for (int i = 0; i < activeCount; i++)
+        {
+            result.add(ids[active[i]]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,257 @@
+package wrapperSUMO;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Direction and link index of every traffic-light-controlled connection of a network.
+ * <p>
+ * The live TraaS API does not provide direction strings ("r", "s", "l", ...), so they are read
+ * from the {@code <connection>} elements of the net file. The file is streamed with StAX and
+ * only the controlled connections are kept: lane IDs are interned once, each from-lane maps to
+ * a small list of connection slots, and direction/link index live in primitive arrays. No
+ * per-connection key string is built.
+ * </p>
+ * <p>
+ * The last loaded index is cached and reused as long as the net file's path, size and
+ * modification time are unchanged, so restarting the simulation does not parse the file again.
+ * Instances are immutable.
+ * </p>
+ */
+public final class ConnectionIndex
+{
+    private static final Logger LOG = LogManager.getLogger(ConnectionIndex.class.getName());
+
+    public static final ConnectionIndex EMPTY = new ConnectionIndex(new HashMap<>(), new String[0], new char[0], new int[0]);
+
+    private static final int[] NO_CONNECTIONS = new int[0];
+
+    // cache of the last index, survives restartSimulation
+    private static String cachedPath;
+    private static long cachedModified;
+    private static long cachedSize;
+    private static NetworkModel cachedModel;
+    private static ConnectionIndex cachedIndex;
+
+    // connection slots of every from-lane
+    private final Map<String, int[]> slotsByFromLane;
+    private final String[] toLanes;
+    private final char[] directions;
+    private final int[] linkIndices;
+
+    private ConnectionIndex(Map<String, int[]> slotsByFromLane, String[] toLanes, char[] directions, int[] linkIndices)
+    {
+        this.slotsByFromLane = slotsByFromLane;
+        this.toLanes = toLanes;
+        this.directions = directions;
+        this.linkIndices = linkIndices;
+    }
+
+    /**
+     * Loads the index of a net file, or returns the cached one if the file did not change.
+     *
+     * @param netFilePath The path of the .net.xml file.
+     * @return The index, {@link #EMPTY} if the file could not be read.
+     */
+    public static synchronized ConnectionIndex load(String netFilePath)
+    {
+        File file = new File(netFilePath);
+        String path = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long size = file.length();
+        if (cachedIndex != null && cachedModel == null && path.equals(cachedPath)
+                && modified == cachedModified && size == cachedSize)
+        {
+            LOG.info("Reusing " + cachedIndex.size() + " cached connections of " + file.getName());
+            return cachedIndex;
+        }
+
+        long start = System.nanoTime();
+        Builder builder = new Builder();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16))
+        {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try
+            {
+                while (reader.hasNext())
+                {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT || !"connection".equals(reader.getLocalName()))
+                    {
+                        continue;
+                    }
+                    // We only care about connections controlled by a Traffic Light
+                    if (reader.getAttributeValue(null, "tl") == null) continue;
+                    String linkIdx = reader.getAttributeValue(null, "linkIndex");
+                    if (linkIdx == null || linkIdx.isEmpty()) continue;
+
+                    String from = reader.getAttributeValue(null, "from");
+                    String to = reader.getAttributeValue(null, "to");
+                    String fromLane = from + "_" + reader.getAttributeValue(null, "fromLane");
+                    String toLane = to + "_" + reader.getAttributeValue(null, "toLane");
+                    builder.add(fromLane, toLane, reader.getAttributeValue(null, "dir"), Integer.parseInt(linkIdx));
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to load connection directions");
+            e.printStackTrace();
+            return EMPTY;
+        }
+
+        ConnectionIndex index = builder.build();
+        LOG.info(String.format("Loaded %d connections from XML in %.1f ms.", index.size(), (System.nanoTime() - start) / 1_000_000.0));
+        cachedPath = path;
+        cachedModified = modified;
+        cachedSize = size;
+        cachedModel = null;
+        cachedIndex = index;
+        return index;
+    }
+
+    /**
+     * Builds the index from an already parsed network, or returns the cached one for the same model.
+     *
+     * @param network The network model.
+     * @return The index of its traffic-light-controlled connections.
+     */
+    public static synchronized ConnectionIndex fromNetwork(NetworkModel network)
+    {
+        if (cachedIndex != null && cachedModel == network)
+        {
+            return cachedIndex;
+        }
+        Builder builder = new Builder();
+        for (int c = 0; c < network.getConnectionCount(); c++)
+        {
+            int fromLane = network.getConnectionFromLane(c);
+            int toLane = network.getConnectionToLane(c);
+            int linkIdx = network.getConnectionLinkIndex(c);
+            if (network.getConnectionTl(c) == null || linkIdx < 0 || fromLane < 0 || toLane < 0) continue;
+
+            char dir = network.getConnectionDir(c);
+            builder.add(network.getLaneId(fromLane), network.getLaneId(toLane), (dir == '?') ? "" : String.valueOf(dir), linkIdx);
+        }
+        ConnectionIndex index = builder.build();
+        LOG.info("Loaded " + index.size() + " connections from the network model.");
+        cachedPath = null;
+        cachedModel = network;
+        cachedIndex = index;
+        return index;
+    }
+
+    // number of controlled connections
+    public int size()
+    {
+        return toLanes.length;
+    }
+
+    /**
+     * Finds the connection between two lanes.
+     *
+     * @param fromLane The incoming lane ID.
+     * @param toLane   The outgoing lane ID.
+     * @return The connection slot, or -1 if the connection is not traffic-light-controlled.
+     */
+    public int find(String fromLane, String toLane)
+    {
+        int[] slots = slotsByFromLane.getOrDefault(fromLane, NO_CONNECTIONS);
+        for (int slot : slots)
+        {
+            if (toLanes[slot].equals(toLane))
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // direction of a connection slot as written in the net file ("s", "l", "r", "t", ...), "" if missing
+    public String getDirection(int slot)
+    {
+        char dir = directions[slot];
+        return (dir == 0) ? "" : String.valueOf(dir);
+    }
+
+    // index of the connection in the state string of its traffic light
+    public int getLinkIndex(int slot)
+    {
+        return linkIndices[slot];
+    }
+
+    /**
+     * Collects connections in growable arrays; lane IDs are interned so every lane is stored once.
+     */
+    private static final class Builder
+    {
+        final Map<String, String> lanes = new HashMap<>();
+        final Map<String, int[]> slots = new HashMap<>();
+        String[] toLanes = new String[256];
+        char[] directions = new char[256];
+        int[] linkIndices = new int[256];
+        int size = 0;
+
+        void add(String fromLane, String toLane, String dir, int linkIndex)
+        {
+            fromLane = intern(fromLane);
+            int existing = findSlot(fromLane, toLane);
+            int slot = (existing >= 0) ? existing : size++;
+            if (slot == toLanes.length)
+            {
+                toLanes = Arrays.copyOf(toLanes, slot * 2);
+                directions = Arrays.copyOf(directions, slot * 2);
+                linkIndices = Arrays.copyOf(linkIndices, slot * 2);
+            }
+            toLanes[slot] = intern(toLane);
+            directions[slot] = (dir == null || dir.isEmpty()) ? 0 : dir.charAt(0);
+            linkIndices[slot] = linkIndex;
+            if (existing < 0)
+            {
+                int[] fromSlots = slots.getOrDefault(fromLane, NO_CONNECTIONS);
+                int[] grown = Arrays.copyOf(fromSlots, fromSlots.length + 1);
+                grown[fromSlots.length] = slot;
+                slots.put(fromLane, grown);
+            }
+        }
+
+        // a later element for the same lane pair replaces the earlier one, like the old map did
+        private int findSlot(String fromLane, String toLane)
+        {
+            for (int slot : slots.getOrDefault(fromLane, NO_CONNECTIONS))
+            {
+                if (toLanes[slot].equals(toLane)) return slot;
+            }
+            return -1;
+        }
+
+        private String intern(String lane)
+        {
+            String existing = lanes.putIfAbsent(lane, lane);
+            return (existing != null) ? existing : lane;
+        }
+
+        ConnectionIndex build()
+        {
+            return new ConnectionIndex(slots, Arrays.copyOf(toLanes, size),
+                    Arrays.copyOf(directions, size), Arrays.copyOf(linkIndices, size));
+        }
+    }
+}
@@ -15,6 +15,7 @@ import javafx.scene.paint.Color;
 import de.tudresden.sumo.cmd.Vehicle;
 import de.tudresden.sumo.cmd.Route;
 
+import java.io.File;
 import java.util.*;
 
 
@@ -30,6 +31,8 @@ public class ControlPanel
      * Used for recording simulation lifecycle events (start, stop, errors) and debugging info.
      */
     private static final Logger LOG = LogManager.getLogger(ControlPanel.class.getName());
+    // the SUMO configuration that is started, the network is read from the net file it references
+    private static final String SUMO_CONFIG_PATH = "src/SumoConfig/demo.sumocfg";
     // create the connection
     private SumoTraciConnection connection;
 
@@ -41,9 +44,29 @@ public class ControlPanel
     private RouteWrapper routeWrapper;
     private LaneWrapper laneWrapper;
     private SimulationWrapper simulationWrapper;
+    private VehicleSubscriptionManager vehicleSubscriptionManager;
+    private TrafficLightSubscriptionManager trafficLightSubscriptionManager;
+    // pipelined ADD_FULL commands for bulk insertion
+    private VehicleInjector vehicleInjector;
+    private VehicleInjector.Report lastInjectionReport;
+    // time-distributed demand, released every step
+    private DemandScheduler demandScheduler;
+    // dashboard metrics of the latest step
+    private StepStatistics stepStatistics = StepStatistics.EMPTY;
+    // static network parsed from the net file, kept across restarts
+    private NetworkModel networkModel;
+    // white road markings of that network
+    private LaneMarkings laneMarkings;
+    // lane polylines in flat arrays, for the renderers
+    private LaneGeometryStore laneGeometry;
+    // grid over the lane segments, for hit-testing on the map
+    private SegmentIndex laneSegments;
+    // state of the simulation before the first step, restored by a warm restart
+    private File initialState;
 
     // initialize the boolean value isRunning
-    public boolean isRunning = false;
+    // volatile because the SimulationEngine thread and the JavaFX thread both read it
+    public volatile boolean isRunning = false;
 
     // default Constructor
     public ControlPanel()
@@ -66,7 +89,7 @@ public class ControlPanel
         {
             // initialize the connection with specific paths
             connection = new SumoTraciConnection("sumo",
-                    "src/SumoConfig/demo.sumocfg");
+                    SUMO_CONFIG_PATH);
 
             // start the simulation
             connection.runServer();
@@ -78,6 +101,24 @@ public class ControlPanel
             routeWrapper = new RouteWrapper(connection);
             laneWrapper = new LaneWrapper(connection);
             simulationWrapper = new SimulationWrapper(connection);
+            vehicleInjector = new VehicleInjector(connection);
+            demandScheduler = new DemandScheduler(connection, vehicleInjector, System.currentTimeMillis());
+            // subscribe to vehicle data so a step returns everything the renderers need
+            vehicleSubscriptionManager = VehicleSubscriptionManager.create(connection);
+            // same for the signal state of every traffic light
+            trafficLightSubscriptionManager = TrafficLightSubscriptionManager.create(connection,
+                    trafficLightWrapper.getTrafficLightIDs());
+            stepStatistics = StepStatistics.EMPTY;
+            initialState = saveInitialState();
+            // read the road network from the file instead of asking SUMO lane by lane
+            if (networkModel == null)
+            {
+                File netFile = NetworkLoader.resolveNetFile(SUMO_CONFIG_PATH);
+                if (netFile != null)
+                {
+                    loadNetwork(netFile);
+                }
+            }
 
             // set the isRunning to true
             isRunning = true;
@@ -89,6 +130,96 @@ public class ControlPanel
         return true;
     }
 
+    // load the network from its binary cache, or parse the XML and write the cache for the next launch
+    private void loadNetwork(File netFile)
+    {
+        // hash the net file once, for checking the cache and for writing a new one
+        NetworkCache.Source source = NetworkCache.describe(netFile);
+        NetworkCache.Content cached = (source != null) ? NetworkCache.load(netFile, source) : null;
+        if (cached != null)
+        {
+            networkModel = cached.network;
+            laneMarkings = cached.markings;
+            return;
+        }
+        networkModel = NetworkLoader.load(netFile);
+        if (networkModel != null)
+        {
+            laneMarkings = LaneMarkings.generate(networkModel.toShapeMap());
+            if (source != null)
+            {
+                NetworkCache.write(netFile, source, networkModel, laneMarkings);
+            }
+        }
+    }
+
+    // snapshot of time 0 in a temporary file, null if SUMO could not write it
+    private File saveInitialState()
+    {
+        try
+        {
+            File file = File.createTempFile("traffic-initial-state", ".xml");
+            file.deleteOnExit();
+            if (simulationWrapper.saveState(file.getAbsolutePath()))
+            {
+                return file;
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to create the initial state file");
+        }
+        return null;
+    }
+
+    /**
+     * Saves a checkpoint of the running simulation that {@link #loadState(String)} can return to.
+     * Must not run while the simulation engine is stepping.
+     *
+     * @param path The state file.
+     * @return true if the checkpoint was written.
+     */
+    public boolean saveState(String path)
+    {
+        if (!isRunning)
+        {
+            LOG.error("The simulation is not running");
+            return false;
+        }
+        return simulationWrapper.saveState(path);
+    }
+
+    /**
+     * Returns the running SUMO process to a saved state without restarting it.
+     * <p>
+     * Only the dynamic state is replaced: the network, and with it the lane geometry, markings,
+     * traffic light topology and connection directions built from it, stays valid, so the cost
+     * does not depend on the size of the network. The per-run bookkeeping (active vehicles,
+     * attribute cache, scheduled demand, statistics) starts over from the vehicles in the state.
+     * Must not run while the simulation engine is stepping.
+     * </p>
+     *
+     * @param path The state file, e.g. written by {@link #saveState(String)}.
+     * @return true if the state was loaded.
+     */
+    public boolean loadState(String path)
+    {
+        if (!isRunning)
+        {
+            LOG.error("The simulation is not running");
+            return false;
+        }
+        if (!simulationWrapper.loadState(path))
+        {
+            return false;
+        }
+        vehicleSubscriptionManager.reset(vehicleWrapper.getVehicleIDs());
+        demandScheduler.clear();
+        stepStatistics = StepStatistics.EMPTY;
+        LOG.info("Loaded simulation state " + path + " at time " + getCurrentTime());
+        return true;
+    }
+
     // create function stopSimulation
     public void stopSimulation()
     {
@@ -110,8 +241,21 @@ public class ControlPanel
         }
     }
 
-    // restartSimulation function
-    public void restartSimulation() {
+    /**
+     * Returns to the beginning of the simulation.
+     * <p>
+     * While SUMO is running this loads the state saved right after start-up into the same
+     * process (see {@link #loadState(String)}). Only if that is not possible is the connection
+     * closed and a new SUMO process started.
+     * </p>
+     *
+     * @return true for a warm restart in the same process, false if SUMO was started again.
+     */
+    public boolean restartSimulation() {
+        if (isRunning && initialState != null && loadState(initialState.getAbsolutePath())) {
+            LOG.info("Simulation restarted from the initial state");
+            return true;
+        }
         try {
             // check if a connection exists and close it
             if (connection != null) {
@@ -128,6 +272,7 @@ public class ControlPanel
             LOG.error("Failed to restart simulation: " + e.getMessage());
             
         }
+        return false;
     }
 
     // function step
@@ -145,6 +290,14 @@ public class ControlPanel
             connection.do_timestep();
             // get current time
             double time = getCurrentTime();
+            // add the vehicles of the registered demand that are due
+            demandScheduler.step(time);
+            // collect the subscription results of this step into one frame
+            VehicleFrame frame = vehicleSubscriptionManager.update(time);
+            // compute all dashboard metrics in one pass over that frame; the vehicle count is
+            // the registry's, which also holds the vehicles the frame leaves out
+            stepStatistics = StepStatistics.compute(frame, vehicleSubscriptionManager.getRegistry().size());
+            trafficLightSubscriptionManager.update(time);
             LOG.info("Step to: " + time);
         }
         catch (Exception e)
@@ -164,6 +317,124 @@ public class ControlPanel
         return this.connection;
     }
 
+    /**
+     * Returns the vehicle snapshot captured at the latest {@link #step()}.
+     * Renderers and statistics should read this frame instead of querying single vehicles.
+     *
+     * @return The latest frame, or {@link VehicleFrame#EMPTY} if the simulation is not running.
+     */
+    public VehicleFrame getVehicleFrame()
+    {
+        if (!isRunning || vehicleSubscriptionManager == null)
+        {
+            return VehicleFrame.EMPTY;
+        }
+        return vehicleSubscriptionManager.getCurrentFrame();
+    }
+
+    /**
+     * Gets the traffic light states of the latest step, delivered by the subscriptions.
+     *
+     * @return The current traffic light frame, or {@link TrafficLightStateFrame#EMPTY} if the simulation is not running.
+     */
+    public TrafficLightStateFrame getTrafficLightStateFrame()
+    {
+        if (!isRunning || trafficLightSubscriptionManager == null)
+        {
+            return TrafficLightStateFrame.EMPTY;
+        }
+        return trafficLightSubscriptionManager.getCurrentFrame();
+    }
+
+    /**
+     * Gets the road network parsed from the net file of the configuration.
+     *
+     * @return The network model, or null if the net file could not be read.
+     */
+    public NetworkModel getNetworkModel()
+    {
+        return networkModel;
+    }
+
+    /**
+     * Gets the white road markings of the network, generated once per network.
+     *
+     * @return The lane markings, {@link LaneMarkings#EMPTY} if the simulation is not running.
+     */
+    public LaneMarkings getLaneMarkings()
+    {
+        if (laneMarkings == null)
+        {
+            if (!isRunning)
+            {
+                return LaneMarkings.EMPTY;
+            }
+            // no net file could be read, derive them from the shapes SUMO reports
+            laneMarkings = LaneMarkings.generate(getMapShape());
+        }
+        return laneMarkings;
+    }
+
+    /**
+     * Gets the lane shapes in the packed layout the renderers draw from.
+     * Shares the arrays of the network model if the net file was read.
+     *
+     * @return The lane geometry, {@link LaneGeometryStore#EMPTY} if the simulation is not running.
+     */
+    public LaneGeometryStore getLaneGeometry()
+    {
+        if (laneGeometry == null)
+        {
+            if (networkModel != null)
+            {
+                laneGeometry = LaneGeometryStore.fromNetwork(networkModel);
+            }
+            else if (isRunning)
+            {
+                laneGeometry = LaneGeometryStore.fromShapes(getMapShape());
+            }
+            else
+            {
+                return LaneGeometryStore.EMPTY;
+            }
+        }
+        return laneGeometry;
+    }
+
+    /**
+     * Gets the spatial index over all lane segments, built once from {@link #getLaneGeometry()}.
+     * Its owners are handles of that geometry store.
+     *
+     * @return The segment index, {@link SegmentIndex#EMPTY} if there is no geometry yet.
+     */
+    public SegmentIndex getLaneSegmentIndex()
+    {
+        LaneGeometryStore geometry = getLaneGeometry();
+        if (geometry == LaneGeometryStore.EMPTY)
+        {
+            return SegmentIndex.EMPTY;
+        }
+        if (laneSegments == null)
+        {
+            laneSegments = SegmentIndex.fromLanes(geometry);
+        }
+        return laneSegments;
+    }
+
+    /**
+     * Returns the dashboard metrics of the latest {@link #step()}.
+     *
+     * @return The latest statistics, or {@link StepStatistics#EMPTY} if the simulation is not running.
+     */
+    public StepStatistics getStepStatistics()
+    {
+        if (!isRunning)
+        {
+            return StepStatistics.EMPTY;
+        }
+        return stepStatistics;
+    }
+
     // ------------------------------------------
     // VEHICLE METHODS
     // ------------------------------------------
@@ -205,50 +476,63 @@ public class ControlPanel
             
         }
     }
-    // stress test method
+    // stress test method, all vehicles depart now
     public void stressTest(int vehicleCount)
     {
-        synchronized (connection)
+        stressTest(vehicleCount, 0.0);
+    }
+
+    /**
+     * Adds many vehicles on all known routes in a few batched TraCI messages.
+     * Runs on the thread that owns the connection, normally as an engine command.
+     *
+     * @param vehicleCount  The number of vehicles to add.
+     * @param windowSeconds The departures are spread over this many seconds from now; 0 departs all at once.
+     */
+    public void stressTest(int vehicleCount, double windowSeconds)
+    {
+        // check if the simulation is running
+        if (!isRunning)
         {
-            // check if the simulation is running
-            if (!isRunning)
+            LOG.error("The simulation is not running");
+            return;
+        }
+        // generate a unique batch id
+        String batchID = String.valueOf(System.currentTimeMillis());
+        try
+        {
+            // get all routes
+            List<String> routeIDs = routeWrapper.getRouteIDs();
+            if (routeIDs.isEmpty())
             {
-                LOG.error("The simulation is not running");
+                LOG.error("Can't find any routes on the map");
                 return;
             }
-            // generate a unique batch id
-            String batchID = String.valueOf(System.currentTimeMillis());
-            try
-            {
-                // get all routes
-                List<String> routeIDs = routeWrapper.getRouteIDs();
-                int currentTime = (int) getCurrentTime();
-                if (routeIDs.isEmpty())
-                {
-                    LOG.error("Can't find any routes on the map");
-                    return;
-                }
-
-                // declare a routeIndex variable
-                int routeIndex = 0;
-                for (int i = 0; i < vehicleCount; i++)
-                {
-                    String vehicleId = "stresstess_" + batchID + "_" + i;
-                    // get the current routeID
-                    String routeId = routeIDs.get(routeIndex);
-                    // add the vehicle in the current time and loop over route id
-                    vehicleWrapper.addVehicle(vehicleId, "DEFAULT_VEHTYPE", routeId, currentTime, 0.0, 0.0, (byte)-2);
-                    routeIndex = (routeIndex+1) % routeIDs.size();
-                }
-                LOG.info("Strees Testing successfully");
-            }
-            catch (Exception e)
-            {
-                LOG.error("Failed to perform stress test");
-                // 
-            }
+            double firstDepart = (windowSeconds > 0) ? getCurrentTime() : -1.0;
+            lastInjectionReport = vehicleInjector.inject("stresstest_" + batchID, vehicleCount, routeIDs,
+                    "DEFAULT_VEHTYPE", firstDepart, windowSeconds);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to perform stress test");
         }
+    }
+
+    /**
+     * Returns the scheduler for time-distributed demand. It releases due vehicles at every
+     * {@link #step()}; streams must be added on the engine thread.
+     *
+     * @return The scheduler, or null before the simulation was started.
+     */
+    public DemandScheduler getDemandScheduler()
+    {
+        return demandScheduler;
+    }
 
+    // result of the latest stress test, null before the first one
+    public VehicleInjector.Report getLastInjectionReport()
+    {
+        return lastInjectionReport;
     }
 
     // create function setColor
@@ -347,6 +631,8 @@ public class ControlPanel
         try
         {
             vehicleWrapper.changeTarget(vehicleId, edgeId);
+            // the vehicle got a new route, read it again after the next step
+            vehicleSubscriptionManager.getAttributes().invalidateRoute(vehicleId);
         }
         catch (Exception e)
         {
@@ -366,6 +652,7 @@ public class ControlPanel
         try
         {
             vehicleWrapper.setRouteID(vehicleId, routeId);
+            vehicleSubscriptionManager.getAttributes().invalidateRoute(vehicleId);
         }
         catch (Exception e)
         {
@@ -393,6 +680,24 @@ public class ControlPanel
         }
     }
 
+    // cached type, route and size of the vehicles in the simulation, with hit/miss counters
+    public VehicleAttributeCache getVehicleAttributes()
+    {
+        return (vehicleSubscriptionManager != null) ? vehicleSubscriptionManager.getAttributes() : null;
+    }
+
+    /**
+     * Returns the vehicles currently in the simulation with their int handles.
+     * Only valid on the engine thread, which updates it at every {@link #step()}.
+     *
+     * @return The registry, or null before the simulation was started.
+     */
+    public ActiveVehicleRegistry getActiveVehicles()
+    {
+        return (vehicleSubscriptionManager != null) ? vehicleSubscriptionManager.getRegistry() : null;
+    }
+
+    // IDs of the vehicles in the simulation, from the registry kept up to date every step
     public List<String> getVehicleIDs()
     {
         if (!isRunning)
@@ -402,7 +707,7 @@ public class ControlPanel
         }
         try
         {
-            return vehicleWrapper.getVehicleIDs();
+            return vehicleSubscriptionManager.getRegistry().getVehicleIds();
         }
         catch (Exception e)
         {
@@ -417,6 +722,11 @@ public class ControlPanel
             return "DEFAULT_VEHTYPE";
         }
         try {
+            // set on departure, ask SUMO only for vehicles not cached yet
+            String typeId = vehicleSubscriptionManager.getAttributes().lookupTypeId(vehicleID);
+            if (typeId != null) {
+                return typeId;
+            }
             //Delegate to the wrapper
             return vehicleWrapper.getVehicleTypeID(vehicleID);
         } catch (Exception e) {
@@ -548,7 +858,8 @@ public class ControlPanel
         if (!isRunning) {
             return "";
         }
-        return vehicleWrapper.getRouteID(vehicleId);
+        String routeId = vehicleSubscriptionManager.getAttributes().lookupRouteId(vehicleId);
+        return (routeId != null) ? routeId : vehicleWrapper.getRouteID(vehicleId);
     }
 
     // create function getDistance
@@ -855,6 +1166,12 @@ public class ControlPanel
             return allShapes;
         }
 
+        // the parsed net file has the same lanes, no TraCI request needed
+        if (networkModel != null)
+        {
+            return networkModel.toShapeMap();
+        }
+
         try {
             // get the list of ALL lane IDs in the simulation
             List<String> laneIDs = laneWrapper.getLaneIDList();
@@ -918,6 +1235,12 @@ public class ControlPanel
                 }
             }
 
+            // the connections of the parsed network answer without a TraCI request
+            if (networkModel != null) {
+                int edge = networkModel.findEdge(baseEdgeId);
+                return (edge >= 0) ? networkModel.getNextEdges(edge) : new ArrayList<>();
+            }
+
             int laneCount = edgeWrapper.getLaneNumber(baseEdgeId);
 
             for (int i = 0; i < laneCount; i++) {
@@ -1079,63 +1402,18 @@ public class ControlPanel
             LOG.error("The simulation is not running");
             return 0.0;
         }
-
-        try {
-            List<String> allVehicles = getVehicleIDs();
-            if (allVehicles.isEmpty()) {
-                return 0.0;
-            }
-
-            double totalSpeed = 0.0;
-
-            for (String vehicleId : allVehicles) {
-                totalSpeed += getVehicleSpeed(vehicleId);
-            }
-
-            return (totalSpeed / allVehicles.size()) * 3.6; // m/s to km/h
-        } catch (Exception e) {
-            LOG.error("Failed to calculate global mean speed");
-            
-        }
-        return 0.0;
+        return getStepStatistics().meanSpeed; // already in km/h
     }
 
     // Get the CO2 of every vehicle on the map
     public double getTotalCO2() {
         if (!isRunning) return 0.0;
-
-        double totalCO2 = 0.0;
-        try {
-            List<String> ids = getVehicleIDs(); // Get all the vehicle IDs
-            for (String id : ids) // Loop through and get all the CO2 emission by every vehicle
-            {
-                totalCO2 += vehicleWrapper.getCO2Emission(id);
-            }
-        } catch (Exception e) {
-            LOG.error("Error calculating CO2");
-        }
-        return (totalCO2 / 1000.0); // mg to g
+        return getStepStatistics().totalCO2; // already in g
     }
 
     public double getCongestionPercentage() {
         if (!isRunning) return 0.0;
-
-        try {
-            List<String> ids = getVehicleIDs();
-            if (ids.isEmpty()) return 0.0;
-
-            int stoppedCars = 0;
-            for (String id : ids) {
-                // If speed is less than 0.1 m/s, the car can be viewed as stopped
-                if (vehicleWrapper.getVehicleSpeed(id) < 0.1) {
-                    stoppedCars++;
-                }
-            }
-            // Return percentage (0.0 to 100.0)
-            return ((double) stoppedCars / ids.size()) * 100.0;
-        } catch (Exception e) {
-            return 0.0;
-        }
+        return getStepStatistics().stoppedPercentage;
     }
 
     public String getMostCongestedEdge() {
@@ -1146,13 +1424,13 @@ public class ControlPanel
 
         try {
             List<String> allEdgeIDs = edgeWrapper.getEdgeIDs();
+            // one batched request for all edges instead of one round trip per edge
+            double[] occupancies = edgeWrapper.getEdgeOccupancies(allEdgeIDs);
 
-
-            for (String id : allEdgeIDs) {
-                double occupancy = edgeWrapper.getEdgeOccupancy(id);
-                if (occupancy > maxOccupancy) {
-                    maxOccupancy = occupancy;
-                    worstEdge = id;
+            for (int i = 0; i < occupancies.length; i++) {
+                if (occupancies[i] > maxOccupancy) {
+                    maxOccupancy = occupancies[i];
+                    worstEdge = allEdgeIDs.get(i);
                 }
             }
             maxOccupancy = maxOccupancy * 150;
@@ -1165,22 +1443,6 @@ public class ControlPanel
         }
     }
 
-    public List<Double> getAccumulatedWaitingTimes() {
-        List<Double> waitingTimes = new ArrayList<>();
-        if (!isRunning) return waitingTimes;
-
-        try {
-            List<String> vehicles = getVehicleIDs();
-            for (String id : vehicles) {
-                double wait = vehicleWrapper.getAccumulatedWaitingTime(id);
-                waitingTimes.add(wait);
-            }
-        } catch (Exception e) {
-            LOG.error("Failed to get waiting times");
-        }
-        return waitingTimes;
-    }
-
     // ------------------------------------------
     // SIMULATION
     // -------------------------------------------
@@ -1193,6 +1455,10 @@ public class ControlPanel
             LOG.error("The simulation is not running");
             return new ArrayList<>();
         }
+        if (networkModel != null)
+        {
+            return networkModel.getBoundary();
+        }
         try
         {
             return simulationWrapper.getNetBoundary();
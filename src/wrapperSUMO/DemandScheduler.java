@@ -0,0 +1,451 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.cmd.Route;
+import de.tudresden.sumo.config.Constants;
+import de.tudresden.sumo.objects.SumoStringList;
+import it.polito.appeal.traci.SumoTraciConnection;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Generates traffic demand over time instead of adding vehicles in one go.
+ * <p>
+ * Demand is registered as streams: a route (or an origin-destination pair of edges), a vehicle
+ * type and a {@link RateProfile} in vehicles per hour. Arrivals of a stream form a Poisson
+ * process whose rate follows the profile. Only the next arrival of every stream is kept, in a
+ * binary heap of stream indices ordered by that time; all stream state lives in primitive arrays.
+ * The slot of a stream that has ended is reused by the next stream, so memory grows with the
+ * number of streams active at the same time, not with the number of vehicles still to come.
+ * </p>
+ * <p>
+ * {@link #step(double)} releases the arrivals that are due and adds them through a
+ * {@link VehicleInjector} in one batch. Before that it reads SUMO's insertion backlog; while more
+ * vehicles wait for insertion than {@link #setMaxBacklog allowed}, nothing is released and
+ * the due arrivals are delayed instead of piling up in SUMO. Must run on the thread that owns the
+ * connection.
+ * </p>
+ */
+public class DemandScheduler
+{
+    private static final Logger LOG = LogManager.getLogger(DemandScheduler.class.getName());
+
+    /**
+     * Arrival rate over time, piecewise constant in bins of equal length.
+     * The time is measured from the start of the stream.
+     */
+    public static final class RateProfile
+    {
+        private final double binSeconds;
+        // vehicles per second of every bin
+        private final double[] rates;
+        // repeat the bins after the last one, otherwise the last rate holds forever
+        private final boolean cyclic;
+        private final boolean empty;
+        // arrivals per cycle of a cyclic profile
+        private final double cycleWork;
+
+        private RateProfile(double binSeconds, double[] vehiclesPerHour, boolean cyclic)
+        {
+            if (binSeconds <= 0 || vehiclesPerHour.length == 0)
+            {
+                throw new IllegalArgumentException("A rate profile needs a positive bin length and at least one rate");
+            }
+            this.binSeconds = binSeconds;
+            this.rates = new double[vehiclesPerHour.length];
+            boolean anyPositive = false;
+            for (int i = 0; i < rates.length; i++)
+            {
+                rates[i] = Math.max(0.0, vehiclesPerHour[i]) / 3600.0;
+                anyPositive |= rates[i] > 0;
+            }
+            this.cyclic = cyclic;
+            this.empty = !anyPositive;
+            double total = 0;
+            for (double rate : rates)
+            {
+                total += rate * binSeconds;
+            }
+            this.cycleWork = total;
+        }
+
+        // the same rate all the time
+        public static RateProfile constant(double vehiclesPerHour)
+        {
+            return new RateProfile(3600.0, new double[]{vehiclesPerHour}, false);
+        }
+
+        // the rates one after the other, the last one holds afterwards (e.g. a peak hour profile)
+        public static RateProfile of(double binSeconds, double... vehiclesPerHour)
+        {
+            return new RateProfile(binSeconds, vehiclesPerHour.clone(), false);
+        }
+
+        // the rates repeating forever (e.g. 24 hourly values of a daily profile)
+        public static RateProfile cyclic(double binSeconds, double... vehiclesPerHour)
+        {
+            return new RateProfile(binSeconds, vehiclesPerHour.clone(), true);
+        }
+
+        private double rateOfBin(long bin)
+        {
+            if (cyclic) return rates[(int) Math.floorMod(bin, (long) rates.length)];
+            return rates[(int) Math.min(bin, rates.length - 1)];
+        }
+
+        /**
+         * Finds the time at which the integrated rate since {@code t} reaches {@code work},
+         * i.e. the next arrival for an exponentially distributed {@code work}.
+         *
+         * @return The arrival time, or infinity if the rate stays zero.
+         */
+        double advance(double t, double work)
+        {
+            if (empty) return Double.POSITIVE_INFINITY;
+            long bin = (long) Math.floor(t / binSeconds);
+            while (true)
+            {
+                if (!cyclic && bin >= rates.length - 1)
+                {
+                    // the last rate holds forever
+                    double rate = rates[rates.length - 1];
+                    return (rate > 0) ? t + work / rate : Double.POSITIVE_INFINITY;
+                }
+                if (cyclic && t == bin * binSeconds && Math.floorMod(bin, (long) rates.length) == 0 && work > cycleWork)
+                {
+                    // skip whole cycles at once, so a low rate does not walk through many bins
+                    long cycles = (long) (work / cycleWork);
+                    work -= cycles * cycleWork;
+                    bin += cycles * rates.length;
+                    t = bin * binSeconds;
+                }
+                double rate = rateOfBin(bin);
+                double binEnd = (bin + 1) * binSeconds;
+                if (rate > 0)
+                {
+                    double needed = work / rate;
+                    if (t + needed <= binEnd) return t + needed;
+                    work -= rate * (binEnd - t);
+                }
+                t = binEnd;
+                bin++;
+            }
+        }
+    }
+
+    private final SumoTraciConnection connection;
+    private final VehicleInjector injector;
+    private final TraciBatch backlogQuery;
+    private final Random random;
+
+    // streams, indexed by stream number
+    private String[] routeIds = new String[8];
+    private String[] typeIds = new String[8];
+    private String[] idPrefixes = new String[8];
+    private String[] departLanes = new String[8];
+    private String[] departPositions = new String[8];
+    private String[] departSpeeds = new String[8];
+    private RateProfile[] profiles = new RateProfile[8];
+    private double[] startTimes = new double[8];
+    private double[] nextTimes = new double[8];
+    private int[] released = new int[8];
+    // -1 for streams without a limit
+    private int[] limits = new int[8];
+    private int streamCount = 0;
+
+    // slots of ended streams, reused before new ones are taken
+    private int[] freeStreams = new int[8];
+    private int freeCount = 0;
+
+    // binary min-heap of stream numbers by nextTimes
+    private int[] heap = new int[8];
+    private int heapSize = 0;
+
+    private int maxBacklog = 1000;
+    private int maxReleasePerStep = VehicleInjector.DEFAULT_BATCH_SIZE;
+    private long totalReleased = 0;
+    private long delayedSteps = 0;
+    private int lastBacklog = 0;
+    private int lastExpected = 0;
+    private final StringBuilder idBuilder = new StringBuilder(64);
+
+    /**
+     * @param connection The connection, for creating routes and reading the backlog.
+     * @param injector   Adds the released vehicles.
+     * @param seed       Seed of the arrival process, equal seeds give equal demand.
+     */
+    public DemandScheduler(SumoTraciConnection connection, VehicleInjector injector, long seed)
+    {
+        this.connection = connection;
+        this.injector = injector;
+        this.backlogQuery = new TraciBatch(connection);
+        this.random = new Random(seed);
+    }
+
+    // no vehicles are released while more than this many wait for insertion in SUMO
+    public void setMaxBacklog(int maxBacklog)
+    {
+        this.maxBacklog = Math.max(0, maxBacklog);
+    }
+
+    // upper bound of vehicles released in a single step
+    public void setMaxReleasePerStep(int maxReleasePerStep)
+    {
+        this.maxReleasePerStep = Math.max(1, maxReleasePerStep);
+    }
+
+    /**
+     * Adds demand on a route that SUMO already knows.
+     *
+     * @param idPrefix  The vehicles are named {@code idPrefix + "_" + n}; must be unique per stream.
+     * @param routeId   The route.
+     * @param typeId    The vehicle type.
+     * @param profile   The arrival rate over time.
+     * @param limit     The number of vehicles after which the stream ends; negative for no limit.
+     * @param startTime The simulation time at which the profile starts, in seconds.
+     * @return The stream number, which a later stream may get again once this one has ended.
+     */
+    public int addRouteDemand(String idPrefix, String routeId, String typeId, RateProfile profile, int limit, double startTime)
+    {
+        return addRouteDemand(idPrefix, routeId, typeId, profile, limit, startTime,
+                VehicleInjector.DEPART_LANE, VehicleInjector.DEPART_POS, VehicleInjector.DEPART_SPEED);
+    }
+
+    /**
+     * Adds demand on a route that SUMO already knows, with the departure lane, position and speed
+     * of its vehicles in SUMO's notation (see {@link VehicleInjector#queue(String, String, String, String, String, String, String)}).
+     *
+     * @return The stream number.
+     */
+    public int addRouteDemand(String idPrefix, String routeId, String typeId, RateProfile profile, int limit,
+                              double startTime, String departLane, String departPos, String departSpeed)
+    {
+        int stream;
+        if (freeCount > 0)
+        {
+            stream = freeStreams[--freeCount];
+        }
+        else
+        {
+            stream = streamCount++;
+            ensureStreamCapacity(streamCount);
+        }
+        routeIds[stream] = routeId.intern();
+        typeIds[stream] = typeId.intern();
+        idPrefixes[stream] = idPrefix + "_";
+        departLanes[stream] = departLane;
+        departPositions[stream] = departPos;
+        departSpeeds[stream] = departSpeed;
+        profiles[stream] = profile;
+        startTimes[stream] = startTime;
+        released[stream] = 0;
+        limits[stream] = limit;
+        scheduleNext(stream, startTime);
+        return stream;
+    }
+
+    /**
+     * Adds demand between two edges. The route consists of just the two edges and SUMO routes
+     * the vehicles between them when they are inserted, like a trip.
+     *
+     * @return The stream number.
+     */
+    public int addOdDemand(String idPrefix, String fromEdge, String toEdge, String typeId, RateProfile profile,
+                           int limit, double startTime)
+    {
+        String routeId = "od_" + fromEdge + "_" + toEdge;
+        try
+        {
+            SumoStringList edges = new SumoStringList();
+            edges.add(fromEdge);
+            edges.add(toEdge);
+            connection.do_job_set(Route.add(routeId, edges));
+        }
+        catch (Exception e)
+        {
+            // the route may already exist from an earlier stream of the same pair
+            LOG.error("Failed to add route " + routeId + ": " + e.getMessage());
+        }
+        return addRouteDemand(idPrefix, routeId, typeId, profile, limit, startTime);
+    }
+
+    /**
+     * Releases the arrivals due at the given simulation time, unless SUMO's insertion
+     * backlog is too long.
+     *
+     * @param time The current simulation time in seconds.
+     * @return The number of vehicles added.
+     */
+    public int step(double time)
+    {
+        if (heapSize == 0 || nextTimes[heap[0]] > time)
+        {
+            return 0;
+        }
+        if (isBacklogged())
+        {
+            delayedSteps++;
+            return 0;
+        }
+
+        int count = 0;
+        while (heapSize > 0 && nextTimes[heap[0]] <= time && count < maxReleasePerStep)
+        {
+            int stream = heap[0];
+            idBuilder.setLength(0);
+            idBuilder.append(idPrefixes[stream]).append(released[stream]);
+            injector.queue(idBuilder.toString(), routeIds[stream], typeIds[stream], "now",
+                    departLanes[stream], departPositions[stream], departSpeeds[stream]);
+            released[stream]++;
+            count++;
+
+            // the stream's clock runs on from its own arrival, so delays do not change the rate
+            popHeap();
+            scheduleNext(stream, nextTimes[stream]);
+        }
+        VehicleInjector.Report report = injector.flush();
+        totalReleased += report.accepted;
+        return report.accepted;
+    }
+
+    // reads the number of vehicles waiting for insertion and the number SUMO still expects, in one message
+    private boolean isBacklogged()
+    {
+        CompletableFuture<Object> pending = backlogQuery.get(Constants.CMD_GET_SIM_VARIABLE, Constants.VAR_PENDING_VEHICLES, "");
+        CompletableFuture<Integer> expected = backlogQuery.getInt(Constants.CMD_GET_SIM_VARIABLE, Constants.VAR_MIN_EXPECTED_VEHICLES, "");
+        backlogQuery.execute();
+        try
+        {
+            lastBacklog = ((SumoStringList) pending.join()).size();
+            lastExpected = expected.join();
+        }
+        catch (Exception e)
+        {
+            // without the numbers, do not hold back the demand
+            LOG.error("Failed to read the insertion backlog: " + e.getMessage());
+            return false;
+        }
+        return lastBacklog > maxBacklog;
+    }
+
+    private void scheduleNext(int stream, double after)
+    {
+        if (limits[stream] >= 0 && released[stream] >= limits[stream])
+        {
+            freeStream(stream);
+            return;
+        }
+        double work = -Math.log(1.0 - random.nextDouble());
+        double local = profiles[stream].advance(after - startTimes[stream], work);
+        if (Double.isInfinite(local))
+        {
+            freeStream(stream);
+            return;
+        }
+        nextTimes[stream] = startTimes[stream] + local;
+        pushHeap(stream);
+    }
+
+    // the stream has ended and is not in the heap, its slot can take the next stream
+    private void freeStream(int stream)
+    {
+        routeIds[stream] = null;
+        typeIds[stream] = null;
+        idPrefixes[stream] = null;
+        departLanes[stream] = null;
+        departPositions[stream] = null;
+        departSpeeds[stream] = null;
+        profiles[stream] = null;
+        if (freeCount == freeStreams.length)
+        {
+            freeStreams = Arrays.copyOf(freeStreams, freeCount * 2);
+        }
+        freeStreams[freeCount++] = stream;
+    }
+
+    /**
+     * Removes all streams.
+     */
+    public void clear()
+    {
+        Arrays.fill(routeIds, 0, streamCount, null);
+        Arrays.fill(typeIds, 0, streamCount, null);
+        Arrays.fill(idPrefixes, 0, streamCount, null);
+        Arrays.fill(departLanes, 0, streamCount, null);
+        Arrays.fill(departPositions, 0, streamCount, null);
+        Arrays.fill(departSpeeds, 0, streamCount, null);
+        Arrays.fill(profiles, 0, streamCount, null);
+        streamCount = 0;
+        freeCount = 0;
+        heapSize = 0;
+    }
+
+    // streams that will still release vehicles
+    public int getActiveStreamCount() { return heapSize; }
+    public long getTotalReleased() { return totalReleased; }
+    // steps in which due vehicles were held back because of the backlog
+    public long getDelayedSteps() { return delayedSteps; }
+    public int getLastBacklog() { return lastBacklog; }
+    public int getLastExpected() { return lastExpected; }
+
+    // ------------------------------------------
+    // HEAP
+    // ------------------------------------------
+
+    private void pushHeap(int stream)
+    {
+        if (heapSize == heap.length)
+        {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int i = heapSize++;
+        double time = nextTimes[stream];
+        while (i > 0)
+        {
+            int parent = (i - 1) / 2;
+            if (nextTimes[heap[parent]] <= time) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = stream;
+    }
+
+    private void popHeap()
+    {
+        int last = heap[--heapSize];
+        if (heapSize == 0) return;
+        double time = nextTimes[last];
+        int i = 0;
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && nextTimes[heap[child + 1]] < nextTimes[heap[child]]) child++;
+            if (nextTimes[heap[child]] >= time) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+    }
+
+    private void ensureStreamCapacity(int capacity)
+    {
+        if (capacity <= routeIds.length) return;
+        int size = Math.max(capacity, routeIds.length * 2);
+        routeIds = Arrays.copyOf(routeIds, size);
+        typeIds = Arrays.copyOf(typeIds, size);
+        idPrefixes = Arrays.copyOf(idPrefixes, size);
+        departLanes = Arrays.copyOf(departLanes, size);
+        departPositions = Arrays.copyOf(departPositions, size);
+        departSpeeds = Arrays.copyOf(departSpeeds, size);
+        profiles = Arrays.copyOf(profiles, size);
+        startTimes = Arrays.copyOf(startTimes, size);
+        nextTimes = Arrays.copyOf(nextTimes, size);
+        released = Arrays.copyOf(released, size);
+        limits = Arrays.copyOf(limits, size);
+    }
+}
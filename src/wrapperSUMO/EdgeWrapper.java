@@ -13,9 +13,11 @@ conn.do_job_set(Command.setSomething(parameter1, parameter2, ...));
 package wrapperSUMO;
 
 import de.tudresden.sumo.cmd.Edge;
+import de.tudresden.sumo.config.Constants;
 import it.polito.appeal.traci.SumoTraciConnection;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -117,10 +119,13 @@ public class EdgeWrapper {
         try
         {
             List<String> allEdges = getEdgeIDs(); // Get the list of all the edges' ID
+            // send all speed limits in one TraCI message instead of one per edge
+            TraciBatch batch = new TraciBatch(connection);
             for (String edgeID : allEdges)  // Loop through all the edges
             {
-                setMaxSpeed(edgeID, speed); // Set the speed limit for every single edge
+                batch.set(Constants.CMD_SET_EDGE_VARIABLE, Constants.VAR_MAXSPEED, edgeID, Constants.TYPE_DOUBLE, speed);
             }
+            batch.execute();
             return 0;
         } catch (Exception e) {
             LOG.error("Failed to set the global max speed");
@@ -146,4 +151,28 @@ public class EdgeWrapper {
             return 0;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the occupancy of many edges with a single TraCI round trip.
+     *
+     * @param edgeIDs The edges to query.
+     * @return The occupancy (0.0 to 1.0) of each edge, in the same order; 0 for edges that could not be read.
+     */
+    public double[] getEdgeOccupancies(List<String> edgeIDs) {
+        double[] occupancies = new double[edgeIDs.size()];
+        List<CompletableFuture<Double>> results = new ArrayList<>(edgeIDs.size());
+        TraciBatch batch = new TraciBatch(connection);
+        for (String edgeID : edgeIDs) {
+            results.add(batch.getDouble(Constants.CMD_GET_EDGE_VARIABLE, Constants.LAST_STEP_OCCUPANCY, edgeID));
+        }
+        batch.execute();
+        for (int i = 0; i < occupancies.length; i++) {
+            try {
+                occupancies[i] = results.get(i).join();
+            } catch (Exception e) {
+                LOG.error("Failed to get last step edge occupancy of " + edgeIDs.get(i));
+            }
+        }
+        return occupancies;
+    }
+}
@@ -0,0 +1,172 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.objects.SumoPosition2D;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Polyline geometry of many lanes in a structure-of-arrays layout.
+ * <p>
+ * All x coordinates live in one {@code double[]}, all y coordinates in another, and
+ * {@code offsets[h]} .. {@code offsets[h + 1]} is the point range of the lane with handle
+ * {@code h}. Renderers walk the arrays front to back and never create lists, position objects
+ * or map entries while drawing. Lane IDs are translated to int handles once through the
+ * dictionary.
+ * </p>
+ * <p>
+ * A store built from a {@link NetworkModel} shares the model's arrays, so it costs no copy.
+ * Instances are immutable.
+ * </p>
+ */
+public final class LaneGeometryStore
+{
+    public static final LaneGeometryStore EMPTY = new LaneGeometryStore(new double[0], new double[0], new int[]{0}, null);
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] offsets;
+    // null for geometry without IDs (e.g. lane markings)
+    private final String[] laneIds;
+    private final boolean[] internal;
+    // axis-aligned bounding box of every lane: minX, minY, maxX, maxY
+    private final double[] bounds;
+    private final Map<String, Integer> handles;
+    private final int maxPointCount;
+
+    LaneGeometryStore(double[] xs, double[] ys, int[] offsets, String[] laneIds)
+    {
+        this.xs = xs;
+        this.ys = ys;
+        this.offsets = offsets;
+        this.laneIds = laneIds;
+
+        int lanes = offsets.length - 1;
+        internal = new boolean[lanes];
+        bounds = new double[lanes * 4];
+        Map<String, Integer> dictionary = new HashMap<>(Math.max(16, lanes * 2));
+        int maxPoints = 0;
+        for (int h = 0; h < lanes; h++)
+        {
+            maxPoints = Math.max(maxPoints, offsets[h + 1] - offsets[h]);
+            computeBounds(h);
+            if (laneIds != null)
+            {
+                dictionary.put(laneIds[h], h);
+                // lanes inside junctions start with ':'
+                internal[h] = laneIds[h].startsWith(":");
+            }
+        }
+        handles = Collections.unmodifiableMap(dictionary);
+        maxPointCount = maxPoints;
+    }
+
+    private void computeBounds(int handle)
+    {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int p = offsets[handle]; p < offsets[handle + 1]; p++)
+        {
+            minX = Math.min(minX, xs[p]);
+            minY = Math.min(minY, ys[p]);
+            maxX = Math.max(maxX, xs[p]);
+            maxY = Math.max(maxY, ys[p]);
+        }
+        int b = handle * 4;
+        bounds[b] = minX;
+        bounds[b + 1] = minY;
+        bounds[b + 2] = maxX;
+        bounds[b + 3] = maxY;
+    }
+
+    /**
+     * Wraps the lane shapes of a parsed network without copying them.
+     *
+     * @param network The network model.
+     * @return A store whose handles equal the model's lane indices.
+     */
+    public static LaneGeometryStore fromNetwork(NetworkModel network)
+    {
+        return new LaneGeometryStore(network.shapeX, network.shapeY, network.laneShapeStart, network.laneIds);
+    }
+
+    /**
+     * Packs lane shapes reported by SUMO (e.g. {@code ControlPanel.getMapShape()}).
+     *
+     * @param mapShapes The lane shapes keyed by lane ID.
+     * @return A store with one handle per map entry, in iteration order.
+     */
+    public static LaneGeometryStore fromShapes(Map<String, List<SumoPosition2D>> mapShapes)
+    {
+        if (mapShapes == null || mapShapes.isEmpty())
+        {
+            return EMPTY;
+        }
+        int total = 0;
+        for (List<SumoPosition2D> points : mapShapes.values())
+        {
+            total += points.size();
+        }
+        double[] xs = new double[total];
+        double[] ys = new double[total];
+        int[] offsets = new int[mapShapes.size() + 1];
+        String[] ids = new String[mapShapes.size()];
+        int lane = 0;
+        int p = 0;
+        for (Map.Entry<String, List<SumoPosition2D>> entry : mapShapes.entrySet())
+        {
+            ids[lane] = entry.getKey();
+            offsets[lane] = p;
+            for (SumoPosition2D point : entry.getValue())
+            {
+                xs[p] = point.x;
+                ys[p] = point.y;
+                p++;
+            }
+            lane++;
+        }
+        offsets[lane] = p;
+        return new LaneGeometryStore(xs, ys, offsets, ids);
+    }
+
+    // number of polylines in the store
+    public int getLaneCount() { return offsets.length - 1; }
+
+    // handle of a lane, -1 if the store has no such lane
+    public int getHandle(String laneId)
+    {
+        Integer handle = handles.get(laneId);
+        return (handle != null) ? handle : -1;
+    }
+
+    // lane ID of a handle, null for geometry without IDs
+    public String getLaneId(int handle) { return (laneIds != null) ? laneIds[handle] : null; }
+    public boolean isInternal(int handle) { return internal[handle]; }
+
+    // first point of a lane (inclusive)
+    public int getStart(int handle) { return offsets[handle]; }
+    // end of a lane's points (exclusive)
+    public int getEnd(int handle) { return offsets[handle + 1]; }
+    public int getPointCount(int handle) { return offsets[handle + 1] - offsets[handle]; }
+    // largest number of points of a single lane, for sizing scratch buffers once
+    public int getMaxPointCount() { return maxPointCount; }
+
+    // bounding box of a lane; empty lanes have an inverted (infinite) box that intersects nothing
+    public double getMinX(int handle) { return bounds[handle * 4]; }
+    public double getMinY(int handle) { return bounds[handle * 4 + 1]; }
+    public double getMaxX(int handle) { return bounds[handle * 4 + 2]; }
+    public double getMaxY(int handle) { return bounds[handle * 4 + 3]; }
+
+    // true if the lane's bounding box overlaps the world rectangle, widened by margin
+    public boolean intersects(int handle, double minX, double minY, double maxX, double maxY, double margin)
+    {
+        int b = handle * 4;
+        return bounds[b] - margin <= maxX && bounds[b + 2] + margin >= minX
+                && bounds[b + 1] - margin <= maxY && bounds[b + 3] + margin >= minY;
+    }
+
+    public double getX(int point) { return xs[point]; }
+    public double getY(int point) { return ys[point]; }
+}
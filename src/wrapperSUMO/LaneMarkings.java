@@ -0,0 +1,333 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.objects.SumoPosition2D;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The white road markings of a network: dashed lane separators and solid road boundaries.
+ * <p>
+ * The markings only depend on the lane geometry, so they are generated once per network
+ * (and stored in the {@link NetworkCache}) instead of by the renderer. Each line is a
+ * polyline; the points of all lines of one kind are packed into shared coordinate arrays,
+ * line {@code i} spanning {@code starts[i]} (inclusive) to {@code starts[i + 1]} (exclusive).
+ * </p>
+ */
+public final class LaneMarkings
+{
+    private static final Logger LOG = LogManager.getLogger(LaneMarkings.class.getName());
+
+    // distance of the road boundary from the center of the leftmost lane
+    private static final double BOUNDARY_OFFSET = 1.6;
+
+    public static final LaneMarkings EMPTY = new LaneMarkings(new int[]{0}, new double[0], new double[0],
+            new int[]{0}, new double[0], new double[0]);
+
+    final int[] dashedStarts;
+    final double[] dashedX;
+    final double[] dashedY;
+    final int[] solidStarts;
+    final double[] solidX;
+    final double[] solidY;
+
+    private final LaneGeometryStore dashedGeometry;
+    private final LaneGeometryStore solidGeometry;
+
+    LaneMarkings(int[] dashedStarts, double[] dashedX, double[] dashedY,
+                 int[] solidStarts, double[] solidX, double[] solidY)
+    {
+        this.dashedStarts = dashedStarts;
+        this.dashedX = dashedX;
+        this.dashedY = dashedY;
+        this.solidStarts = solidStarts;
+        this.solidX = solidX;
+        this.solidY = solidY;
+        // views over the packed arrays, nothing is copied
+        dashedGeometry = new LaneGeometryStore(dashedX, dashedY, dashedStarts, null);
+        solidGeometry = new LaneGeometryStore(solidX, solidY, solidStarts, null);
+    }
+
+    // lane separators and the boundary of single-lane roads, drawn dashed
+    public LaneGeometryStore getDashedLines()
+    {
+        return dashedGeometry;
+    }
+
+    // boundaries of roads with more than one lane, drawn solid
+    public LaneGeometryStore getSolidLines()
+    {
+        return solidGeometry;
+    }
+
+    /**
+     * coordinates the generation of all white road markings.
+     * it groups lanes by their parent edge, sorts them, and then generates either
+     * dashed lines (for lane separation) or solid lines (for road boundaries).
+     * * @param mapShapes the lane shapes keyed by lane id.
+     * @return the generated markings.
+     */
+    public static LaneMarkings generate(Map<String, List<SumoPosition2D>> mapShapes)
+    {
+        List<List<SumoPosition2D>> dashed = new ArrayList<>();
+        List<List<SumoPosition2D>> solid = new ArrayList<>();
+        if (mapShapes != null)
+        {
+            // create the hashset
+            Map<String, Map<Integer, List<SumoPosition2D>>> edgeGroups = createRoadHashMap(mapShapes);
+            Set<String> alreadyDrawn = new HashSet<>();
+
+            for (Map<Integer, List<SumoPosition2D>> laneMap : edgeGroups.values())
+            {
+                if (laneMap.isEmpty())
+                {
+                    continue;
+                }
+
+                List<Integer> sortedIndices = new ArrayList<>(laneMap.keySet());
+                Collections.sort(sortedIndices);
+
+                // draw dashed white lines
+                createDashedWhiteLine(laneMap, sortedIndices, dashed);
+
+                // draw the left parallel line
+                createLeftBoundaryLine(laneMap, sortedIndices, alreadyDrawn, dashed, solid);
+            }
+        }
+        return pack(dashed, solid);
+    }
+
+    private static LaneMarkings pack(List<List<SumoPosition2D>> dashed, List<List<SumoPosition2D>> solid)
+    {
+        int[] dashedStarts = starts(dashed);
+        int[] solidStarts = starts(solid);
+        double[] dashedX = new double[dashedStarts[dashed.size()]];
+        double[] dashedY = new double[dashedX.length];
+        double[] solidX = new double[solidStarts[solid.size()]];
+        double[] solidY = new double[solidX.length];
+        copy(dashed, dashedX, dashedY);
+        copy(solid, solidX, solidY);
+        return new LaneMarkings(dashedStarts, dashedX, dashedY, solidStarts, solidX, solidY);
+    }
+
+    private static int[] starts(List<List<SumoPosition2D>> lines)
+    {
+        int[] starts = new int[lines.size() + 1];
+        for (int i = 0; i < lines.size(); i++)
+        {
+            starts[i + 1] = starts[i] + lines.get(i).size();
+        }
+        return starts;
+    }
+
+    private static void copy(List<List<SumoPosition2D>> lines, double[] xs, double[] ys)
+    {
+        int p = 0;
+        for (List<SumoPosition2D> line : lines)
+        {
+            for (SumoPosition2D point : line)
+            {
+                xs[p] = point.x;
+                ys[p] = point.y;
+                p++;
+            }
+        }
+    }
+
+    /**
+     * parses the raw map data to group individual lanes into their respective road edges.
+     * it filters out internal sumo junctions and organizes coordinates by edge id and lane index.
+     * * @return a nested map structure where the primary key is the edge id and the value is a map of lanes.
+     */
+    private static Map<String, Map<Integer, List<SumoPosition2D>>> createRoadHashMap(Map<String, List<SumoPosition2D>> mapShapes)
+    {
+        // create a hashmap
+        Map<String, Map<Integer, List<SumoPosition2D>>> roadMap = new HashMap<>();
+        // loop through each pairs of keys and values
+        for (Map.Entry<String, List<SumoPosition2D>> entry : mapShapes.entrySet())
+        {
+            // extract the key
+            String fullEdgeID = entry.getKey();
+
+            // skip internal edges
+            if (fullEdgeID.startsWith(":"))
+            {
+                continue;
+            }
+
+            // get the position of "_"
+            int underScoreIndex = fullEdgeID.lastIndexOf("_");
+
+            if (underScoreIndex != -1)
+            {
+                // get the edgeID
+                String edgeID = fullEdgeID.substring(0, underScoreIndex);
+                try
+                {
+                    // get the laneID
+                    int laneID = Integer.parseInt(fullEdgeID.substring(underScoreIndex + 1));
+                    // create a hashmap for that edgeID
+                    roadMap.putIfAbsent(edgeID, new HashMap<>());
+                    // put laneID and 2D data into the hashmap
+                    roadMap.get(edgeID).put(laneID, entry.getValue());
+                }
+                catch (NumberFormatException e)
+                {
+                    LOG.error("Could not parse lane index for: " + fullEdgeID);
+                }
+            }
+        }
+        return roadMap;
+    }
+
+    /**
+     * generates coordinates for dashed lines that separate multiple lanes on the same road.
+     * it calculates the midpoint between adjacent lanes to place the separator correctly.
+     * * @param laneMap the map containing lane indices and their coordinates for a specific edge.
+     * @param sortedIndicies the list of lane indices sorted from right to left.
+     */
+    private static void createDashedWhiteLine(Map<Integer, List<SumoPosition2D>> laneMap, List<Integer> sortedIndicies,
+                                              List<List<SumoPosition2D>> dashed)
+    {
+        for (int i = 0; i < sortedIndicies.size() - 1; i++)
+        {
+            // get laneA and laneB
+            List<SumoPosition2D> laneA = laneMap.get(sortedIndicies.get(i));
+            List<SumoPosition2D> laneB = laneMap.get(sortedIndicies.get(i + 1));
+
+            // create a list for the middle line
+            List<SumoPosition2D> separator = new ArrayList<>();
+            // find number of points
+            int numberOfPoints = Math.min(laneA.size(), laneB.size());
+
+            for (int j = 0; j < numberOfPoints; j++)
+            {
+                // find the middle point
+                double midX = (laneA.get(j).x + laneB.get(j).x) / 2.0;
+                double midY = (laneA.get(j).y + laneB.get(j).y) / 2.0;
+                // add to the list
+                separator.add(new SumoPosition2D(midX, midY));
+            }
+            // add the middle line into the dashed lines
+            dashed.add(separator);
+        }
+    }
+
+    /**
+     * generates the leftmost boundary line for a road edge.
+     * depending on the lane count and road type, it assigns the boundary as either
+     * a solid center line or a dashed outer marking.
+     * * @param laneMap the map of lanes for the current edge.
+     * @param sortedIndices the sorted indices of the lanes.
+     * @param alreadyDrawn a set used to track and prevent duplicate drawing of identical boundaries.
+     */
+    private static void createLeftBoundaryLine(Map<Integer, List<SumoPosition2D>> laneMap, List<Integer> sortedIndices,
+                                               Set<String> alreadyDrawn, List<List<SumoPosition2D>> dashed,
+                                               List<List<SumoPosition2D>> solid)
+    {
+        // get the index of the leftMostLane
+        int maxIndex = sortedIndices.getLast();
+        // get the leftMostLane
+        List<SumoPosition2D> leftMostLane = laneMap.get(maxIndex);
+        // calculate the road boundary
+        List<SumoPosition2D> roadBoundary = calculateLeftParallelLine(leftMostLane, BOUNDARY_OFFSET);
+
+        // draw solid lines if the road has more than 1 lane
+        if (sortedIndices.size() > 1)
+        {
+            solid.add(roadBoundary);
+        }
+        // draw dashed lines if the road has 1 lane
+        else if (!roadBoundary.isEmpty())
+        {
+            // create a unique key
+            int midIdx = roadBoundary.size() / 2;
+            SumoPosition2D mid = roadBoundary.get(midIdx);
+            String key = Math.round(mid.x) + "_" + Math.round(mid.y);
+            // add the key to the set
+            if (alreadyDrawn.add(key))
+            {
+                // if true, add the line to the dashed lines
+                dashed.add(roadBoundary);
+            }
+        }
+    }
+
+    /**
+     * calculates a new path that runs parallel to the provided coordinates at a specific offset.
+     * this is used to determine road boundaries or centerlines by calculating perpendicular
+     * vectors for each segment of the road.
+     * * @param points the original list of coordinates representing the lane center.
+     * @param offset the distance to shift the line (positive for left, negative for right).
+     * @return a list of coordinates representing the shifted parallel path.
+     */
+    private static List<SumoPosition2D> calculateLeftParallelLine(List<SumoPosition2D> points, double offset)
+    {
+        List<SumoPosition2D> leftParallelLine = new ArrayList<>();
+        if (points.size() < 2)
+        {
+            return leftParallelLine;
+        }
+
+        for (int i = 0; i < points.size(); i++)
+        {
+            // create variables to store the 90 degrees vector
+            double leftDirectionalX = 0, leftDirectionalY = 0;
+
+            if (i > 0)
+            {
+                // calculate dx, dy from the current point to the point before
+                double dx = points.get(i).x - points.get(i - 1).x;
+                double dy = points.get(i).y - points.get(i - 1).y;
+                // calculate the length of the segment between the 2 points using Pythargon
+                double len = Math.sqrt(dx * dx + dy * dy);
+
+                // to find the perpendicular vector, take (x, y) --> (-x, y)
+                leftDirectionalX -= normalizeVector(len, dy);
+                leftDirectionalY += normalizeVector(len, dx);
+            }
+
+            if (i < points.size() - 1)
+            {
+                // calculate the points from the next point to the current point
+                double dx = points.get(i + 1).x - points.get(i).x;
+                double dy = points.get(i + 1).y - points.get(i).y;
+                double len = Math.sqrt(dx * dx + dy * dy);
+
+                if (len > 0)
+                {
+                    leftDirectionalX -= normalizeVector(len, dy);
+                    leftDirectionalY += normalizeVector(len, dx);
+                }
+            }
+
+            // normalize the summed vector
+            double len = Math.sqrt(leftDirectionalX * leftDirectionalX + leftDirectionalY * leftDirectionalY);
+            if (len > 0)
+            {
+                leftDirectionalX /= len;
+                leftDirectionalY /= len;
+            }
+
+            // calculate the left parallel points
+            double newX = points.get(i).x + (leftDirectionalX * offset);
+            double newY = points.get(i).y + (leftDirectionalY * offset);
+            leftParallelLine.add(new SumoPosition2D(newX, newY));
+        }
+        return leftParallelLine;
+    }
+
+    // divides a vector component by the vector length, 0 for a zero-length vector
+    private static double normalizeVector(double length, double var)
+    {
+        return (length > 0) ? var / length : 0.0;
+    }
+}
@@ -0,0 +1,415 @@
+package wrapperSUMO;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Binary cache of a parsed network, stored next to the {@code .net.xml} as {@code <net>.cache}.
+ * <p>
+ * Holds everything that is derived from the net file at startup: the {@link NetworkModel}
+ * (lane polylines as packed doubles, edge/lane/junction ID dictionaries, connection and
+ * traffic light tables) and the generated {@link LaneMarkings}. On the next launch the file
+ * is mapped with {@link FileChannel#map} and the arrays are bulk-copied out of the mapping,
+ * which skips XML parsing and marking generation completely.
+ * </p>
+ * <p>
+ * Layout (big endian): magic, format version, size and CRC32C of the net file, a string
+ * dictionary, then each table as a length-prefixed primitive array. A cache whose version,
+ * size or content hash does not match the net file is ignored and rewritten. The header is
+ * checked with a plain read before anything is mapped, so a stale cache is never mapped and
+ * can always be replaced. The net file is hashed once per launch ({@link #describe(File)}) and
+ * the result is used for both the check and the rewrite.
+ * </p>
+ */
+public final class NetworkCache
+{
+    private static final Logger LOG = LogManager.getLogger(NetworkCache.class.getName());
+
+    private static final int MAGIC = 0x534E4331; // "SNC1"
+    // increase whenever the layout below changes
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".cache";
+    // CRC32C is computed over mappings of at most this size
+    private static final long HASH_CHUNK = 64L << 20;
+    // magic, version, source size, source hash
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    /**
+     * Size and content hash of a net file, the key a cache is valid for.
+     */
+    public static final class Source
+    {
+        final long size;
+        final long hash;
+
+        Source(long size, long hash)
+        {
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The cached content of one network.
+     */
+    public static final class Content
+    {
+        public final NetworkModel network;
+        public final LaneMarkings markings;
+
+        Content(NetworkModel network, LaneMarkings markings)
+        {
+            this.network = network;
+            this.markings = markings;
+        }
+    }
+
+    private NetworkCache()
+    {
+    }
+
+    // the cache file belonging to a net file
+    public static File cacheFileFor(File netFile)
+    {
+        return new File(netFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Hashes the current content of a net file.
+     *
+     * @param netFile The .net.xml.
+     * @return Its size and hash, or null if it cannot be read.
+     */
+    public static Source describe(File netFile)
+    {
+        if (!netFile.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            return new Source(netFile.length(), hash(netFile.toPath()));
+        }
+        catch (IOException e)
+        {
+            LOG.error("Failed to hash net file " + netFile + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Loads the cache of a net file.
+     *
+     * @param netFile The .net.xml the cache was written for.
+     * @param source  The current size and hash of the net file, from {@link #describe(File)}.
+     * @return The cached network, or null if there is no valid cache for the current file content.
+     */
+    public static Content load(File netFile, Source source)
+    {
+        File cacheFile = cacheFileFor(netFile);
+        if (!cacheFile.isFile())
+        {
+            return null;
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            // validate with a plain read: a mapping would keep the file locked on Windows until
+            // it is garbage collected, and write() could not replace the stale cache
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining())
+            {
+                if (channel.read(header) < 0) break;
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION)
+            {
+                LOG.info("Network cache " + cacheFile.getName() + " has an old format, rebuilding it");
+                return null;
+            }
+            if (header.getLong() != source.size || header.getLong() != source.hash)
+            {
+                LOG.info("Network cache " + cacheFile.getName() + " is outdated, rebuilding it");
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, channel.size() - HEADER_BYTES);
+            String[] strings = readStrings(buffer);
+            NetworkModel network = new NetworkModel(
+                    refs(buffer, strings), readBooleans(buffer), readInts(buffer), readInts(buffer),
+                    refs(buffer, strings), readInts(buffer), readDoubles(buffer), readDoubles(buffer),
+                    readInts(buffer), readDoubles(buffer), readDoubles(buffer),
+                    refs(buffer, strings), refs(buffer, strings), readDoubles(buffer), readDoubles(buffer),
+                    readInts(buffer), readInts(buffer), refs(buffer, strings), readInts(buffer), readChars(buffer),
+                    refs(buffer, strings), refs(buffer, strings), readInts(buffer), readDoubles(buffer), refs(buffer, strings),
+                    readDoubles(buffer));
+            LaneMarkings markings = new LaneMarkings(
+                    readInts(buffer), readDoubles(buffer), readDoubles(buffer),
+                    readInts(buffer), readDoubles(buffer), readDoubles(buffer));
+
+            LOG.info(String.format("Loaded network %s from cache in %.1f ms", netFile.getName(),
+                    (System.nanoTime() - start) / 1_000_000.0));
+            return new Content(network, markings);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to read network cache " + cacheFile + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Writes the cache of a net file. The file is written to a temporary file first and then
+     * moved into place, so a crash never leaves a half-written cache behind.
+     *
+     * @param netFile  The .net.xml the network was parsed from.
+     * @param source   The size and hash of the net file, from {@link #describe(File)}.
+     * @param network  The parsed network.
+     * @param markings The markings generated for it.
+     */
+    public static void write(File netFile, Source source, NetworkModel network, LaneMarkings markings)
+    {
+        File cacheFile = cacheFileFor(netFile);
+        Path temp = null;
+        try
+        {
+            temp = Files.createTempFile(cacheFile.getAbsoluteFile().getParentFile().toPath(), cacheFile.getName(), ".tmp");
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(source.size);
+                out.writeLong(source.hash);
+
+                // one dictionary for all IDs, the tables store indices into it
+                StringTable strings = new StringTable();
+                String[][] columns = {network.edgeIds, network.laneIds, network.junctionIds, network.junctionTypes,
+                        network.connectionTl, network.tlIds, network.tlProgramIds, network.phaseStates};
+                for (String[] column : columns)
+                {
+                    strings.addAll(column);
+                }
+                strings.writeTo(out);
+
+                strings.writeRefs(out, network.edgeIds);
+                writeBooleans(out, network.edgeInternal);
+                writeInts(out, network.edgeFirstLane);
+                writeInts(out, network.edgeLaneCount);
+                strings.writeRefs(out, network.laneIds);
+                writeInts(out, network.laneEdge);
+                writeDoubles(out, network.laneLengths);
+                writeDoubles(out, network.laneSpeeds);
+                writeInts(out, network.laneShapeStart);
+                writeDoubles(out, network.shapeX);
+                writeDoubles(out, network.shapeY);
+                strings.writeRefs(out, network.junctionIds);
+                strings.writeRefs(out, network.junctionTypes);
+                writeDoubles(out, network.junctionX);
+                writeDoubles(out, network.junctionY);
+                writeInts(out, network.connectionFromLane);
+                writeInts(out, network.connectionToLane);
+                strings.writeRefs(out, network.connectionTl);
+                writeInts(out, network.connectionLinkIndex);
+                writeChars(out, network.connectionDir);
+                strings.writeRefs(out, network.tlIds);
+                strings.writeRefs(out, network.tlProgramIds);
+                writeInts(out, network.tlPhaseStart);
+                writeDoubles(out, network.phaseDurations);
+                strings.writeRefs(out, network.phaseStates);
+                writeDoubles(out, network.boundary);
+
+                writeInts(out, markings.dashedStarts);
+                writeDoubles(out, markings.dashedX);
+                writeDoubles(out, markings.dashedY);
+                writeInts(out, markings.solidStarts);
+                writeDoubles(out, markings.solidX);
+                writeDoubles(out, markings.solidY);
+            }
+            Files.move(temp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Wrote network cache " + cacheFile.getName());
+        }
+        catch (Exception e)
+        {
+            // the cache is optional, the next launch just parses the XML again
+            LOG.error("Failed to write network cache " + cacheFile + ": " + e.getMessage());
+            if (temp != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(temp);
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    // CRC32C of the whole file, computed over read-only mappings
+    private static long hash(Path file) throws IOException
+    {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_CHUNK)
+            {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_CHUNK, size - position)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    // ------------------------------------------
+    // WRITING
+    // ------------------------------------------
+
+    /**
+     * Assigns every distinct string one index; null is stored as -1.
+     */
+    private static final class StringTable
+    {
+        final Map<String, Integer> indices = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+
+        void addAll(String[] column)
+        {
+            for (String value : column)
+            {
+                if (value != null && !indices.containsKey(value))
+                {
+                    indices.put(value, values.size());
+                    values.add(value);
+                }
+            }
+        }
+
+        void writeTo(DataOutputStream out) throws IOException
+        {
+            out.writeInt(values.size());
+            for (String value : values)
+            {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        void writeRefs(DataOutputStream out, String[] column) throws IOException
+        {
+            out.writeInt(column.length);
+            for (String value : column)
+            {
+                out.writeInt((value == null) ? -1 : indices.get(value));
+            }
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        for (int value : values) out.writeInt(value);
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        for (double value : values) out.writeDouble(value);
+    }
+
+    private static void writeBooleans(DataOutputStream out, boolean[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        for (boolean value : values) out.writeByte(value ? 1 : 0);
+    }
+
+    private static void writeChars(DataOutputStream out, char[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        for (char value : values) out.writeChar(value);
+    }
+
+    // ------------------------------------------
+    // READING
+    // ------------------------------------------
+
+    private static String[] readStrings(ByteBuffer buffer)
+    {
+        String[] strings = new String[buffer.getInt()];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < strings.length; i++)
+        {
+            int length = buffer.getInt();
+            if (length > bytes.length) bytes = new byte[length * 2];
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static String[] refs(ByteBuffer buffer, String[] strings)
+    {
+        String[] column = new String[buffer.getInt()];
+        for (int i = 0; i < column.length; i++)
+        {
+            int index = buffer.getInt();
+            column[i] = (index < 0) ? null : strings[index];
+        }
+        return column;
+    }
+
+    // the primitive arrays are copied out of the mapping in bulk, not value by value
+    private static int[] readInts(ByteBuffer buffer)
+    {
+        int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer)
+    {
+        double[] values = new double[buffer.getInt()];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+        return values;
+    }
+
+    private static char[] readChars(ByteBuffer buffer)
+    {
+        char[] values = new char[buffer.getInt()];
+        buffer.asCharBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Character.BYTES);
+        return values;
+    }
+
+    private static boolean[] readBooleans(ByteBuffer buffer)
+    {
+        boolean[] values = new boolean[buffer.getInt()];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = buffer.get() != 0;
+        }
+        return values;
+    }
+}
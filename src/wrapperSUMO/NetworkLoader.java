@@ -0,0 +1,395 @@
+package wrapperSUMO;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads a SUMO {@code .net.xml} into a {@link NetworkModel} with a single streaming pass.
+ * <p>
+ * The file is parsed with StAX, so memory stays proportional to the extracted data and not to
+ * the size of the XML document. Edges, lanes (shape, length, speed), junctions, connections,
+ * traffic light programs and the network boundary are collected into growable primitive arrays
+ * and handed to the model without any TraCI request.
+ * </p>
+ */
+public final class NetworkLoader
+{
+    private static final Logger LOG = LogManager.getLogger(NetworkLoader.class.getName());
+
+    private NetworkLoader()
+    {
+    }
+
+    /**
+     * Finds the network file referenced by a {@code .sumocfg} ({@code <net-file value="..."/>}).
+     *
+     * @param sumoConfigPath The path of the SUMO configuration.
+     * @return The net file, resolved relative to the configuration, or null if none is referenced.
+     */
+    public static File resolveNetFile(String sumoConfigPath)
+    {
+        File config = new File(sumoConfigPath);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(config)))
+        {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            try
+            {
+                while (reader.hasNext())
+                {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "net-file".equals(reader.getLocalName()))
+                    {
+                        String value = reader.getAttributeValue(null, "value");
+                        if (value == null || value.isEmpty()) return null;
+                        // the value may list several files, SUMO only takes one net file
+                        File net = new File(value.split(",")[0].trim());
+                        return net.isAbsolute() ? net : new File(config.getAbsoluteFile().getParentFile(), net.getPath());
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to read the net file from " + sumoConfigPath);
+        }
+        return null;
+    }
+
+    /**
+     * Parses a network file.
+     *
+     * @param netFile The {@code .net.xml} to read.
+     * @return The model, or null if the file could not be read.
+     */
+    public static NetworkModel load(File netFile)
+    {
+        long start = System.nanoTime();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(netFile), 1 << 16))
+        {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            // net files have no external entities, do not resolve any
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            NetworkModel model;
+            try
+            {
+                model = new Parser().parse(reader);
+            }
+            finally
+            {
+                reader.close();
+            }
+            LOG.info(String.format("Loaded network %s: %d edges, %d lanes, %d connections in %.1f ms",
+                    netFile.getName(), model.getEdgeCount(), model.getLaneCount(), model.getConnectionCount(),
+                    (System.nanoTime() - start) / 1_000_000.0));
+            return model;
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to load network " + netFile + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Collects the elements of one file. Connections are resolved to lane indices at the end,
+     * because they may reference edges that appear later in the file.
+     */
+    private static final class Parser
+    {
+        // edges
+        final List<String> edgeIds = new ArrayList<>();
+        final BooleanArray edgeInternal = new BooleanArray();
+        final IntArray edgeFirstLane = new IntArray();
+        final IntArray edgeLaneCount = new IntArray();
+
+        // lanes
+        final List<String> laneIds = new ArrayList<>();
+        final IntArray laneEdge = new IntArray();
+        final DoubleArray laneLengths = new DoubleArray();
+        final DoubleArray laneSpeeds = new DoubleArray();
+        final IntArray laneShapeStart = new IntArray();
+        final DoubleArray shapeX = new DoubleArray();
+        final DoubleArray shapeY = new DoubleArray();
+
+        // junctions
+        final List<String> junctionIds = new ArrayList<>();
+        final List<String> junctionTypes = new ArrayList<>();
+        final DoubleArray junctionX = new DoubleArray();
+        final DoubleArray junctionY = new DoubleArray();
+
+        // connections, referenced by edge ID + lane number until resolve()
+        final List<String> connectionFromEdge = new ArrayList<>();
+        final List<String> connectionToEdge = new ArrayList<>();
+        final IntArray connectionFromLaneNumber = new IntArray();
+        final IntArray connectionToLaneNumber = new IntArray();
+        final List<String> connectionTl = new ArrayList<>();
+        final IntArray connectionLinkIndex = new IntArray();
+        final CharArray connectionDir = new CharArray();
+
+        // traffic light programs
+        final List<String> tlIds = new ArrayList<>();
+        final List<String> tlProgramIds = new ArrayList<>();
+        final IntArray tlPhaseStart = new IntArray();
+        final DoubleArray phaseDurations = new DoubleArray();
+        final List<String> phaseStates = new ArrayList<>();
+
+        final double[] boundary = new double[4];
+        // the same traffic light / edge IDs repeat in every connection, keep one instance each
+        final Map<String, String> strings = new HashMap<>();
+        int currentEdge = -1;
+
+        NetworkModel parse(XMLStreamReader reader) throws Exception
+        {
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    startElement(reader);
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT && "edge".equals(reader.getLocalName()))
+                {
+                    currentEdge = -1;
+                }
+            }
+            return build();
+        }
+
+        private void startElement(XMLStreamReader reader)
+        {
+            switch (reader.getLocalName())
+            {
+                case "location":
+                    String conv = reader.getAttributeValue(null, "convBoundary");
+                    if (conv != null)
+                    {
+                        String[] parts = conv.split(",");
+                        for (int i = 0; i < 4 && i < parts.length; i++)
+                        {
+                            boundary[i] = Double.parseDouble(parts[i]);
+                        }
+                    }
+                    break;
+                case "edge":
+                    currentEdge = edgeIds.size();
+                    edgeIds.add(intern(reader.getAttributeValue(null, "id")));
+                    edgeInternal.add("internal".equals(reader.getAttributeValue(null, "function")));
+                    edgeFirstLane.add(laneIds.size());
+                    edgeLaneCount.add(0);
+                    break;
+                case "lane":
+                    if (currentEdge < 0) break;
+                    laneIds.add(reader.getAttributeValue(null, "id"));
+                    laneEdge.add(currentEdge);
+                    laneLengths.add(parseDouble(reader.getAttributeValue(null, "length"), 0.0));
+                    laneSpeeds.add(parseDouble(reader.getAttributeValue(null, "speed"), 0.0));
+                    laneShapeStart.add(shapeX.size());
+                    parseShape(reader.getAttributeValue(null, "shape"));
+                    edgeLaneCount.set(currentEdge, edgeLaneCount.get(currentEdge) + 1);
+                    break;
+                case "junction":
+                    junctionIds.add(reader.getAttributeValue(null, "id"));
+                    junctionTypes.add(intern(reader.getAttributeValue(null, "type")));
+                    junctionX.add(parseDouble(reader.getAttributeValue(null, "x"), 0.0));
+                    junctionY.add(parseDouble(reader.getAttributeValue(null, "y"), 0.0));
+                    break;
+                case "connection":
+                    connectionFromEdge.add(intern(reader.getAttributeValue(null, "from")));
+                    connectionToEdge.add(intern(reader.getAttributeValue(null, "to")));
+                    connectionFromLaneNumber.add(parseInt(reader.getAttributeValue(null, "fromLane"), -1));
+                    connectionToLaneNumber.add(parseInt(reader.getAttributeValue(null, "toLane"), -1));
+                    String tl = reader.getAttributeValue(null, "tl");
+                    connectionTl.add((tl == null || tl.isEmpty()) ? null : intern(tl));
+                    connectionLinkIndex.add((tl == null) ? -1 : parseInt(reader.getAttributeValue(null, "linkIndex"), -1));
+                    String dir = reader.getAttributeValue(null, "dir");
+                    connectionDir.add((dir == null || dir.isEmpty()) ? '?' : dir.charAt(0));
+                    break;
+                case "tlLogic":
+                    tlIds.add(intern(reader.getAttributeValue(null, "id")));
+                    tlProgramIds.add(reader.getAttributeValue(null, "programID"));
+                    tlPhaseStart.add(phaseDurations.size());
+                    break;
+                case "phase":
+                    if (tlIds.isEmpty()) break;
+                    phaseDurations.add(parseDouble(reader.getAttributeValue(null, "duration"), 0.0));
+                    phaseStates.add(reader.getAttributeValue(null, "state"));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // "x1,y1 x2,y2 ..." without splitting into intermediate string arrays
+        private void parseShape(String shape)
+        {
+            if (shape == null) return;
+            int length = shape.length();
+            int pos = 0;
+            while (pos < length)
+            {
+                int comma = shape.indexOf(',', pos);
+                if (comma < 0) break;
+                int space = shape.indexOf(' ', comma);
+                if (space < 0) space = length;
+                shapeX.add(Double.parseDouble(shape.substring(pos, comma)));
+                // a third component (z) may follow after another comma
+                int secondComma = shape.indexOf(',', comma + 1);
+                int yEnd = (secondComma >= 0 && secondComma < space) ? secondComma : space;
+                shapeY.add(Double.parseDouble(shape.substring(comma + 1, yEnd)));
+                pos = space + 1;
+            }
+        }
+
+        private String intern(String value)
+        {
+            if (value == null) return null;
+            String existing = strings.putIfAbsent(value, value);
+            return (existing != null) ? existing : value;
+        }
+
+        private NetworkModel build()
+        {
+            // sentinel so the last lane/program also has an end offset
+            laneShapeStart.add(shapeX.size());
+            tlPhaseStart.add(phaseDurations.size());
+
+            Map<String, Integer> edgeIndex = new HashMap<>(edgeIds.size() * 2);
+            for (int i = 0; i < edgeIds.size(); i++)
+            {
+                edgeIndex.put(edgeIds.get(i), i);
+            }
+            int connections = connectionFromEdge.size();
+            int[] fromLanes = new int[connections];
+            int[] toLanes = new int[connections];
+            for (int c = 0; c < connections; c++)
+            {
+                fromLanes[c] = resolveLane(edgeIndex, connectionFromEdge.get(c), connectionFromLaneNumber.get(c));
+                toLanes[c] = resolveLane(edgeIndex, connectionToEdge.get(c), connectionToLaneNumber.get(c));
+            }
+
+            return new NetworkModel(
+                    edgeIds.toArray(new String[0]), edgeInternal.toArray(), edgeFirstLane.toArray(), edgeLaneCount.toArray(),
+                    laneIds.toArray(new String[0]), laneEdge.toArray(), laneLengths.toArray(), laneSpeeds.toArray(),
+                    laneShapeStart.toArray(), shapeX.toArray(), shapeY.toArray(),
+                    junctionIds.toArray(new String[0]), junctionTypes.toArray(new String[0]), junctionX.toArray(), junctionY.toArray(),
+                    fromLanes, toLanes, connectionTl.toArray(new String[0]), connectionLinkIndex.toArray(), connectionDir.toArray(),
+                    tlIds.toArray(new String[0]), tlProgramIds.toArray(new String[0]), tlPhaseStart.toArray(),
+                    phaseDurations.toArray(), phaseStates.toArray(new String[0]),
+                    boundary.clone());
+        }
+
+        private int resolveLane(Map<String, Integer> edgeIndex, String edgeId, int laneNumber)
+        {
+            Integer edge = edgeIndex.get(edgeId);
+            if (edge == null || laneNumber < 0 || laneNumber >= edgeLaneCount.get(edge)) return -1;
+            return edgeFirstLane.get(edge) + laneNumber;
+        }
+    }
+
+    private static double parseDouble(String value, double fallback)
+    {
+        if (value == null || value.isEmpty()) return fallback;
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return fallback;
+        }
+    }
+
+    private static int parseInt(String value, int fallback)
+    {
+        if (value == null || value.isEmpty()) return fallback;
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return fallback;
+        }
+    }
+
+    // ------------------------------------------
+    // GROWABLE PRIMITIVE ARRAYS
+    // ------------------------------------------
+
+    private static final class DoubleArray
+    {
+        double[] values = new double[256];
+        int size = 0;
+
+        void add(double value)
+        {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int size() { return size; }
+        double[] toArray() { return Arrays.copyOf(values, size); }
+    }
+
+    private static final class IntArray
+    {
+        int[] values = new int[256];
+        int size = 0;
+
+        void add(int value)
+        {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int index) { return values[index]; }
+        void set(int index, int value) { values[index] = value; }
+        int[] toArray() { return Arrays.copyOf(values, size); }
+    }
+
+    private static final class BooleanArray
+    {
+        boolean[] values = new boolean[256];
+        int size = 0;
+
+        void add(boolean value)
+        {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        boolean[] toArray() { return Arrays.copyOf(values, size); }
+    }
+
+    private static final class CharArray
+    {
+        char[] values = new char[256];
+        int size = 0;
+
+        void add(char value)
+        {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        char[] toArray() { return Arrays.copyOf(values, size); }
+    }
+}
@@ -0,0 +1,276 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.objects.SumoPosition2D;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The static road network of a SUMO {@code .net.xml}, stored in compact primitive arrays.
+ * <p>
+ * Built by {@link NetworkLoader} straight from the file, so the renderers and the traffic
+ * light code can read lane shapes, junctions, connections and signal programs without a
+ * single TraCI request. Every element is addressed by a dense index; the lookup methods
+ * translate SUMO IDs to those indices.
+ * </p>
+ * <p>
+ * Lane shapes are stored back to back in {@code shapeX}/{@code shapeY}: the points of lane
+ * {@code i} are {@code getLaneShapeStart(i)} (inclusive) to {@code getLaneShapeEnd(i)} (exclusive).
+ * </p>
+ * <p>
+ * Outside this package instances are read-only. The arrays themselves are package-private so
+ * {@link NetworkCache} and {@link LaneGeometryStore} can share them without copying; code in
+ * {@code wrapperSUMO} must never write to them.
+ * </p>
+ */
+public final class NetworkModel
+{
+    // package-private and shared without copying, never modified after construction
+    // edges
+    final String[] edgeIds;
+    final boolean[] edgeInternal;
+    final int[] edgeFirstLane;
+    final int[] edgeLaneCount;
+
+    // lanes
+    final String[] laneIds;
+    final int[] laneEdge;
+    final double[] laneLengths;
+    final double[] laneSpeeds;
+    final int[] laneShapeStart;
+    final double[] shapeX;
+    final double[] shapeY;
+
+    // junctions
+    final String[] junctionIds;
+    final String[] junctionTypes;
+    final double[] junctionX;
+    final double[] junctionY;
+
+    // connections, lanes are global lane indices (-1 if unknown)
+    final int[] connectionFromLane;
+    final int[] connectionToLane;
+    final String[] connectionTl;
+    final int[] connectionLinkIndex;
+    final char[] connectionDir;
+
+    // traffic light programs, phases of program i are tlPhaseStart[i] .. tlPhaseStart[i + 1]
+    final String[] tlIds;
+    final String[] tlProgramIds;
+    final int[] tlPhaseStart;
+    final double[] phaseDurations;
+    final String[] phaseStates;
+
+    // convBoundary of the network: minX, minY, maxX, maxY
+    final double[] boundary;
+
+    private final Map<String, Integer> edgeIndex;
+    private final Map<String, Integer> laneIndex;
+
+    NetworkModel(String[] edgeIds, boolean[] edgeInternal, int[] edgeFirstLane, int[] edgeLaneCount,
+                 String[] laneIds, int[] laneEdge, double[] laneLengths, double[] laneSpeeds,
+                 int[] laneShapeStart, double[] shapeX, double[] shapeY,
+                 String[] junctionIds, String[] junctionTypes, double[] junctionX, double[] junctionY,
+                 int[] connectionFromLane, int[] connectionToLane, String[] connectionTl,
+                 int[] connectionLinkIndex, char[] connectionDir,
+                 String[] tlIds, String[] tlProgramIds, int[] tlPhaseStart, double[] phaseDurations, String[] phaseStates,
+                 double[] boundary)
+    {
+        this.edgeIds = edgeIds;
+        this.edgeInternal = edgeInternal;
+        this.edgeFirstLane = edgeFirstLane;
+        this.edgeLaneCount = edgeLaneCount;
+        this.laneIds = laneIds;
+        this.laneEdge = laneEdge;
+        this.laneLengths = laneLengths;
+        this.laneSpeeds = laneSpeeds;
+        this.laneShapeStart = laneShapeStart;
+        this.shapeX = shapeX;
+        this.shapeY = shapeY;
+        this.junctionIds = junctionIds;
+        this.junctionTypes = junctionTypes;
+        this.junctionX = junctionX;
+        this.junctionY = junctionY;
+        this.connectionFromLane = connectionFromLane;
+        this.connectionToLane = connectionToLane;
+        this.connectionTl = connectionTl;
+        this.connectionLinkIndex = connectionLinkIndex;
+        this.connectionDir = connectionDir;
+        this.tlIds = tlIds;
+        this.tlProgramIds = tlProgramIds;
+        this.tlPhaseStart = tlPhaseStart;
+        this.phaseDurations = phaseDurations;
+        this.phaseStates = phaseStates;
+        this.boundary = boundary;
+
+        edgeIndex = indexOf(edgeIds);
+        laneIndex = indexOf(laneIds);
+    }
+
+    private static Map<String, Integer> indexOf(String[] ids)
+    {
+        Map<String, Integer> index = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++)
+        {
+            index.put(ids[i], i);
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    // ------------------------------------------
+    // EDGES
+    // ------------------------------------------
+
+    public int getEdgeCount() { return edgeIds.length; }
+    public String getEdgeId(int edge) { return edgeIds[edge]; }
+    // internal edges are the ones inside junctions (IDs starting with ':')
+    public boolean isEdgeInternal(int edge) { return edgeInternal[edge]; }
+    public int getEdgeFirstLane(int edge) { return edgeFirstLane[edge]; }
+    public int getEdgeLaneCount(int edge) { return edgeLaneCount[edge]; }
+
+    // index of an edge, -1 if the network has no such edge
+    public int findEdge(String edgeId)
+    {
+        Integer index = edgeIndex.get(edgeId);
+        return (index != null) ? index : -1;
+    }
+
+    // ------------------------------------------
+    // LANES
+    // ------------------------------------------
+
+    public int getLaneCount() { return laneIds.length; }
+    public String getLaneId(int lane) { return laneIds[lane]; }
+    public int getLaneEdge(int lane) { return laneEdge[lane]; }
+    public double getLaneLength(int lane) { return laneLengths[lane]; }
+    // speed limit in m/s
+    public double getLaneSpeed(int lane) { return laneSpeeds[lane]; }
+    public int getLaneShapeStart(int lane) { return laneShapeStart[lane]; }
+    public int getLaneShapeEnd(int lane) { return laneShapeStart[lane + 1]; }
+    public double getShapeX(int point) { return shapeX[point]; }
+    public double getShapeY(int point) { return shapeY[point]; }
+    // total number of shape points of all lanes
+    public int getShapePointCount() { return shapeX.length; }
+
+    // index of a lane, -1 if the network has no such lane
+    public int findLane(String laneId)
+    {
+        Integer index = laneIndex.get(laneId);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Gets the shape of one lane as TraaS positions.
+     *
+     * @param lane The lane index.
+     * @return A new list with the shape points.
+     */
+    public List<SumoPosition2D> getLaneShape(int lane)
+    {
+        int start = laneShapeStart[lane];
+        int end = laneShapeStart[lane + 1];
+        List<SumoPosition2D> points = new ArrayList<>(end - start);
+        for (int p = start; p < end; p++)
+        {
+            points.add(new SumoPosition2D(shapeX[p], shapeY[p]));
+        }
+        return points;
+    }
+
+    /**
+     * Converts the lane shapes to the map format the renderers use, keyed by lane ID.
+     * Contains the same lanes as {@code Lane.getIDList()}, internal lanes included.
+     *
+     * @return A new map from lane ID to its shape points.
+     */
+    public Map<String, List<SumoPosition2D>> toShapeMap()
+    {
+        Map<String, List<SumoPosition2D>> shapes = new LinkedHashMap<>(laneIds.length * 2);
+        for (int lane = 0; lane < laneIds.length; lane++)
+        {
+            shapes.put(laneIds[lane], getLaneShape(lane));
+        }
+        return shapes;
+    }
+
+    // ------------------------------------------
+    // JUNCTIONS
+    // ------------------------------------------
+
+    public int getJunctionCount() { return junctionIds.length; }
+    public String getJunctionId(int junction) { return junctionIds[junction]; }
+    public String getJunctionType(int junction) { return junctionTypes[junction]; }
+    public double getJunctionX(int junction) { return junctionX[junction]; }
+    public double getJunctionY(int junction) { return junctionY[junction]; }
+
+    // ------------------------------------------
+    // CONNECTIONS
+    // ------------------------------------------
+
+    public int getConnectionCount() { return connectionFromLane.length; }
+    public int getConnectionFromLane(int connection) { return connectionFromLane[connection]; }
+    public int getConnectionToLane(int connection) { return connectionToLane[connection]; }
+    // ID of the controlling traffic light, null for unsignalized connections
+    public String getConnectionTl(int connection) { return connectionTl[connection]; }
+    // index in the state string of the controlling traffic light, -1 if unsignalized
+    public int getConnectionLinkIndex(int connection) { return connectionLinkIndex[connection]; }
+    // direction: 's', 't', 'l', 'r', 'L' (partially left), 'R' (partially right); '?' if missing
+    public char getConnectionDir(int connection) { return connectionDir[connection]; }
+
+    /**
+     * Gets the edges a vehicle can continue on after an edge, the same as following
+     * {@code Lane.getLinks} of all its lanes.
+     *
+     * @param edge The edge index.
+     * @return The IDs of the non-internal edges reached by a connection, without duplicates.
+     */
+    public List<String> getNextEdges(int edge)
+    {
+        List<String> next = new ArrayList<>();
+        for (int c = 0; c < connectionFromLane.length; c++)
+        {
+            int from = connectionFromLane[c];
+            int to = connectionToLane[c];
+            if (from < 0 || to < 0 || laneEdge[from] != edge) continue;
+            int toEdge = laneEdge[to];
+            if (!edgeInternal[toEdge] && !next.contains(edgeIds[toEdge]))
+            {
+                next.add(edgeIds[toEdge]);
+            }
+        }
+        return next;
+    }
+
+    // ------------------------------------------
+    // TRAFFIC LIGHT PROGRAMS
+    // ------------------------------------------
+
+    public int getTrafficLightProgramCount() { return tlIds.length; }
+    public String getTrafficLightId(int program) { return tlIds[program]; }
+    public String getTrafficLightProgramId(int program) { return tlProgramIds[program]; }
+    public int getPhaseStart(int program) { return tlPhaseStart[program]; }
+    public int getPhaseEnd(int program) { return tlPhaseStart[program + 1]; }
+    public double getPhaseDuration(int phase) { return phaseDurations[phase]; }
+    public String getPhaseState(int phase) { return phaseStates[phase]; }
+
+    // ------------------------------------------
+    // BOUNDARY
+    // ------------------------------------------
+
+    /**
+     * Gets the network boundary in the same format as {@code Simulation.getNetBoundary()}.
+     *
+     * @return Two positions: lower-left and upper-right corner.
+     */
+    public List<SumoPosition2D> getBoundary()
+    {
+        List<SumoPosition2D> corners = new ArrayList<>(2);
+        corners.add(new SumoPosition2D(boundary[0], boundary[1]));
+        corners.add(new SumoPosition2D(boundary[2], boundary[3]));
+        return corners;
+    }
+}
@@ -0,0 +1,296 @@
+package wrapperSUMO;
+
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over line segments for fast hit-testing on the map.
+ * <p>
+ * Every segment is stored in all grid cells its bounding box overlaps, in one packed
+ * cell table ({@code cellStart}/{@code cellItems}, like a CSR matrix). A query only looks at
+ * the segments of the few cells around the query point, so hover and click tests cost
+ * microseconds regardless of the network size. The cell size is chosen so that a cell holds
+ * about one segment on average.
+ * </p>
+ * <p>
+ * Each segment remembers its owner (the lane handle of a {@link LaneGeometryStore}, or the
+ * index of a point) and its position within the owner's polyline. Points are stored as
+ * segments of length zero. Instances are immutable.
+ * </p>
+ */
+public final class SegmentIndex
+{
+    public static final SegmentIndex EMPTY = new SegmentIndex(new double[0], new double[0], new double[0], new double[0],
+            new int[0], new int[0]);
+
+    // segment endpoints
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+    private final int[] owners;
+    private final int[] ordinals;
+    // largest owner + 1
+    private final int ownerCount;
+
+    // grid
+    private final double originX;
+    private final double originY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    private SegmentIndex(double[] x1, double[] y1, double[] x2, double[] y2, int[] owners, int[] ordinals)
+    {
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.owners = owners;
+        this.ordinals = ordinals;
+
+        int count = owners.length;
+        int maxOwner = -1;
+        for (int owner : owners)
+        {
+            maxOwner = Math.max(maxOwner, owner);
+        }
+        ownerCount = maxOwner + 1;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int s = 0; s < count; s++)
+        {
+            minX = Math.min(minX, Math.min(x1[s], x2[s]));
+            minY = Math.min(minY, Math.min(y1[s], y2[s]));
+            maxX = Math.max(maxX, Math.max(x1[s], x2[s]));
+            maxY = Math.max(maxY, Math.max(y1[s], y2[s]));
+        }
+        if (count == 0)
+        {
+            minX = minY = maxX = maxY = 0;
+        }
+        double width = Math.max(maxX - minX, 1.0);
+        double height = Math.max(maxY - minY, 1.0);
+        // about one segment per cell
+        double size = Math.max(Math.sqrt(width * height / Math.max(1, count)), 1.0);
+
+        originX = minX;
+        originY = minY;
+        cellSize = size;
+        columns = (int) (width / size) + 1;
+        rows = (int) (height / size) + 1;
+
+        // first pass counts the segments per cell, the second one fills them in
+        int[] starts = new int[columns * rows + 1];
+        for (int s = 0; s < count; s++)
+        {
+            int c0 = column(Math.min(x1[s], x2[s])), c1 = column(Math.max(x1[s], x2[s]));
+            int r0 = row(Math.min(y1[s], y2[s])), r1 = row(Math.max(y1[s], y2[s]));
+            for (int r = r0; r <= r1; r++)
+            {
+                for (int c = c0; c <= c1; c++)
+                {
+                    starts[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++)
+        {
+            starts[cell + 1] += starts[cell];
+        }
+        int[] items = new int[starts[columns * rows]];
+        int[] fill = Arrays.copyOf(starts, columns * rows);
+        for (int s = 0; s < count; s++)
+        {
+            int c0 = column(Math.min(x1[s], x2[s])), c1 = column(Math.max(x1[s], x2[s]));
+            int r0 = row(Math.min(y1[s], y2[s])), r1 = row(Math.max(y1[s], y2[s]));
+            for (int r = r0; r <= r1; r++)
+            {
+                for (int c = c0; c <= c1; c++)
+                {
+                    items[fill[r * columns + c]++] = s;
+                }
+            }
+        }
+        cellStart = starts;
+        cellItems = items;
+    }
+
+    /**
+     * Reusable result of {@link #queryOwners}: the distinct owners found, in ascending order.
+     * Not thread-safe; keep one per caller.
+     */
+    public static final class OwnerQuery
+    {
+        private int[] owners = new int[64];
+        private int count;
+        // marks[owner] == stamp if the owner was already added by the running query
+        private int[] marks = new int[0];
+        private int stamp;
+
+        public int size() { return count; }
+        public int get(int i) { return owners[i]; }
+
+        private void add(int owner)
+        {
+            if (count == owners.length)
+            {
+                owners = Arrays.copyOf(owners, count * 2);
+            }
+            owners[count++] = owner;
+        }
+    }
+
+    /**
+     * Indexes every segment of every lane of a geometry store.
+     *
+     * @param geometry The lane polylines.
+     * @return The index; owners are lane handles, ordinals the segment number within the lane.
+     */
+    public static SegmentIndex fromLanes(LaneGeometryStore geometry)
+    {
+        int count = 0;
+        for (int lane = 0; lane < geometry.getLaneCount(); lane++)
+        {
+            count += Math.max(0, geometry.getPointCount(lane) - 1);
+        }
+        double[] x1 = new double[count], y1 = new double[count], x2 = new double[count], y2 = new double[count];
+        int[] owners = new int[count], ordinals = new int[count];
+        int s = 0;
+        for (int lane = 0; lane < geometry.getLaneCount(); lane++)
+        {
+            int start = geometry.getStart(lane);
+            for (int p = start; p < geometry.getEnd(lane) - 1; p++)
+            {
+                x1[s] = geometry.getX(p);
+                y1[s] = geometry.getY(p);
+                x2[s] = geometry.getX(p + 1);
+                y2[s] = geometry.getY(p + 1);
+                owners[s] = lane;
+                ordinals[s] = p - start;
+                s++;
+            }
+        }
+        return new SegmentIndex(x1, y1, x2, y2, owners, ordinals);
+    }
+
+    /**
+     * Indexes single points, e.g. traffic light positions.
+     *
+     * @param xs The x coordinates.
+     * @param ys The y coordinates.
+     * @return The index; owners are the indices into the given arrays.
+     */
+    public static SegmentIndex fromPoints(double[] xs, double[] ys)
+    {
+        int[] owners = new int[xs.length];
+        for (int i = 0; i < owners.length; i++)
+        {
+            owners[i] = i;
+        }
+        return new SegmentIndex(xs.clone(), ys.clone(), xs.clone(), ys.clone(), owners, new int[xs.length]);
+    }
+
+    private int column(double x)
+    {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - originX) / cellSize)));
+    }
+
+    private int row(double y)
+    {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - originY) / cellSize)));
+    }
+
+    public int size() { return owners.length; }
+    // lane handle or point index of a segment
+    public int getOwner(int segment) { return owners[segment]; }
+    // position of a segment within its lane, 0 for the first one
+    public int getOrdinal(int segment) { return ordinals[segment]; }
+
+    /**
+     * Collects the owners with at least one segment whose bounding box overlaps a rectangle,
+     * e.g. the lanes inside the visible part of the map.
+     *
+     * @param minX  The left edge of the rectangle in world units.
+     * @param minY  The bottom edge.
+     * @param maxX  The right edge.
+     * @param maxY  The top edge.
+     * @param query Receives the owners, sorted ascending so the draw order stays stable.
+     */
+    public void queryOwners(double minX, double minY, double maxX, double maxY, OwnerQuery query)
+    {
+        query.count = 0;
+        if (owners.length == 0 || minX > maxX || minY > maxY) return;
+
+        if (query.marks.length < ownerCount)
+        {
+            query.marks = new int[ownerCount];
+            query.stamp = 0;
+        }
+        if (++query.stamp == 0)
+        {
+            // the stamp wrapped around, old marks could collide with it
+            Arrays.fill(query.marks, 0);
+            query.stamp = 1;
+        }
+
+        int c0 = column(minX), c1 = column(maxX);
+        int r0 = row(minY), r1 = row(maxY);
+        for (int r = r0; r <= r1; r++)
+        {
+            for (int c = c0; c <= c1; c++)
+            {
+                int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+                {
+                    int s = cellItems[i];
+                    int owner = owners[s];
+                    if (query.marks[owner] == query.stamp) continue;
+                    if (Math.max(x1[s], x2[s]) < minX || Math.min(x1[s], x2[s]) > maxX
+                            || Math.max(y1[s], y2[s]) < minY || Math.min(y1[s], y2[s]) > maxY) continue;
+                    query.marks[owner] = query.stamp;
+                    query.add(owner);
+                }
+            }
+        }
+        Arrays.sort(query.owners, 0, query.count);
+    }
+
+    /**
+     * Finds the segment closest to a point.
+     *
+     * @param x      The x coordinate in world units.
+     * @param y      The y coordinate in world units.
+     * @param radius Only segments closer than this are considered.
+     * @return The closest segment, or -1 if none is closer than the radius.
+     */
+    public int findNearest(double x, double y, double radius)
+    {
+        if (owners.length == 0) return -1;
+
+        int c0 = column(x - radius), c1 = column(x + radius);
+        int r0 = row(y - radius), r1 = row(y + radius);
+        double best = radius;
+        int bestSegment = -1;
+        for (int r = r0; r <= r1; r++)
+        {
+            for (int c = c0; c <= c1; c++)
+            {
+                int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+                {
+                    int s = cellItems[i];
+                    double dist = Line2D.ptSegDist(x1[s], y1[s], x2[s], y2[s], x, y);
+                    if (dist < best)
+                    {
+                        best = dist;
+                        bestSegment = s;
+                    }
+                }
+            }
+        }
+        return bestSegment;
+    }
+}
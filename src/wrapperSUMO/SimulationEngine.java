@@ -0,0 +1,254 @@
+package wrapperSUMO;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Drives the SUMO simulation on a dedicated worker thread.
+ * <p>
+ * The engine steps the {@link ControlPanel} at a configurable target rate, runs the
+ * registered per-step tasks (e.g. traffic light optimization) and publishes the result
+ * as an immutable {@link SimulationFrame} through an {@link AtomicReference}. The JavaFX
+ * thread only reads the latest frame and draws it, so TraCI round trips never stall
+ * rendering or input.
+ * </p>
+ * <p>
+ * User actions that change the simulation (spawning vehicles, traffic light overrides,
+ * speed limits, ...) are submitted as commands and executed by the engine thread between
+ * two steps, in the order they were submitted.
+ * </p>
+ */
+public class SimulationEngine
+{
+    private static final Logger LOG = LogManager.getLogger(SimulationEngine.class.getName());
+
+    // how long the worker waits before checking for commands again while paused
+    private static final long IDLE_WAIT_NANOS = 10_000_000; // 10ms
+
+    private final ControlPanel panel;
+    private final AtomicReference<SimulationFrame> latestFrame = new AtomicReference<>(SimulationFrame.EMPTY);
+    private final Queue<Consumer<ControlPanel>> commands = new ConcurrentLinkedQueue<>();
+    private final List<Consumer<ControlPanel>> stepTasks = new CopyOnWriteArrayList<>();
+
+    private volatile long stepIntervalNanos = 100_000_000; // Default 100ms
+    private volatile boolean paused = true;
+    private volatile boolean running = false;
+    private Thread worker;
+
+    // only touched by the worker thread
+    private long stepNumber = 0;
+    private int edgeCount = 0;
+    private int trafficLightCount = 0;
+
+    // Constructor
+    public SimulationEngine(ControlPanel panel)
+    {
+        this.panel = panel;
+    }
+
+    /**
+     * Starts the worker thread. The engine starts paused; call {@link #resume()} to begin stepping.
+     */
+    public void start()
+    {
+        if (running)
+        {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "simulation-engine");
+        // do not keep the application alive once the window is closed
+        worker.setDaemon(true);
+        worker.start();
+        LOG.info("Simulation engine started");
+    }
+
+    /**
+     * Stops the worker thread and waits until it has finished its current step or command.
+     * <p>
+     * There is no timeout: the caller may touch the connection right afterwards (e.g. a
+     * restart), which is only safe once the worker is gone, however long a bulk injection
+     * or step takes.
+     * </p>
+     */
+    public void shutdown()
+    {
+        running = false;
+        if (worker == null)
+        {
+            return;
+        }
+        worker.interrupt();
+        boolean interrupted = false;
+        while (worker.isAlive())
+        {
+            try
+            {
+                worker.join();
+            }
+            catch (InterruptedException e)
+            {
+                // keep waiting, but restore the flag for the caller afterwards
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+        LOG.info("Simulation engine stopped");
+    }
+
+    // stop stepping, but keep executing submitted commands
+    public void pause()
+    {
+        paused = true;
+    }
+
+    // continue stepping at the target rate
+    public void resume()
+    {
+        paused = false;
+    }
+
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    /**
+     * Sets the target time between two simulation steps.
+     *
+     * @param delayMillis The delay in milliseconds; 0 steps as fast as SUMO allows.
+     */
+    public void setStepDelay(double delayMillis)
+    {
+        stepIntervalNanos = (long) (Math.max(0.0, delayMillis) * 1_000_000);
+    }
+
+    /**
+     * Queues a command that is executed on the engine thread before the next step.
+     *
+     * @param command The action to run against the control panel.
+     */
+    public void submit(Consumer<ControlPanel> command)
+    {
+        commands.add(command);
+    }
+
+    /**
+     * Registers a task that runs on the engine thread after every simulation step,
+     * before the frame of that step is published.
+     *
+     * @param task The action to run against the control panel.
+     */
+    public void addStepTask(Consumer<ControlPanel> task)
+    {
+        stepTasks.add(task);
+    }
+
+    /**
+     * Returns the most recently published frame. Safe to call from any thread.
+     *
+     * @return The latest frame, or {@link SimulationFrame#EMPTY} before the first step.
+     */
+    public SimulationFrame getLatestFrame()
+    {
+        return latestFrame.get();
+    }
+
+    // main loop of the worker thread
+    private void run()
+    {
+        // the network does not change during a run, so count it only once
+        edgeCount = panel.getEdgeCount();
+        trafficLightCount = panel.getTrafficLightCount();
+
+        while (running)
+        {
+            long stepStart = System.nanoTime();
+            drainCommands();
+
+            if (paused || !panel.isRunning())
+            {
+                waitNanos(IDLE_WAIT_NANOS);
+                continue;
+            }
+
+            try
+            {
+                step();
+            }
+            catch (Exception e)
+            {
+                LOG.error("Failed to perform simulation step: " + e.getMessage());
+            }
+            // keep the target rate, independent of how long the step itself took
+            waitNanos(stepIntervalNanos - (System.nanoTime() - stepStart));
+        }
+    }
+
+    // execute all queued user commands in submission order
+    private void drainCommands()
+    {
+        Consumer<ControlPanel> command;
+        while ((command = commands.poll()) != null)
+        {
+            try
+            {
+                command.accept(panel);
+            }
+            catch (Exception e)
+            {
+                LOG.error("Failed to execute simulation command: " + e.getMessage());
+            }
+        }
+    }
+
+    // advance SUMO by one step and publish the resulting frame
+    private void step()
+    {
+        panel.step();
+        for (Consumer<ControlPanel> task : stepTasks)
+        {
+            try
+            {
+                task.accept(panel);
+            }
+            catch (Exception e)
+            {
+                LOG.error("Failed to run step task: " + e.getMessage());
+            }
+        }
+        String hotspot = panel.getMostCongestedEdge();
+        latestFrame.set(new SimulationFrame(++stepNumber, panel.getVehicleFrame(), panel.getTrafficLightStateFrame(),
+                panel.getStepStatistics(), edgeCount, trafficLightCount, hotspot, System.nanoTime()));
+    }
+
+    private void waitNanos(long nanos)
+    {
+        if (nanos <= 0)
+        {
+            return;
+        }
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+        catch (InterruptedException e)
+        {
+            // shutdown() interrupts the worker, the loop condition handles the rest
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package wrapperSUMO;
+
+/**
+ * An immutable snapshot of everything the UI draws for one simulation step.
+ * <p>
+ * Frames are produced by the {@link SimulationEngine} thread and handed to the JavaFX
+ * thread, which only reads them. Because nothing inside a frame is ever modified after
+ * publication, the UI can keep drawing the latest frame while the engine builds the next one.
+ * </p>
+ */
+public final class SimulationFrame
+{
+    /**
+     * The frame shown before the first simulation step.
+     */
+    public static final SimulationFrame EMPTY = new SimulationFrame(0, VehicleFrame.EMPTY, TrafficLightStateFrame.EMPTY,
+            StepStatistics.EMPTY, 0, 0, "N/A", 0L);
+
+    // number of steps the engine performed, increases by one per published frame
+    public final long stepNumber;
+    public final VehicleFrame vehicles;
+    public final TrafficLightStateFrame trafficLights;
+    public final StepStatistics statistics;
+    public final int edgeCount;
+    public final int trafficLightCount;
+    public final String congestionHotspot;
+    // System.nanoTime() when the engine published the frame, the renderers interpolate from it
+    public final long publishedNanos;
+
+    public SimulationFrame(long stepNumber, VehicleFrame vehicles, TrafficLightStateFrame trafficLights,
+                           StepStatistics statistics, int edgeCount, int trafficLightCount, String congestionHotspot,
+                           long publishedNanos)
+    {
+        this.stepNumber = stepNumber;
+        this.vehicles = vehicles;
+        this.trafficLights = trafficLights;
+        this.statistics = statistics;
+        this.edgeCount = edgeCount;
+        this.trafficLightCount = trafficLightCount;
+        this.congestionHotspot = congestionHotspot;
+        this.publishedNanos = publishedNanos;
+    }
+
+    // simulation time (in seconds) of this frame
+    public double getTime()
+    {
+        return vehicles.getTime();
+    }
+}
@@ -44,4 +44,45 @@ public class SimulationWrapper
         }
         return new ArrayList<>();
     }
+
+    /**
+     * Writes the complete simulation state (vehicles, routes, traffic light phases, time) to a file.
+     *
+     * @param path The state file; ".xml" for plain XML, ".sbx" for SUMO's binary format.
+     * @return true if SUMO wrote the file.
+     */
+    public boolean saveState(String path)
+    {
+        try
+        {
+            connection.do_job_set(Simulation.saveState(path));
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to save the simulation state to " + path);
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the running simulation with a state written by {@link #saveState(String)}.
+     * The network is not loaded again; vehicles that are not in the state are removed.
+     *
+     * @param path The state file.
+     * @return true if SUMO loaded the state.
+     */
+    public boolean loadState(String path)
+    {
+        try
+        {
+            connection.do_job_set(Simulation.loadState(path));
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to load the simulation state from " + path);
+        }
+        return false;
+    }
 }
@@ -0,0 +1,118 @@
+package wrapperSUMO;
+
+/**
+ * Dashboard metrics of one simulation step, computed in a single pass over a {@link VehicleFrame}.
+ * <p>
+ * Mean speed, total CO2, the share of stopped vehicles and the waiting-time histogram
+ * are all accumulated in the same loop with primitive counters, so the cost of a
+ * dashboard update is one scan over the frame and no TraCI request.
+ * </p>
+ */
+public final class StepStatistics
+{
+    /**
+     * Upper bounds (exclusive, in seconds) of the waiting-time buckets: {@code <30s}, {@code 30-60s}, {@code >60s}.
+     */
+    private static final double[] WAITING_TIME_BOUNDS = {30.0, 60.0};
+
+    // a vehicle slower than this (m/s) counts as stopped
+    private static final double STOPPED_SPEED = 0.1;
+
+    public static final StepStatistics EMPTY = compute(VehicleFrame.EMPTY);
+
+    public final double time;
+    // vehicles in the simulation, like Vehicle.getIDCount (includes teleporting and just departed ones)
+    public final int vehicleCount;
+    // the remaining metrics cover the vehicles of the frame
+    // average speed of all vehicles in km/h
+    public final double meanSpeed;
+    // total CO2 emission in g/s
+    public final double totalCO2;
+    // percentage (0.0 to 100.0) of vehicles that are standing still
+    public final double stoppedPercentage;
+
+    private final int[] waitingTimeHistogram;
+
+    private StepStatistics(double time, int vehicleCount, double meanSpeed, double totalCO2,
+                           double stoppedPercentage, int[] waitingTimeHistogram)
+    {
+        this.time = time;
+        this.vehicleCount = vehicleCount;
+        this.meanSpeed = meanSpeed;
+        this.totalCO2 = totalCO2;
+        this.stoppedPercentage = stoppedPercentage;
+        this.waitingTimeHistogram = waitingTimeHistogram;
+    }
+
+    /**
+     * Computes all metrics with one loop over the given frame, counting only the vehicles in it.
+     *
+     * @param frame The vehicle snapshot of the step.
+     * @return The statistics of that step.
+     */
+    public static StepStatistics compute(VehicleFrame frame)
+    {
+        return compute(frame, frame.size());
+    }
+
+    /**
+     * Computes all metrics with one loop over the given frame.
+     *
+     * @param frame        The vehicle snapshot of the step.
+     * @param vehicleCount The number of vehicles in the simulation; the frame leaves out
+     *                     teleporting vehicles and those without a position yet.
+     * @return The statistics of that step.
+     */
+    public static StepStatistics compute(VehicleFrame frame, int vehicleCount)
+    {
+        int count = frame.size();
+        int[] histogram = new int[WAITING_TIME_BOUNDS.length + 1];
+        double speedSum = 0.0;
+        double co2Sum = 0.0;
+        int stopped = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            double speed = frame.getSpeed(i);
+            speedSum += speed;
+            co2Sum += frame.getCO2Emission(i);
+            if (speed < STOPPED_SPEED)
+            {
+                stopped++;
+            }
+            histogram[waitingTimeBucket(frame.getWaitingTime(i))]++;
+        }
+
+        double meanSpeed = (count == 0) ? 0.0 : (speedSum / count) * 3.6; // m/s to km/h
+        double stoppedPercentage = (count == 0) ? 0.0 : ((double) stopped / count) * 100.0;
+        return new StepStatistics(frame.getTime(), vehicleCount, meanSpeed, co2Sum / 1000.0, stoppedPercentage, histogram); // mg to g
+    }
+
+    private static int waitingTimeBucket(double waitingTime)
+    {
+        int bucket = 0;
+        while (bucket < WAITING_TIME_BOUNDS.length && waitingTime >= WAITING_TIME_BOUNDS[bucket])
+        {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    // number of waiting-time buckets (one more than the number of bounds)
+    public int getWaitingTimeBucketCount()
+    {
+        return waitingTimeHistogram.length;
+    }
+
+    // number of vehicles whose accumulated waiting time falls into the given bucket
+    public int getWaitingTimeCount(int bucket)
+    {
+        return waitingTimeHistogram[bucket];
+    }
+
+    // upper bounds of the waiting-time buckets in seconds, as a copy
+    public static double[] getWaitingTimeBounds()
+    {
+        return WAITING_TIME_BOUNDS.clone();
+    }
+}
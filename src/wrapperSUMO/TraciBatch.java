@@ -0,0 +1,553 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.config.Constants;
+import de.tudresden.sumo.objects.SumoColor;
+import de.tudresden.sumo.objects.SumoPosition2D;
+import de.tudresden.sumo.objects.SumoStringList;
+import de.tudresden.sumo.util.SumoCommand;
+import it.polito.appeal.traci.SumoTraciConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects many TraCI get/set commands and sends them to SUMO as a single message.
+ * <p>
+ * {@code SumoTraciConnection.do_job_get} sends exactly one command per request, so reading a
+ * variable of 500 edges costs 500 round trips. TraCI itself allows any number of commands in
+ * one message; SUMO answers them all in one response. A batch encodes the queued commands,
+ * writes them in one go and decodes the multi-command response into the futures that were
+ * handed out when the commands were queued.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre>
+ *     TraciBatch batch = new TraciBatch(connection);
+ *     CompletableFuture&lt;Double&gt; occupancy = batch.getDouble(Constants.CMD_GET_EDGE_VARIABLE, Constants.LAST_STEP_OCCUPANCY, edgeId);
+ *     batch.execute();
+ *     double value = occupancy.join();
+ * </pre>
+ * </p>
+ * <p>
+ * If the socket of the connection cannot be reached, or the fast path is switched off with
+ * {@code -Dtraffic.traciBatch.sequential=true} / {@link #setForceSequential(boolean)}, the batch
+ * sends the commands one by one with {@code do_job_get} / {@code do_job_set}, so callers always
+ * get their results, only slower. A batch must be executed on the thread that owns the connection
+ * (the {@link SimulationEngine} thread while the simulation runs).
+ * </p>
+ */
+public class TraciBatch
+{
+    private static final Logger LOG = LogManager.getLogger(TraciBatch.class.getName());
+
+    // get responses use the command id + 0x10 (e.g. 0xa4 -> 0xb4)
+    private static final int RESPONSE_OFFSET = 0x10;
+
+    // only look up the socket field once for all batches
+    private static Field socketField;
+    private static boolean socketFieldResolved = false;
+    // send every command through the regular TraaS API, e.g. for a TraaS version the fast path does not fit
+    private static volatile boolean forceSequential = Boolean.getBoolean("traffic.traciBatch.sequential");
+
+    /**
+     * One queued command together with the future its result is delivered to.
+     */
+    private static class Entry
+    {
+        final int command;
+        final int variable;
+        final String objectId;
+        // type and value of a set command, -1 for get commands
+        final int valueType;
+        final Object value;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Entry(int command, int variable, String objectId, int valueType, Object value)
+        {
+            this.command = command;
+            this.variable = variable;
+            this.objectId = objectId;
+            this.valueType = valueType;
+            this.value = value;
+        }
+
+        boolean isGet()
+        {
+            return valueType < 0;
+        }
+    }
+
+    private final SumoTraciConnection connection;
+    private final List<Entry> entries = new ArrayList<>();
+
+    // Constructor
+    public TraciBatch(SumoTraciConnection connection)
+    {
+        this.connection = connection;
+    }
+
+    /**
+     * Switches the single-message fast path off (or on again) for all batches.
+     *
+     * @param sequential true to send every command with its own TraaS request.
+     */
+    public static void setForceSequential(boolean sequential)
+    {
+        forceSequential = sequential;
+    }
+
+    // number of commands waiting to be sent
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Queues a get command, e.g. {@code get(Constants.CMD_GET_VEHICLE_VARIABLE, Constants.VAR_SPEED, vehId)}.
+     * The future completes with the decoded value (Double, Integer, String, SumoStringList,
+     * SumoPosition2D or SumoColor) once {@link #execute()} has run.
+     *
+     * @param command  The TraCI get command of the domain (CMD_GET_..._VARIABLE).
+     * @param variable The variable to read.
+     * @param objectId The ID of the vehicle, edge, traffic light, ... ("" for the simulation domain).
+     * @return A future for the value.
+     */
+    public CompletableFuture<Object> get(int command, int variable, String objectId)
+    {
+        Entry entry = new Entry(command, variable, objectId, -1, null);
+        entries.add(entry);
+        return entry.result;
+    }
+
+    // typed shortcut for variables of TYPE_DOUBLE
+    public CompletableFuture<Double> getDouble(int command, int variable, String objectId)
+    {
+        return get(command, variable, objectId).thenApply(value -> ((Number) value).doubleValue());
+    }
+
+    // typed shortcut for variables of TYPE_INTEGER
+    public CompletableFuture<Integer> getInt(int command, int variable, String objectId)
+    {
+        return get(command, variable, objectId).thenApply(value -> ((Number) value).intValue());
+    }
+
+    // typed shortcut for variables of TYPE_STRING
+    public CompletableFuture<String> getString(int command, int variable, String objectId)
+    {
+        return get(command, variable, objectId).thenApply(String::valueOf);
+    }
+
+    /**
+     * Queues a set command. Supported value types are TYPE_DOUBLE, TYPE_INTEGER, TYPE_STRING,
+     * TYPE_UBYTE, TYPE_COLOR (as {@link SumoColor}) and TYPE_COMPOUND (as an {@code Object[]}
+     * of String, Integer and Double items, e.g. for {@code Constants.ADD_FULL}).
+     * The future completes with {@code null} once SUMO acknowledged the command.
+     *
+     * @param command   The TraCI set command of the domain (CMD_SET_..._VARIABLE).
+     * @param variable  The variable to change.
+     * @param objectId  The ID of the object to change.
+     * @param valueType The TraCI type of the value.
+     * @param value     The new value.
+     * @return A future that completes when the command was executed.
+     */
+    public CompletableFuture<Object> set(int command, int variable, String objectId, int valueType, Object value)
+    {
+        Entry entry = new Entry(command, variable, objectId, valueType, value);
+        entries.add(entry);
+        return entry.result;
+    }
+
+    /**
+     * Sends all queued commands and completes their futures. The batch is empty afterwards
+     * and can be reused. A command SUMO rejects only fails its own future.
+     */
+    public void execute()
+    {
+        if (entries.isEmpty())
+        {
+            return;
+        }
+        List<Entry> pending = new ArrayList<>(entries);
+        entries.clear();
+
+        Socket socket = forceSequential ? null : findSocket(connection);
+        if (socket == null)
+        {
+            executeSequentially(pending);
+            return;
+        }
+        // Writing past TraaS relies on three internals of SumoTraciConnection that are not part
+        // of its API and are not checked at runtime:
+        //  1. the TraCI socket is the private field "socket" (findSocket returns null otherwise);
+        //  2. TraaS reads each response with exact-length reads and never buffers ahead, so no
+        //     byte of our response can end up in its stream and none of its bytes in ours;
+        //  3. every TraaS request (do_job_get/set, do_timestep, subscriptions) synchronizes on the
+        //     connection, so holding its lock keeps any other request from interleaving.
+        // If any of them does not hold for another TraaS version, use setForceSequential(true).
+        synchronized (connection)
+        {
+            try
+            {
+                byte[] message = encode(pending);
+                OutputStream out = socket.getOutputStream();
+                out.write(message);
+                out.flush();
+                decode(readMessage(socket.getInputStream()), pending);
+            }
+            catch (Exception e)
+            {
+                LOG.error("Failed to execute TraCI batch of " + pending.size() + " commands: " + e.getMessage());
+                for (Entry entry : pending)
+                {
+                    entry.result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    // fallback: one round trip per command through the regular TraaS API
+    private void executeSequentially(List<Entry> pending)
+    {
+        for (Entry entry : pending)
+        {
+            try
+            {
+                if (entry.isGet())
+                {
+                    SumoCommand cmd = new SumoCommand(entry.command, entry.variable, entry.objectId,
+                            entry.command + RESPONSE_OFFSET, responseType(entry.command, entry.variable));
+                    entry.result.complete(connection.do_job_get(cmd));
+                }
+                else
+                {
+                    // compound values go through the array constructor of TraaS
+                    SumoCommand cmd = (entry.value instanceof Object[])
+                            ? new SumoCommand(entry.command, entry.variable, entry.objectId, (Object[]) entry.value)
+                            : new SumoCommand(entry.command, entry.variable, entry.objectId, entry.value);
+                    connection.do_job_set(cmd);
+                    entry.result.complete(null);
+                }
+            }
+            catch (Exception e)
+            {
+                entry.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    // the type TraaS should decode in the fallback path; variable IDs are only unique within a
+    // domain (0x7d is an int in the simulation domain but a double for vehicles), so both are needed
+    private static int responseType(int command, int variable)
+    {
+        if (variable == Constants.ID_LIST) return Constants.TYPE_STRINGLIST;
+        if (variable == Constants.ID_COUNT) return Constants.TYPE_INTEGER;
+        switch (command)
+        {
+            case Constants.CMD_GET_SIM_VARIABLE:
+                if (variable == Constants.VAR_PENDING_VEHICLES || variable == Constants.VAR_DEPARTED_VEHICLES_IDS
+                        || variable == Constants.VAR_ARRIVED_VEHICLES_IDS) return Constants.TYPE_STRINGLIST;
+                if (variable == Constants.VAR_MIN_EXPECTED_VEHICLES) return Constants.TYPE_INTEGER;
+                return Constants.TYPE_DOUBLE;
+            case Constants.CMD_GET_VEHICLE_VARIABLE:
+                if (variable == Constants.VAR_POSITION) return Constants.POSITION_2D;
+                if (variable == Constants.VAR_COLOR) return Constants.TYPE_COLOR;
+                if (variable == Constants.VAR_TYPE || variable == Constants.VAR_ROUTE_ID || variable == Constants.VAR_ROAD_ID
+                        || variable == Constants.VAR_LANE_ID || variable == Constants.VAR_VEHICLECLASS) return Constants.TYPE_STRING;
+                if (variable == Constants.VAR_LANE_INDEX) return Constants.TYPE_INTEGER;
+                return Constants.TYPE_DOUBLE;
+            case Constants.CMD_GET_EDGE_VARIABLE:
+            case Constants.CMD_GET_LANE_VARIABLE:
+                if (variable == Constants.LAST_STEP_VEHICLE_ID_LIST) return Constants.TYPE_STRINGLIST;
+                if (variable == Constants.LAST_STEP_VEHICLE_NUMBER
+                        || variable == Constants.LAST_STEP_VEHICLE_HALTING_NUMBER) return Constants.TYPE_INTEGER;
+                return Constants.TYPE_DOUBLE;
+            case Constants.CMD_GET_TL_VARIABLE:
+                if (variable == Constants.TL_RED_YELLOW_GREEN_STATE || variable == Constants.TL_CURRENT_PROGRAM) return Constants.TYPE_STRING;
+                if (variable == Constants.TL_CURRENT_PHASE) return Constants.TYPE_INTEGER;
+                return Constants.TYPE_DOUBLE;
+            default:
+                return Constants.TYPE_DOUBLE;
+        }
+    }
+
+    // TraaS keeps the socket private; the batch writes to the same stream between two regular requests
+    private static synchronized Socket findSocket(SumoTraciConnection connection)
+    {
+        if (!socketFieldResolved)
+        {
+            socketFieldResolved = true;
+            try
+            {
+                Field field = SumoTraciConnection.class.getDeclaredField("socket");
+                field.setAccessible(true);
+                socketField = field;
+                LOG.info("TraCI batches are sent as single messages on the TraaS socket"
+                        + " (-Dtraffic.traciBatch.sequential=true to disable)");
+            }
+            catch (Exception e)
+            {
+                LOG.error("TraCI socket not accessible, batches are sent command by command");
+            }
+        }
+        if (socketField == null)
+        {
+            return null;
+        }
+        try
+        {
+            Socket socket = (Socket) socketField.get(connection);
+            return (socket != null && !socket.isClosed()) ? socket : null;
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    // ------------------------------------------
+    // ENCODING
+    // ------------------------------------------
+
+    private static byte[] encode(List<Entry> pending) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(pending.size() * 32);
+        for (Entry entry : pending)
+        {
+            writeCommand(body, entry);
+        }
+        ByteArrayOutputStream message = new ByteArrayOutputStream(body.size() + 4);
+        DataOutputStream out = new DataOutputStream(message);
+        // the message length includes its own 4 bytes
+        out.writeInt(body.size() + 4);
+        body.writeTo(out);
+        out.flush();
+        return message.toByteArray();
+    }
+
+    private static void writeCommand(ByteArrayOutputStream target, Entry entry) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(content);
+        out.writeByte(entry.variable);
+        writeString(out, entry.objectId);
+        if (!entry.isGet())
+        {
+            writeValue(out, entry.valueType, entry.value);
+        }
+        out.flush();
+
+        DataOutputStream header = new DataOutputStream(target);
+        // length byte + command byte + content; long commands use a 0 byte followed by an int length
+        int shortLength = content.size() + 2;
+        if (shortLength <= 255)
+        {
+            header.writeByte(shortLength);
+        }
+        else
+        {
+            header.writeByte(0);
+            header.writeInt(content.size() + 6);
+        }
+        header.writeByte(entry.command);
+        header.flush();
+        content.writeTo(target);
+    }
+
+    private static void writeValue(DataOutputStream out, int type, Object value) throws IOException
+    {
+        out.writeByte(type);
+        if (type == Constants.TYPE_DOUBLE)
+        {
+            out.writeDouble(((Number) value).doubleValue());
+        }
+        else if (type == Constants.TYPE_INTEGER)
+        {
+            out.writeInt(((Number) value).intValue());
+        }
+        else if (type == Constants.TYPE_UBYTE || type == Constants.TYPE_BYTE)
+        {
+            out.writeByte(((Number) value).intValue());
+        }
+        else if (type == Constants.TYPE_STRING)
+        {
+            writeString(out, String.valueOf(value));
+        }
+        else if (type == Constants.TYPE_COLOR)
+        {
+            SumoColor color = (SumoColor) value;
+            out.writeByte(color.r);
+            out.writeByte(color.g);
+            out.writeByte(color.b);
+            out.writeByte(color.a);
+        }
+        else if (type == Constants.TYPE_COMPOUND)
+        {
+            Object[] items = (Object[]) value;
+            out.writeInt(items.length);
+            for (Object item : items)
+            {
+                writeValue(out, itemType(item), item);
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unsupported TraCI value type " + type);
+        }
+    }
+
+    // TraCI type of an item of a compound value
+    private static int itemType(Object item)
+    {
+        if (item instanceof String) return Constants.TYPE_STRING;
+        if (item instanceof Integer) return Constants.TYPE_INTEGER;
+        if (item instanceof Double) return Constants.TYPE_DOUBLE;
+        throw new IllegalArgumentException("Unsupported compound item " + item);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // ------------------------------------------
+    // DECODING
+    // ------------------------------------------
+
+    private static ByteBuffer readMessage(InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(stream);
+        int length = in.readInt();
+        byte[] bytes = new byte[length - 4];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    // the response holds one status per command, each get status is followed by its value
+    private static void decode(ByteBuffer response, List<Entry> pending)
+    {
+        for (Entry entry : pending)
+        {
+            int statusEnd = commandEnd(response);
+            int statusCommand = response.get() & 0xFF;
+            int result = response.get() & 0xFF;
+            String description = readString(response);
+            response.position(statusEnd);
+
+            if (statusCommand != entry.command || result != Constants.RTYPE_OK)
+            {
+                entry.result.completeExceptionally(new IllegalStateException("SUMO rejected command 0x"
+                        + Integer.toHexString(entry.command) + " for '" + entry.objectId + "': " + description));
+                continue;
+            }
+            if (!entry.isGet())
+            {
+                entry.result.complete(null);
+                continue;
+            }
+
+            int valueEnd = commandEnd(response);
+            try
+            {
+                response.get(); // response command id
+                response.get(); // variable
+                readString(response); // object id
+                entry.result.complete(readValue(response));
+            }
+            catch (Exception e)
+            {
+                entry.result.completeExceptionally(e);
+            }
+            // skip whatever was not decoded so the next command starts at the right offset
+            response.position(valueEnd);
+        }
+    }
+
+    // reads the length header of a command and returns the offset right after the command
+    private static int commandEnd(ByteBuffer buffer)
+    {
+        int start = buffer.position();
+        int length = buffer.get() & 0xFF;
+        if (length == 0)
+        {
+            length = buffer.getInt();
+        }
+        return start + length;
+    }
+
+    private static Object readValue(ByteBuffer buffer)
+    {
+        int type = buffer.get() & 0xFF;
+        if (type == Constants.TYPE_DOUBLE)
+        {
+            return buffer.getDouble();
+        }
+        if (type == Constants.TYPE_INTEGER)
+        {
+            return buffer.getInt();
+        }
+        if (type == Constants.TYPE_UBYTE)
+        {
+            return buffer.get() & 0xFF;
+        }
+        if (type == Constants.TYPE_BYTE)
+        {
+            return (int) buffer.get();
+        }
+        if (type == Constants.TYPE_STRING)
+        {
+            return readString(buffer);
+        }
+        if (type == Constants.TYPE_STRINGLIST)
+        {
+            int count = buffer.getInt();
+            SumoStringList list = new SumoStringList();
+            for (int i = 0; i < count; i++)
+            {
+                list.add(readString(buffer));
+            }
+            return list;
+        }
+        if (type == Constants.POSITION_2D)
+        {
+            return new SumoPosition2D(buffer.getDouble(), buffer.getDouble());
+        }
+        if (type == Constants.TYPE_COLOR)
+        {
+            int r = buffer.get() & 0xFF;
+            int g = buffer.get() & 0xFF;
+            int b = buffer.get() & 0xFF;
+            int a = buffer.get() & 0xFF;
+            return new SumoColor(r, g, b, a);
+        }
+        throw new IllegalStateException("Unsupported TraCI response type 0x" + Integer.toHexString(type));
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,87 @@
+package wrapperSUMO;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the signal state of all traffic lights at one simulation step.
+ * <p>
+ * Built once per {@link ControlPanel#step()} by the {@link TrafficLightSubscriptionManager}
+ * from the subscribed state string, phase and next switch time of every traffic light.
+ * The renderer looks up the signal of an arrow by link index, so drawing the traffic lights
+ * needs no TraCI request at all.
+ * </p>
+ */
+public final class TrafficLightStateFrame
+{
+    private static final char[] NO_STATE = new char[0];
+
+    public static final TrafficLightStateFrame EMPTY = new TrafficLightStateFrame(0.0,
+            Collections.emptyMap(), new char[0][], new int[0], new double[0]);
+
+    private final double time;
+    // position of each traffic light in the arrays below, shared by all frames of a run
+    private final Map<String, Integer> indexById;
+    private final char[][] states;
+    private final int[] phases;
+    private final double[] nextSwitches;
+
+    // the arrays are handed over by the TrafficLightSubscriptionManager and never modified afterwards
+    TrafficLightStateFrame(double time, Map<String, Integer> indexById, char[][] states, int[] phases, double[] nextSwitches)
+    {
+        this.time = time;
+        this.indexById = indexById;
+        this.states = states;
+        this.phases = phases;
+        this.nextSwitches = nextSwitches;
+    }
+
+    // simulation time (in seconds) the frame was captured at
+    public double getTime() { return time; }
+
+    public int size() { return states.length; }
+
+    /**
+     * Gets the full state of a traffic light, one character per link index.
+     * The returned array must not be modified.
+     *
+     * @param trafficLightId The ID of the traffic light.
+     * @return The state characters, or an empty array for an unknown traffic light.
+     */
+    public char[] getState(String trafficLightId)
+    {
+        Integer index = indexById.get(trafficLightId);
+        return (index != null && states[index] != null) ? states[index] : NO_STATE;
+    }
+
+    /**
+     * Gets the signal of one link, e.g. 'G', 'g', 'y' or 'r'.
+     *
+     * @param trafficLightId The ID of the traffic light.
+     * @param linkIndex      The index of the link in the state string.
+     * @return The signal character, or 'r' if the link is unknown.
+     */
+    public char getSignal(String trafficLightId, int linkIndex)
+    {
+        char[] state = getState(trafficLightId);
+        return (linkIndex >= 0 && linkIndex < state.length) ? state[linkIndex] : 'r';
+    }
+
+    // current phase index, -1 for an unknown traffic light
+    public int getPhase(String trafficLightId)
+    {
+        Integer index = indexById.get(trafficLightId);
+        return (index != null) ? phases[index] : -1;
+    }
+
+    // seconds until the traffic light switches to its next phase, 0 if unknown
+    public double getRemainingTime(String trafficLightId)
+    {
+        Integer index = indexById.get(trafficLightId);
+        if (index == null || nextSwitches[index] < 0)
+        {
+            return 0.0;
+        }
+        return Math.max(0.0, nextSwitches[index] - time);
+    }
+}
@@ -0,0 +1,160 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.config.Constants;
+import de.tudresden.sumo.objects.SumoPrimitive;
+import de.tudresden.sumo.subscription.ResponseType;
+import de.tudresden.sumo.subscription.SubscribtionVariable;
+import de.tudresden.sumo.subscription.SubscriptionObject;
+import de.tudresden.sumo.subscription.VariableSubscription;
+import de.tudresden.sumo.util.Observable;
+import de.tudresden.sumo.util.Observer;
+import it.polito.appeal.traci.SumoTraciConnection;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the signal state of every traffic light up to date through TraCI variable subscriptions.
+ * <p>
+ * Each traffic light is subscribed once to its state string, current phase and next switch
+ * time. SUMO pushes the values with every step response, and {@link #update(double)} turns
+ * them into an immutable {@link TrafficLightStateFrame}. Traffic lights do not appear or
+ * disappear during a run, so the subscriptions are made once, in
+ * {@link #create(SumoTraciConnection, List)}.
+ * </p>
+ */
+public class TrafficLightSubscriptionManager implements Observer
+{
+    private static final Logger LOG = LogManager.getLogger(TrafficLightSubscriptionManager.class.getName());
+
+    // subscriptions stay active for the whole run
+    private static final double SUBSCRIPTION_END = 100000 * 60;
+
+    private final Map<String, Integer> indexById;
+    // latest values, written by the subscription callbacks
+    private final String[] stateStrings;
+    private final char[][] states;
+    private final int[] phases;
+    private final double[] nextSwitches;
+
+    private TrafficLightStateFrame currentFrame = TrafficLightStateFrame.EMPTY;
+
+    // Constructor, see create()
+    private TrafficLightSubscriptionManager(List<String> trafficLightIds)
+    {
+        int count = trafficLightIds.size();
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            indices.put(trafficLightIds.get(i), i);
+        }
+        indexById = Collections.unmodifiableMap(indices);
+        stateStrings = new String[count];
+        states = new char[count][];
+        phases = new int[count];
+        nextSwitches = new double[count];
+        Arrays.fill(phases, -1);
+        Arrays.fill(nextSwitches, -1.0);
+    }
+
+    /**
+     * Creates a manager, registers it for the subscription results of the connection and
+     * subscribes every traffic light. Registration happens after construction so the
+     * connection never sees a half-built observer.
+     *
+     * @param connection      The running connection.
+     * @param trafficLightIds The traffic lights to follow.
+     * @return The new manager.
+     */
+    public static TrafficLightSubscriptionManager create(SumoTraciConnection connection, List<String> trafficLightIds)
+    {
+        TrafficLightSubscriptionManager manager = new TrafficLightSubscriptionManager(trafficLightIds);
+        connection.addObserver(manager);
+        for (String id : trafficLightIds)
+        {
+            manager.subscribe(connection, id);
+        }
+        return manager;
+    }
+
+    private void subscribe(SumoTraciConnection connection, String trafficLightId)
+    {
+        try
+        {
+            VariableSubscription vs = new VariableSubscription(SubscribtionVariable.trafficlight, 0, SUBSCRIPTION_END, trafficLightId);
+            vs.addCommand(Constants.TL_RED_YELLOW_GREEN_STATE);
+            vs.addCommand(Constants.TL_CURRENT_PHASE);
+            vs.addCommand(Constants.TL_NEXT_SWITCH);
+            connection.do_subscription(vs);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to subscribe to traffic light " + trafficLightId);
+        }
+    }
+
+    /**
+     * Receives subscription results while {@code do_timestep} is processing the step response.
+     * Only stores the values; the frame is assembled later in {@link #update(double)}.
+     */
+    @Override
+    public void update(Observable observable, SubscriptionObject so)
+    {
+        if (so.response != ResponseType.TL_VARIABLE)
+        {
+            return;
+        }
+        Integer index = indexById.get(so.id);
+        if (index == null)
+        {
+            return;
+        }
+        Object value = ((SumoPrimitive) so.object).val;
+        switch (so.variable)
+        {
+            case Constants.TL_RED_YELLOW_GREEN_STATE:
+                String state = String.valueOf(value);
+                // only allocate a new array when the signal actually changed
+                if (!state.equals(stateStrings[index]))
+                {
+                    stateStrings[index] = state;
+                    states[index] = state.toCharArray();
+                }
+                break;
+            case Constants.TL_CURRENT_PHASE:
+                phases[index] = (value instanceof Number) ? ((Number) value).intValue() : -1;
+                break;
+            case Constants.TL_NEXT_SWITCH:
+                nextSwitches[index] = (value instanceof Number) ? ((Number) value).doubleValue() : -1.0;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Publishes the values received during the last step as a new frame.
+     * Must be called once right after every {@code do_timestep}.
+     *
+     * @param time The current simulation time in seconds.
+     * @return The immutable frame for this step.
+     */
+    public TrafficLightStateFrame update(double time)
+    {
+        // the char arrays are replaced, never modified, so a shallow copy is enough
+        currentFrame = new TrafficLightStateFrame(time, indexById, states.clone(), phases.clone(), nextSwitches.clone());
+        return currentFrame;
+    }
+
+    // get the frame of the latest step
+    public TrafficLightStateFrame getCurrentFrame()
+    {
+        return currentFrame;
+    }
+}
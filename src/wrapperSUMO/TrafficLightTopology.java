@@ -0,0 +1,148 @@
+package wrapperSUMO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The static layout of all traffic lights of the loaded network.
+ * <p>
+ * Controlled links, link directions/indices and the stop-line geometry of every incoming
+ * edge never change while a simulation runs, so they are fetched once after the simulation
+ * started (see {@link TrafficLightWrapper#buildTopology()}) instead of on every frame.
+ * Drawing a traffic light afterwards only needs its current state string.
+ * </p>
+ * <p>
+ * Instances are immutable and can be shared between the simulation and the JavaFX thread.
+ * </p>
+ */
+public final class TrafficLightTopology
+{
+    /**
+     * Slot order of the arrows in a traffic light box: turn, left, straight, right.
+     */
+    public static final String[] DIRECTIONS = {"t", "l", "s", "r"};
+
+    public static final TrafficLightTopology EMPTY = new TrafficLightTopology(new LinkedHashMap<>(), new LinkedHashMap<>());
+
+    /**
+     * One incoming edge of a traffic light, drawn as one box of arrows at its stop line.
+     */
+    public static final class Approach
+    {
+        public final String trafficLightId;
+        public final String incomingEdgeId;
+        // end of the incoming lane (where the box is drawn) and the shape point before it (for the rotation)
+        public final double stopX, stopY;
+        public final double prevX, prevY;
+        private final List<TrafficConnectInfo> connections;
+        // link index of the first connection per DIRECTIONS slot, -1 if the approach has no such direction
+        private final int[] slotLinkIndices;
+
+        Approach(String trafficLightId, String incomingEdgeId, double stopX, double stopY,
+                 double prevX, double prevY, List<TrafficConnectInfo> connections)
+        {
+            this.trafficLightId = trafficLightId;
+            this.incomingEdgeId = incomingEdgeId;
+            this.stopX = stopX;
+            this.stopY = stopY;
+            this.prevX = prevX;
+            this.prevY = prevY;
+            this.connections = Collections.unmodifiableList(new ArrayList<>(connections));
+
+            slotLinkIndices = new int[DIRECTIONS.length];
+            for (int slot = 0; slot < DIRECTIONS.length; slot++)
+            {
+                slotLinkIndices[slot] = -1;
+                for (TrafficConnectInfo info : connections)
+                {
+                    if (info.getDirection().toLowerCase().equals(DIRECTIONS[slot]))
+                    {
+                        slotLinkIndices[slot] = info.getLinkIndex();
+                        break;
+                    }
+                }
+            }
+        }
+
+        public List<TrafficConnectInfo> getConnections()
+        {
+            return connections;
+        }
+
+        // link index shown in the given DIRECTIONS slot, or -1 if the slot stays empty
+        public int getSlotLinkIndex(int slot)
+        {
+            return slotLinkIndices[slot];
+        }
+    }
+
+    private final Map<String, List<Approach>> approachesByLight;
+    // incoming lane of every link, indexed by link index (the order of getControlledLinks)
+    private final Map<String, String[]> linkFromLanes;
+    private final List<String> trafficLightIds;
+    private final List<Approach> allApproaches;
+
+    TrafficLightTopology(Map<String, List<Approach>> approachesByLight, Map<String, String[]> linkFromLanes)
+    {
+        Map<String, List<Approach>> approaches = new LinkedHashMap<>();
+        List<Approach> all = new ArrayList<>();
+        for (Map.Entry<String, List<Approach>> entry : approachesByLight.entrySet())
+        {
+            approaches.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+            all.addAll(entry.getValue());
+        }
+        this.approachesByLight = Collections.unmodifiableMap(approaches);
+        this.linkFromLanes = Collections.unmodifiableMap(new LinkedHashMap<>(linkFromLanes));
+        this.trafficLightIds = Collections.unmodifiableList(new ArrayList<>(linkFromLanes.keySet()));
+        this.allApproaches = Collections.unmodifiableList(all);
+    }
+
+    public List<String> getTrafficLightIds()
+    {
+        return trafficLightIds;
+    }
+
+    public int getTrafficLightCount()
+    {
+        return trafficLightIds.size();
+    }
+
+    // all approaches of all traffic lights, in a stable order
+    public List<Approach> getApproaches()
+    {
+        return allApproaches;
+    }
+
+    public List<Approach> getApproaches(String trafficLightId)
+    {
+        List<Approach> approaches = approachesByLight.get(trafficLightId);
+        return (approaches != null) ? approaches : Collections.emptyList();
+    }
+
+    // number of links (= length of the state string) of a traffic light
+    public int getLinkCount(String trafficLightId)
+    {
+        String[] lanes = linkFromLanes.get(trafficLightId);
+        return (lanes != null) ? lanes.length : 0;
+    }
+
+    /**
+     * Gets the incoming lane of a controlled link.
+     *
+     * @param trafficLightId The ID of the traffic light.
+     * @param linkIndex      The index of the link in the state string.
+     * @return The lane ID, or null if the index is unknown.
+     */
+    public String getLinkFromLane(String trafficLightId, int linkIndex)
+    {
+        String[] lanes = linkFromLanes.get(trafficLightId);
+        if (lanes == null || linkIndex < 0 || linkIndex >= lanes.length)
+        {
+            return null;
+        }
+        return lanes[linkIndex];
+    }
+}
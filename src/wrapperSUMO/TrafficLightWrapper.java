@@ -16,40 +16,24 @@ import de.tudresden.sumo.cmd.Junction;
 import de.tudresden.sumo.cmd.Lane;
 import de.tudresden.sumo.cmd.Simulation;
 import de.tudresden.sumo.cmd.Trafficlight;
+import de.tudresden.sumo.objects.SumoGeometry;
 import de.tudresden.sumo.objects.SumoLink;
 import de.tudresden.sumo.objects.SumoPosition2D;
 import de.tudresden.sumo.objects.SumoTLSController;
 import it.polito.appeal.traci.SumoTraciConnection;
 
-import java.io.File;
 import java.util.*;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class TrafficLightWrapper
 {
     private static final Logger LOG = LogManager.getLogger(TrafficLightWrapper.class.getName());
-    private class XmlConnectionData {
-        String dir;
-        int linkIndex;
-
-        XmlConnectionData(String dir, int linkIndex) {
-            this.dir = dir;
-            this.linkIndex = linkIndex;
-        }
-    }
     // initialize the connection
     private final SumoTraciConnection connection;
-    // Map key is "fromEdge_Lane->toEdge_Lane"
-    private Map<String, XmlConnectionData> staticConnectionData = new HashMap<>();
+    // direction and link index of every controlled connection, looked up by from/to lane
+    private ConnectionIndex connectionIndex = ConnectionIndex.EMPTY;
     public boolean isRunning = false;
     // Constructor
     public TrafficLightWrapper(SumoTraciConnection connection)
@@ -58,6 +42,8 @@ public class TrafficLightWrapper
     }
     // store phase of each traffic light id
     private Map<String, Integer> phaseTracker = new HashMap<>();
+    // static layout of all traffic lights, built once per run by buildTopology()
+    private volatile TrafficLightTopology topology = TrafficLightTopology.EMPTY;
     // get traffic light's IDs
     /**
      * Retrieves a list of all Traffic Light IDs currently in the simulation.
@@ -149,11 +135,11 @@ public class TrafficLightWrapper
                 String toedge = tolane.split("_")[0];
 
                 // Retrieve link index/ direction from xml file
-                XmlConnectionData data = getConnectionData(fromlane, tolane);
+                int slot = connectionIndex.find(fromlane, tolane);
 
-                String direction = (data != null) ? data.dir : "s";
+                String direction = (slot >= 0) ? connectionIndex.getDirection(slot) : "s";
                 // Use the accurate linkIndex from the XML
-                int link_index = (data != null) ? data.linkIndex : 0;
+                int link_index = (slot >= 0) ? connectionIndex.getLinkIndex(slot) : 0;
 
                 TrafficConnectInfo info = new TrafficConnectInfo(fromedge, toedge, direction, link_index, fromlane, tolane);
 
@@ -168,55 +154,108 @@ public class TrafficLightWrapper
         }
         return new HashMap<>();
     }
-    private XmlConnectionData getConnectionData(String fromLane, String toLane) {
-        String key = fromLane + "->" + toLane;
-        return staticConnectionData.get(key);
-    }
     /**
-     * Parses the SUMO network XML file to load static connection details.
+     * Loads the static connection details of the SUMO network file.
      * <p>
      * It extracts the 'dir' (direction) and 'linkIndex' attributes for every connection
-     * controlled by a traffic light and caches them in {@code staticConnectionData}.
+     * controlled by a traffic light into a {@link ConnectionIndex}.
      * This is required because the live TraaS API does not provide direction strings (e.g., "r", "s", "l").
+     * The file is streamed instead of building a DOM, and reused without parsing if it did not
+     * change since the last call (e.g. after a restart).
      * </p>
      * * @param netFilePath The absolute or relative path to the .net.xml file.
      */
     public void loadConnectionDirections(String netFilePath) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File(netFilePath));
-
-            NodeList connections = doc.getElementsByTagName("connection");
-
-            for (int i = 0; i < connections.getLength(); i++) {
-                Element conn = (Element) connections.item(i);
-
-                // We only care about connections controlled by a Traffic Light
-                if (!conn.hasAttribute("tl")) continue;
+        connectionIndex = ConnectionIndex.load(netFilePath);
+    }
 
-                String from = conn.getAttribute("from");
-                String to = conn.getAttribute("to");
-                String fromLane = conn.getAttribute("fromLane");
-                String toLane = conn.getAttribute("toLane");
-                String dir = conn.getAttribute("dir");
-                String linkIdxStr = conn.getAttribute("linkIndex");
+    /**
+     * Loads the connection details from an already parsed network instead of reading the file again.
+     * * @param network The network model of the running simulation.
+     */
+    public void loadConnectionDirections(NetworkModel network) {
+        connectionIndex = ConnectionIndex.fromNetwork(network);
+    }
 
-                if (linkIdxStr != null && !linkIdxStr.isEmpty()) {
-                    int linkIdx = Integer.parseInt(linkIdxStr);
+    /**
+     * Builds the static {@link TrafficLightTopology} of the running simulation.
+     * <p>
+     * Fetches the controlled links, controlled lanes and stop-line geometry of every traffic
+     * light once. Must be called after {@link #loadConnectionDirections(String)} so the links
+     * get their directions and indices, and again after a restart.
+     * </p>
+     * * @return The new topology, also available through {@link #getTopology()}.
+     */
+    public TrafficLightTopology buildTopology() {
+        Map<String, List<TrafficLightTopology.Approach>> approachesByLight = new LinkedHashMap<>();
+        Map<String, String[]> linkFromLanes = new LinkedHashMap<>();
+        try {
+            for (String trafficLightId : getTrafficLightIDs()) {
+                // links, grouped by the incoming edge like get_traffic_connections
+                List<?> links = (List<?>) connection.do_job_get(Trafficlight.getControlledLinks(trafficLightId));
+                String[] fromLanes = new String[links.size()];
+                Map<String, List<TrafficConnectInfo>> connectionsByEdge = new LinkedHashMap<>();
+                for (int index = 0; index < links.size(); index++) {
+                    for (SumoLink link : toLinks(links.get(index))) {
+                        if (fromLanes[index] == null) fromLanes[index] = link.from;
+                        String fromEdge = link.from.split("_")[0];
+                        String toEdge = link.to.split("_")[0];
+                        int slot = connectionIndex.find(link.from, link.to);
+                        String direction = (slot >= 0) ? connectionIndex.getDirection(slot) : "s";
+                        int linkIndex = (slot >= 0) ? connectionIndex.getLinkIndex(slot) : index;
+                        connectionsByEdge
+                                .computeIfAbsent(fromEdge, k -> new ArrayList<>())
+                                .add(new TrafficConnectInfo(fromEdge, toEdge, direction, linkIndex, link.from, link.to));
+                    }
+                }
+                linkFromLanes.put(trafficLightId, fromLanes);
 
-                    String key = from + "_" + fromLane + "->" + to + "_" + toLane;
-                    // Store both Direction and Index
-                    staticConnectionData.put(key, new XmlConnectionData(dir, linkIdx));
+                // stop line of each incoming edge = end of its first controlled lane
+                List<String> controlledLanes = (List<String>) connection.do_job_get(Trafficlight.getControlledLanes(trafficLightId));
+                Map<String, String> laneByEdge = new LinkedHashMap<>();
+                for (String laneId : controlledLanes) {
+                    laneByEdge.putIfAbsent(laneId.split("_")[0], laneId);
                 }
+                List<TrafficLightTopology.Approach> approaches = new ArrayList<>();
+                for (Map.Entry<String, List<TrafficConnectInfo>> entry : connectionsByEdge.entrySet()) {
+                    String laneId = laneByEdge.get(entry.getKey());
+                    if (laneId == null) continue;
+                    List<SumoPosition2D> shape = ((SumoGeometry) connection.do_job_get(Lane.getShape(laneId))).coords;
+                    if (shape == null || shape.size() < 2) continue;
+                    SumoPosition2D stopPos = shape.get(shape.size() - 1);
+                    SumoPosition2D prevPos = shape.get(shape.size() - 2);
+                    approaches.add(new TrafficLightTopology.Approach(trafficLightId, entry.getKey(),
+                            stopPos.x, stopPos.y, prevPos.x, prevPos.y, entry.getValue()));
+                }
+                approachesByLight.put(trafficLightId, approaches);
             }
-            LOG.info("Loaded " + staticConnectionData.size() + " connections from XML.");
-
+            LOG.info("Built traffic light topology for " + linkFromLanes.size() + " traffic lights.");
         } catch (Exception e) {
-            LOG.error("Failed to load connection directions");
+            LOG.error("Failed to build the traffic light topology");
             e.printStackTrace();
         }
+        topology = new TrafficLightTopology(approachesByLight, linkFromLanes);
+        return topology;
     }
+
+    // getControlledLinks returns either one SumoLink or a list of links per link index
+    private List<SumoLink> toLinks(Object item) {
+        List<SumoLink> links = new ArrayList<>();
+        if (item instanceof SumoLink) {
+            links.add((SumoLink) item);
+        } else if (item instanceof List) {
+            for (Object link : (List<?>) item) {
+                if (link instanceof SumoLink) links.add((SumoLink) link);
+            }
+        }
+        return links;
+    }
+
+    // the topology of the current run, EMPTY until buildTopology() was called
+    public TrafficLightTopology getTopology() {
+        return topology;
+    }
+
     // get traffic light pos
     public SumoPosition2D getTrafficLightPosition(String trafficLightId) {
         try {
@@ -329,61 +368,23 @@ public class TrafficLightWrapper
             return green_connection_edge;
         }
 
-        try {
-            // Fetch Topology as a Generic List first
-            Object response = connection.do_job_get(Trafficlight.getControlledLinks(trafficLightId));
-
-            if (response == null || !(response instanceof List)) {
-                return green_connection_edge;
-            }
-
-            List<?> allLinks = (List<?>) response;
-
-            // 3. Iterate through the Green Indices
-            for (int index : green_index) {
-                // Safety check for bounds
-                if (index >= 0 && index < allLinks.size()) {
-
-                    // Get the object at this index
-                    Object item = allLinks.get(index);
-
-                    if (item == null) continue;
-
-                    // Create a temporary list to unify logic
-                    List<SumoLink> linksToProcess = new ArrayList<>();
-
-                    // if a List (Standard behavior)
-                    if (item instanceof List) {
-                        linksToProcess.addAll((List<SumoLink>) item);
-                    }
-                    // if it is single SumoLink
-                    else if (item instanceof SumoLink) {
-                        linksToProcess.add((SumoLink) item);
-                    }
-
-                    // 4. Process the links
-                    for (SumoLink link : linksToProcess) {
-                        String lane_id = link.from;
-                        if (lane_id != null && !lane_id.isEmpty()) {
-
-                            // Robust Edge ID extraction
-                            String edge_id = lane_id;
-                            int lastUnderscore = lane_id.lastIndexOf('_');
-                            if (lastUnderscore != -1) {
-                                edge_id = lane_id.substring(0, lastUnderscore);
-                            }
-
-                            green_connection_edge
-                                    .computeIfAbsent(edge_id, k -> new ArrayList<>())
-                                    .add(lane_id);
-                        }
-                    }
+        // the incoming lane of every link comes from the cached topology, no TraCI request needed
+        TrafficLightTopology topology = this.topology;
+        for (int index : green_index) {
+            String lane_id = topology.getLinkFromLane(trafficLightId, index);
+            if (lane_id != null && !lane_id.isEmpty()) {
+
+                // Robust Edge ID extraction
+                String edge_id = lane_id;
+                int lastUnderscore = lane_id.lastIndexOf('_');
+                if (lastUnderscore != -1) {
+                    edge_id = lane_id.substring(0, lastUnderscore);
                 }
+
+                green_connection_edge
+                        .computeIfAbsent(edge_id, k -> new ArrayList<>())
+                        .add(lane_id);
             }
-            return green_connection_edge;
-        } catch (Exception e) {
-            LOG.error("Error in get_green_connection_edge for " + trafficLightId);
-            e.printStackTrace();
         }
         return green_connection_edge;
     }
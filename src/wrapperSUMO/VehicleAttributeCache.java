@@ -0,0 +1,244 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.config.Constants;
+import it.polito.appeal.traci.SumoTraciConnection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Static attributes of every vehicle in the simulation: type, route, length, width and vehicle class.
+ * <p>
+ * These do not change after departure unless we change them ourselves, so they are not part of
+ * the per-step subscription. They are fetched once when a vehicle departs, for all vehicles of a
+ * step in one {@link TraciBatch}, and stored in arrays indexed by the handles of the
+ * {@link ActiveVehicleRegistry}; reading them is an array access. An entry is dropped when its
+ * vehicle arrives, and the route of a vehicle is fetched again after
+ * {@link #invalidateRoute(String)} (called by {@code ControlPanel.setRouteID} / {@code changeTarget}).
+ * </p>
+ * <p>
+ * Lookups by vehicle ID count hits and misses. Must be used on the thread that steps the simulation.
+ * </p>
+ */
+public class VehicleAttributeCache
+{
+    private static final Logger LOG = LogManager.getLogger(VehicleAttributeCache.class.getName());
+
+    public static final String DEFAULT_TYPE = "DEFAULT_VEHTYPE";
+
+    private final ActiveVehicleRegistry registry;
+    private final TraciBatch batch;
+
+    // indexed by registry handle
+    private boolean[] cached = new boolean[0];
+    private boolean[] routeStale = new boolean[0];
+    private String[] typeIds = new String[0];
+    private String[] routeIds = new String[0];
+    private String[] vehicleClasses = new String[0];
+    private double[] lengths = new double[0];
+    private double[] widths = new double[0];
+
+    // vehicles whose route must be fetched again at the next refresh
+    private final List<String> staleRoutes = new ArrayList<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long fetches = 0;
+
+    /**
+     * @param connection The connection the attributes are read from.
+     * @param registry   The registry whose handles index the cache.
+     */
+    public VehicleAttributeCache(SumoTraciConnection connection, ActiveVehicleRegistry registry)
+    {
+        this.registry = registry;
+        this.batch = new TraciBatch(connection);
+    }
+
+    /**
+     * Fetches the attributes of newly departed vehicles and the routes invalidated since the
+     * last call, all in one TraCI message.
+     *
+     * @param departed The handles of the vehicles that departed in the last step.
+     */
+    public void refresh(List<Integer> departed)
+    {
+        ensureCapacity(registry.getCapacity());
+        if (departed.isEmpty() && staleRoutes.isEmpty())
+        {
+            return;
+        }
+
+        List<CompletableFuture<?>> results = new ArrayList<>(departed.size() * 5 + staleRoutes.size());
+        for (int handle : departed)
+        {
+            String id = registry.getId(handle);
+            cached[handle] = false;
+            routeStale[handle] = false;
+            results.add(batch.getString(Constants.CMD_GET_VEHICLE_VARIABLE, Constants.VAR_TYPE, id));
+            results.add(batch.getString(Constants.CMD_GET_VEHICLE_VARIABLE, Constants.VAR_ROUTE_ID, id));
+            results.add(batch.getDouble(Constants.CMD_GET_VEHICLE_VARIABLE, Constants.VAR_LENGTH, id));
+            results.add(batch.getDouble(Constants.CMD_GET_VEHICLE_VARIABLE, Constants.VAR_WIDTH, id));
+            results.add(batch.getString(Constants.CMD_GET_VEHICLE_VARIABLE, Constants.VAR_VEHICLECLASS, id));
+        }
+        List<Integer> routeHandles = new ArrayList<>(staleRoutes.size());
+        for (String id : staleRoutes)
+        {
+            int handle = registry.getHandle(id);
+            // the vehicle may have left in the meantime
+            if (handle < 0 || !routeStale[handle]) continue;
+            routeHandles.add(handle);
+            results.add(batch.getString(Constants.CMD_GET_VEHICLE_VARIABLE, Constants.VAR_ROUTE_ID, id));
+        }
+        staleRoutes.clear();
+        batch.execute();
+        fetches += results.size();
+
+        int r = 0;
+        for (int handle : departed)
+        {
+            try
+            {
+                typeIds[handle] = (String) results.get(r).join();
+                routeIds[handle] = (String) results.get(r + 1).join();
+                lengths[handle] = (Double) results.get(r + 2).join();
+                widths[handle] = (Double) results.get(r + 3).join();
+                vehicleClasses[handle] = (String) results.get(r + 4).join();
+                cached[handle] = true;
+            }
+            catch (Exception e)
+            {
+                // a vehicle that left right away, it is dropped with the next arrivals
+                LOG.error("Failed to read the attributes of vehicle " + registry.getId(handle) + ": " + e.getMessage());
+            }
+            r += 5;
+        }
+        for (int handle : routeHandles)
+        {
+            try
+            {
+                routeIds[handle] = (String) results.get(r).join();
+                routeStale[handle] = false;
+            }
+            catch (Exception e)
+            {
+                LOG.error("Failed to read the route of vehicle " + registry.getId(handle) + ": " + e.getMessage());
+            }
+            r++;
+        }
+    }
+
+    /**
+     * Drops the entry of a vehicle that arrived. Call before the registry frees its handle.
+     *
+     * @param vehicleId The vehicle ID.
+     */
+    public void invalidate(String vehicleId)
+    {
+        int handle = registry.getHandle(vehicleId);
+        if (handle >= 0 && handle < cached.length)
+        {
+            cached[handle] = false;
+            routeStale[handle] = false;
+        }
+    }
+
+    /**
+     * Marks the route of a vehicle as changed; it is fetched again at the next {@link #refresh}.
+     *
+     * @param vehicleId The vehicle whose route or target was set.
+     */
+    public void invalidateRoute(String vehicleId)
+    {
+        int handle = registry.getHandle(vehicleId);
+        if (handle >= 0 && handle < cached.length && !routeStale[handle])
+        {
+            routeStale[handle] = true;
+            staleRoutes.add(vehicleId);
+        }
+    }
+
+    /**
+     * Forgets all entries and pending route reads, e.g. after a simulation state was loaded.
+     * The counters are kept.
+     */
+    public void clear()
+    {
+        Arrays.fill(cached, false);
+        Arrays.fill(routeStale, false);
+        Arrays.fill(typeIds, null);
+        Arrays.fill(routeIds, null);
+        Arrays.fill(vehicleClasses, null);
+        staleRoutes.clear();
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (cached.length >= capacity)
+        {
+            return;
+        }
+        cached = Arrays.copyOf(cached, capacity);
+        routeStale = Arrays.copyOf(routeStale, capacity);
+        typeIds = Arrays.copyOf(typeIds, capacity);
+        routeIds = Arrays.copyOf(routeIds, capacity);
+        vehicleClasses = Arrays.copyOf(vehicleClasses, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+    }
+
+    // ------------------------------------------
+    // LOOKUP BY HANDLE (array reads, no metrics)
+    // ------------------------------------------
+
+    public boolean isCached(int handle) { return handle < cached.length && cached[handle]; }
+    public String getTypeId(int handle) { return isCached(handle) ? typeIds[handle] : DEFAULT_TYPE; }
+    public String getRouteId(int handle) { return isCached(handle) ? routeIds[handle] : ""; }
+    public double getLength(int handle) { return isCached(handle) ? lengths[handle] : 0.0; }
+    public double getWidth(int handle) { return isCached(handle) ? widths[handle] : 0.0; }
+    public String getVehicleClass(int handle) { return isCached(handle) ? vehicleClasses[handle] : ""; }
+
+    // ------------------------------------------
+    // LOOKUP BY ID (counted)
+    // ------------------------------------------
+
+    /**
+     * @return The cached type of a vehicle, or null on a miss.
+     */
+    public String lookupTypeId(String vehicleId)
+    {
+        int handle = registry.getHandle(vehicleId);
+        if (handle >= 0 && isCached(handle))
+        {
+            hits++;
+            return typeIds[handle];
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @return The cached route of a vehicle, or null on a miss (also while the route is stale).
+     */
+    public String lookupRouteId(String vehicleId)
+    {
+        int handle = registry.getHandle(vehicleId);
+        if (handle >= 0 && isCached(handle) && !routeStale[handle])
+        {
+            hits++;
+            return routeIds[handle];
+        }
+        misses++;
+        return null;
+    }
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    // number of attribute values read from SUMO so far
+    public long getFetches() { return fetches; }
+}
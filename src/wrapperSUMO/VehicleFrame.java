@@ -0,0 +1,74 @@
+package wrapperSUMO;
+
+import javafx.scene.paint.Color;
+
+/**
+ * An immutable snapshot of all subscribed vehicles at one simulation step.
+ * <p>
+ * A new frame is built once per {@link ControlPanel#step()} by the
+ * {@link VehicleSubscriptionManager}. The 2D/3D renderers and the statistics code
+ * all read from the same frame instead of querying SUMO per vehicle.
+ * </p>
+ * <p>
+ * Values are stored column-wise: index {@code i} refers to the same vehicle in every getter.
+ * </p>
+ */
+public final class VehicleFrame
+{
+    /**
+     * A frame without any vehicles, used before the first step and after a restart.
+     */
+    public static final VehicleFrame EMPTY = new VehicleFrame(0.0, new String[0], new String[0], new String[0],
+            new double[0], new double[0], new double[0], new double[0], new double[0], new double[0], new Color[0]);
+
+    private final double time;
+    private final String[] ids;
+    private final String[] typeIds;
+    private final String[] routeIds;
+    private final double[] x;
+    private final double[] y;
+    private final double[] angles;
+    private final double[] speeds;
+    private final double[] co2Emissions;
+    private final double[] waitingTimes;
+    private final Color[] colors;
+
+    // the arrays are handed over by the VehicleSubscriptionManager and never modified afterwards
+    VehicleFrame(double time, String[] ids, String[] typeIds, String[] routeIds, double[] x, double[] y,
+                 double[] angles, double[] speeds, double[] co2Emissions, double[] waitingTimes, Color[] colors)
+    {
+        this.time = time;
+        this.ids = ids;
+        this.typeIds = typeIds;
+        this.routeIds = routeIds;
+        this.x = x;
+        this.y = y;
+        this.angles = angles;
+        this.speeds = speeds;
+        this.co2Emissions = co2Emissions;
+        this.waitingTimes = waitingTimes;
+        this.colors = colors;
+    }
+
+    // simulation time (in seconds) the frame was captured at
+    public double getTime() { return time; }
+
+    // number of vehicles in the frame
+    public int size() { return ids.length; }
+
+    public boolean isEmpty() { return ids.length == 0; }
+
+    public String getId(int i) { return ids[i]; }
+    public String getTypeID(int i) { return typeIds[i]; }
+    public String getRouteID(int i) { return routeIds[i]; }
+    public double getX(int i) { return x[i]; }
+    public double getY(int i) { return y[i]; }
+    public double getAngle(int i) { return angles[i]; }
+    // speed in m/s
+    public double getSpeed(int i) { return speeds[i]; }
+    // CO2 emission in mg/s
+    public double getCO2Emission(int i) { return co2Emissions[i]; }
+    // accumulated waiting time in seconds
+    public double getWaitingTime(int i) { return waitingTimes[i]; }
+    public Color getColor(int i) { return colors[i]; }
+}
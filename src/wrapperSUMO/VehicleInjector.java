@@ -0,0 +1,248 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.config.Constants;
+import it.polito.appeal.traci.SumoTraciConnection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Inserts large numbers of vehicles into SUMO with few round trips.
+ * <p>
+ * Every vehicle is one {@code Constants.ADD_FULL} command. Instead of one blocking
+ * {@code do_job_set} per vehicle, the commands are queued in a {@link TraciBatch} and sent
+ * {@link #getBatchSize()} at a time, so 100k vehicles cost 50 messages with the default size. The
+ * departures are spread evenly over a time window and the vehicles take the given routes in
+ * turn.
+ * </p>
+ * <p>
+ * The strings that repeat across vehicles (route, type, departure times) are shared instances,
+ * and vehicle IDs are built in one reused buffer, so a burst only allocates what the queued
+ * commands of one batch need. The IDs themselves are not interned: each one is unique, so
+ * there is nothing to share, and the copies SUMO reports back are decoded as new strings
+ * anyway.
+ * </p>
+ * <p>
+ * Like every TraCI call, injection must run on the thread that owns the connection (the
+ * {@link SimulationEngine} thread while the simulation runs).
+ * </p>
+ */
+public class VehicleInjector
+{
+    private static final Logger LOG = LogManager.getLogger(VehicleInjector.class.getName());
+
+    // commands per TraCI message
+    public static final int DEFAULT_BATCH_SIZE = 2000;
+
+    // departure defaults: SUMO picks the lane, the vehicle starts at the lane start, standing
+    public static final String DEPART_LANE = "best";
+    public static final String DEPART_POS = "base";
+    public static final String DEPART_SPEED = "0";
+
+    /**
+     * Outcome of one {@link #inject} call.
+     */
+    public static final class Report
+    {
+        public final int requested;
+        // vehicles SUMO accepted into its insertion queue
+        public final int accepted;
+        public final int failed;
+        public final long elapsedNanos;
+
+        Report(int requested, int accepted, int failed, long elapsedNanos)
+        {
+            this.requested = requested;
+            this.accepted = accepted;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getInsertionsPerSecond()
+        {
+            return (elapsedNanos > 0) ? accepted * 1e9 / elapsedNanos : 0.0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d of %d vehicles added (%d failed) in %.1f ms, %.0f vehicles/s",
+                    accepted, requested, failed, elapsedNanos / 1e6, getInsertionsPerSecond());
+        }
+    }
+
+    private final TraciBatch batch;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    // departure times by hundredths of a second, so equal times share one string
+    private final Map<Long, String> departStrings = new HashMap<>();
+    private final StringBuilder idBuilder = new StringBuilder(64);
+
+    // state of the vehicles queued since the last flush
+    private final List<CompletableFuture<Object>> results = new ArrayList<>();
+    private long queueStart = 0;
+    private int queued = 0;
+    private int accepted = 0;
+    private int failed = 0;
+    private String firstError = null;
+
+    // Constructor
+    public VehicleInjector(SumoTraciConnection connection)
+    {
+        this.batch = new TraciBatch(connection);
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    // number of ADD_FULL commands sent per TraCI message
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Adds vehicles with IDs {@code idPrefix + "_" + i}.
+     *
+     * @param idPrefix    The prefix of the vehicle IDs, unique per burst.
+     * @param count       The number of vehicles.
+     * @param routeIds    The routes, used in turn.
+     * @param typeId      The vehicle type.
+     * @param firstDepart The departure time of the first vehicle in seconds; negative means "now".
+     * @param window      The departures are spread evenly over this many seconds; 0 departs all at once.
+     * @return How many vehicles were accepted, and how fast.
+     */
+    public Report inject(String idPrefix, int count, List<String> routeIds, String typeId, double firstDepart, double window)
+    {
+        if (count <= 0 || routeIds == null || routeIds.isEmpty())
+        {
+            return new Report(Math.max(0, count), 0, Math.max(0, count), 0);
+        }
+
+        // one shared instance per route and type for all commands
+        List<String> routes = new ArrayList<>(routeIds.size());
+        for (String routeId : routeIds)
+        {
+            routes.add(routeId.intern());
+        }
+        String type = typeId.intern();
+
+        departStrings.clear();
+        idBuilder.setLength(0);
+        idBuilder.append(idPrefix).append('_');
+        int prefixLength = idBuilder.length();
+
+        for (int i = 0; i < count; i++)
+        {
+            idBuilder.setLength(prefixLength);
+            idBuilder.append(i);
+            String depart = (firstDepart < 0 && window <= 0) ? "now"
+                    : departString(Math.max(0.0, firstDepart) + window * i / count);
+            queue(idBuilder.toString(), routes.get(i % routes.size()), type, depart);
+        }
+        Report report = flush();
+        LOG.info("Vehicle injection: " + report);
+        return report;
+    }
+
+    /**
+     * Queues one vehicle. Full batches are sent right away, the rest by {@link #flush()}.
+     *
+     * @param vehicleId The new vehicle's ID.
+     * @param routeId   The route it follows.
+     * @param typeId    The vehicle type.
+     * @param depart    The departure time in seconds as a string, or "now".
+     */
+    public void queue(String vehicleId, String routeId, String typeId, String depart)
+    {
+        queue(vehicleId, routeId, typeId, depart, DEPART_LANE, DEPART_POS, DEPART_SPEED);
+    }
+
+    /**
+     * Queues one vehicle with its own departure lane, position and speed, in SUMO's notation
+     * (e.g. "best" or a lane index, "base" or metres, "0" or "max" or m/s).
+     */
+    public void queue(String vehicleId, String routeId, String typeId, String depart,
+                      String departLane, String departPos, String departSpeed)
+    {
+        if (queued == 0)
+        {
+            queueStart = System.nanoTime();
+        }
+        queued++;
+        results.add(batch.set(Constants.CMD_SET_VEHICLE_VARIABLE, Constants.ADD_FULL, vehicleId,
+                Constants.TYPE_COMPOUND, addFull(routeId, typeId, depart, departLane, departPos, departSpeed)));
+        if (batch.size() >= batchSize)
+        {
+            send();
+        }
+    }
+
+    /**
+     * Sends the queued vehicles that were not sent yet.
+     *
+     * @return The outcome of all vehicles queued since the previous flush.
+     */
+    public Report flush()
+    {
+        send();
+        Report report = new Report(queued, accepted, failed, (queued > 0) ? System.nanoTime() - queueStart : 0);
+        if (failed > 0)
+        {
+            LOG.error("Failed to add " + failed + " vehicles, first error: " + firstError);
+        }
+        queued = 0;
+        accepted = 0;
+        failed = 0;
+        firstError = null;
+        return report;
+    }
+
+    private void send()
+    {
+        batch.execute();
+        for (CompletableFuture<Object> result : results)
+        {
+            if (!result.isCompletedExceptionally())
+            {
+                accepted++;
+                continue;
+            }
+            failed++;
+            if (firstError == null)
+            {
+                try
+                {
+                    result.join();
+                }
+                catch (Exception e)
+                {
+                    firstError = (e.getCause() != null) ? e.getCause().getMessage() : e.getMessage();
+                }
+            }
+        }
+        results.clear();
+    }
+
+    // the 14 items of ADD_FULL: route, type, depart, departLane, departPos, departSpeed,
+    // arrivalLane, arrivalPos, arrivalSpeed, fromTaz, toTaz, line, personCapacity, personNumber
+    private static Object[] addFull(String routeId, String typeId, String depart,
+                                    String departLane, String departPos, String departSpeed)
+    {
+        return new Object[]{routeId, typeId, depart, departLane, departPos, departSpeed, "current", "max", "current",
+                "", "", "", 0, 0};
+    }
+
+    private String departString(double seconds)
+    {
+        long hundredths = Math.round(seconds * 100);
+        return departStrings.computeIfAbsent(hundredths, key -> String.valueOf(key / 100.0));
+    }
+}
@@ -0,0 +1,362 @@
+package wrapperSUMO;
+
+import de.tudresden.sumo.config.Constants;
+import de.tudresden.sumo.objects.SumoColor;
+import de.tudresden.sumo.objects.SumoPosition2D;
+import de.tudresden.sumo.objects.SumoPrimitive;
+import de.tudresden.sumo.objects.SumoStringList;
+import de.tudresden.sumo.subscription.ResponseType;
+import de.tudresden.sumo.subscription.SubscribtionVariable;
+import de.tudresden.sumo.subscription.SubscriptionObject;
+import de.tudresden.sumo.subscription.VariableSubscription;
+import de.tudresden.sumo.util.Observable;
+import de.tudresden.sumo.util.Observer;
+import it.polito.appeal.traci.SumoTraciConnection;
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the state of every vehicle up to date through TraCI variable subscriptions.
+ * <p>
+ * Instead of polling SUMO once per vehicle and variable, each departed vehicle is
+ * subscribed a single time to all variables the renderers and statistics need.
+ * SUMO then pushes the values together with the response of every simulation step,
+ * so the cost of a frame no longer grows with round trips per vehicle.
+ * </p>
+ * <p>
+ * The departed/arrived/teleport ID lists are subscribed on the simulation domain, which delivers
+ * the same data as {@code Simulation.getDepartedIDList()} / {@code getArrivedIDList()}
+ * without an extra request each step. They keep an {@link ActiveVehicleRegistry} up to date,
+ * whose handles index the per-vehicle values below. A vehicle that departs in step N is
+ * subscribed right after that step and shows up in the frame of step N+1; vehicles in the
+ * middle of a teleport are left out of the frame.
+ * </p>
+ * <p>
+ * Type and route are not subscribed: they are read once on departure by a
+ * {@link VehicleAttributeCache} indexed by the same handles.
+ * </p>
+ */
+public class VehicleSubscriptionManager implements Observer
+{
+    private static final Logger LOG = LogManager.getLogger(VehicleSubscriptionManager.class.getName());
+
+    // subscriptions stay active until the vehicle leaves the network
+    private static final double SUBSCRIPTION_END = 100000 * 60;
+
+    // every changing variable read by MapDraw, MapDraw3D and the statistics
+    private static final int[] VEHICLE_VARIABLES = {
+            Constants.VAR_POSITION,
+            Constants.VAR_ANGLE,
+            Constants.VAR_COLOR,
+            Constants.VAR_SPEED,
+            Constants.VAR_CO2EMISSION,
+            Constants.VAR_ACCUMULATED_WAITING_TIME
+    };
+
+    private final SumoTraciConnection connection;
+    private final ActiveVehicleRegistry registry = new ActiveVehicleRegistry();
+    private final VehicleAttributeCache attributes;
+
+    // per-vehicle state indexed by registry handle, filled in by the subscription callbacks
+    private boolean[] hasPosition = new boolean[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private double[] angles = new double[0];
+    private double[] speeds = new double[0];
+    private double[] co2s = new double[0];
+    private double[] waitingTimes = new double[0];
+    private Color[] colors = new Color[0];
+
+    // IDs reported by the simulation subscription during the last time step
+    private final List<String> departedIds = new ArrayList<>();
+    private final List<String> arrivedIds = new ArrayList<>();
+    private final List<String> teleportStartIds = new ArrayList<>();
+    private final List<String> teleportEndIds = new ArrayList<>();
+
+    private VehicleFrame currentFrame = VehicleFrame.EMPTY;
+
+    // Constructor, see create()
+    private VehicleSubscriptionManager(SumoTraciConnection connection)
+    {
+        this.connection = connection;
+        this.attributes = new VehicleAttributeCache(connection, registry);
+    }
+
+    /**
+     * Creates a manager and registers it for the subscription results of the connection.
+     * Registration happens after construction so the connection never sees a half-built observer.
+     *
+     * @param connection The running connection.
+     * @return The new manager.
+     */
+    public static VehicleSubscriptionManager create(SumoTraciConnection connection)
+    {
+        VehicleSubscriptionManager manager = new VehicleSubscriptionManager(connection);
+        connection.addObserver(manager);
+        manager.subscribeSimulation();
+        return manager;
+    }
+
+    // subscribe to the departed and arrived ID lists once for the whole run
+    private void subscribeSimulation()
+    {
+        try
+        {
+            VariableSubscription vs = new VariableSubscription(SubscribtionVariable.simulation, 0, SUBSCRIPTION_END, "");
+            vs.addCommand(Constants.VAR_DEPARTED_VEHICLES_IDS);
+            vs.addCommand(Constants.VAR_ARRIVED_VEHICLES_IDS);
+            vs.addCommand(Constants.VAR_TELEPORT_STARTING_VEHICLES_IDS);
+            vs.addCommand(Constants.VAR_TELEPORT_ENDING_VEHICLES_IDS);
+            connection.do_subscription(vs);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to subscribe to departed/arrived vehicles");
+            e.printStackTrace();
+        }
+    }
+
+    // subscribe a freshly departed vehicle to all renderer and statistics variables
+    private void subscribeVehicle(int handle)
+    {
+        String vehicleId = registry.getId(handle);
+        // the handle may have belonged to a vehicle that left, start from the defaults
+        hasPosition[handle] = false;
+        colors[handle] = Color.YELLOW;
+        try
+        {
+            VariableSubscription vs = new VariableSubscription(SubscribtionVariable.vehicle, 0, SUBSCRIPTION_END, vehicleId);
+            for (int variable : VEHICLE_VARIABLES)
+            {
+                vs.addCommand(variable);
+            }
+            connection.do_subscription(vs);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Failed to subscribe to vehicle " + vehicleId);
+        }
+    }
+
+    /**
+     * Receives subscription results while {@code do_timestep} is processing the step response.
+     * Only stores the values; the frame is assembled later in {@link #update(double)}.
+     */
+    @Override
+    public void update(Observable observable, SubscriptionObject so)
+    {
+        if (so.response == ResponseType.SIM_VARIABLE)
+        {
+            if (so.variable == Constants.VAR_DEPARTED_VEHICLES_IDS)
+            {
+                departedIds.addAll((SumoStringList) so.object);
+            }
+            else if (so.variable == Constants.VAR_ARRIVED_VEHICLES_IDS)
+            {
+                arrivedIds.addAll((SumoStringList) so.object);
+            }
+            else if (so.variable == Constants.VAR_TELEPORT_STARTING_VEHICLES_IDS)
+            {
+                teleportStartIds.addAll((SumoStringList) so.object);
+            }
+            else if (so.variable == Constants.VAR_TELEPORT_ENDING_VEHICLES_IDS)
+            {
+                teleportEndIds.addAll((SumoStringList) so.object);
+            }
+            return;
+        }
+        if (so.response != ResponseType.VEHICLE_VARIABLE)
+        {
+            return;
+        }
+
+        int handle = registry.getHandle(so.id);
+        if (handle < 0 || handle >= xs.length)
+        {
+            return;
+        }
+        switch (so.variable)
+        {
+            case Constants.VAR_POSITION:
+                SumoPosition2D pos = (SumoPosition2D) so.object;
+                xs[handle] = pos.x;
+                ys[handle] = pos.y;
+                hasPosition[handle] = true;
+                break;
+            case Constants.VAR_ANGLE:
+                angles[handle] = toDouble(so.object);
+                break;
+            case Constants.VAR_SPEED:
+                speeds[handle] = toDouble(so.object);
+                break;
+            case Constants.VAR_CO2EMISSION:
+                co2s[handle] = toDouble(so.object);
+                break;
+            case Constants.VAR_ACCUMULATED_WAITING_TIME:
+                waitingTimes[handle] = toDouble(so.object);
+                break;
+            case Constants.VAR_COLOR:
+                colors[handle] = toColor((SumoColor) so.object, colors[handle]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private double toDouble(Object value)
+    {
+        Object val = ((SumoPrimitive) value).val;
+        return (val instanceof Number) ? ((Number) val).doubleValue() : 0.0;
+    }
+
+    // only allocate a new JavaFX color when the vehicle actually changed its color
+    private Color toColor(SumoColor sc, Color previous)
+    {
+        // same unsigned conversion as ControlPanel.getVehicleColor
+        int r = sc.r & 0xFF;
+        int g = sc.g & 0xFF;
+        int b = sc.b & 0xFF;
+        double a = (sc.a & 0xFF) / 255.0;
+        if (previous != null
+                && (int) Math.round(previous.getRed() * 255) == r
+                && (int) Math.round(previous.getGreen() * 255) == g
+                && (int) Math.round(previous.getBlue() * 255) == b
+                && previous.getOpacity() == a)
+        {
+            return previous;
+        }
+        return Color.rgb(r, g, b, a);
+    }
+
+    /**
+     * Applies the departures and arrivals of the last step and publishes a new frame.
+     * Must be called once right after every {@code do_timestep}.
+     *
+     * @param time The current simulation time in seconds.
+     * @return The immutable frame for this step.
+     */
+    public VehicleFrame update(double time)
+    {
+        // drop cached attributes while the arrived vehicles still have their handles
+        for (String id : arrivedIds)
+        {
+            attributes.invalidate(id);
+        }
+        List<Integer> added = registry.applyStep(departedIds, arrivedIds, teleportStartIds, teleportEndIds);
+        departedIds.clear();
+        arrivedIds.clear();
+        teleportStartIds.clear();
+        teleportEndIds.clear();
+        ensureCapacity(registry.getCapacity());
+        for (int handle : added)
+        {
+            subscribeVehicle(handle);
+        }
+        attributes.refresh(added);
+
+        int count = 0;
+        for (int i = 0; i < registry.size(); i++)
+        {
+            int handle = registry.getActiveHandle(i);
+            if (hasPosition[handle] && !registry.isTeleporting(handle)) count++;
+        }
+
+        String[] ids = new String[count];
+        String[] frameTypeIds = new String[count];
+        String[] frameRouteIds = new String[count];
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] frameAngles = new double[count];
+        double[] frameSpeeds = new double[count];
+        double[] co2 = new double[count];
+        double[] waits = new double[count];
+        Color[] frameColors = new Color[count];
+
+        int i = 0;
+        for (int a = 0; a < registry.size(); a++)
+        {
+            int handle = registry.getActiveHandle(a);
+            if (!hasPosition[handle] || registry.isTeleporting(handle)) continue;
+            ids[i] = registry.getId(handle);
+            frameTypeIds[i] = attributes.getTypeId(handle);
+            frameRouteIds[i] = attributes.getRouteId(handle);
+            x[i] = xs[handle];
+            y[i] = ys[handle];
+            frameAngles[i] = angles[handle];
+            frameSpeeds[i] = speeds[handle];
+            co2[i] = co2s[handle];
+            waits[i] = waitingTimes[handle];
+            frameColors[i] = colors[handle];
+            i++;
+        }
+        currentFrame = new VehicleFrame(time, ids, frameTypeIds, frameRouteIds, x, y, frameAngles, frameSpeeds, co2, waits,
+                frameColors);
+        return currentFrame;
+    }
+
+    /**
+     * Starts over after SUMO loaded a saved state in place of the running simulation.
+     * <p>
+     * Vehicles in a loaded state are not reported as departed, so their IDs are passed in and
+     * registered, subscribed and cached by the next {@link #update(double)} like departures.
+     * The simulation subscription is sent again; SUMO replaces the existing one.
+     * </p>
+     *
+     * @param vehicleIds The vehicles in the loaded state.
+     */
+    public void reset(List<String> vehicleIds)
+    {
+        departedIds.clear();
+        arrivedIds.clear();
+        teleportStartIds.clear();
+        teleportEndIds.clear();
+        registry.clear();
+        attributes.clear();
+        Arrays.fill(hasPosition, false);
+        Arrays.fill(colors, null);
+        currentFrame = VehicleFrame.EMPTY;
+        departedIds.addAll(vehicleIds);
+        subscribeSimulation();
+    }
+
+    // grow the per-vehicle arrays along with the registry
+    private void ensureCapacity(int capacity)
+    {
+        if (xs.length >= capacity)
+        {
+            return;
+        }
+        hasPosition = Arrays.copyOf(hasPosition, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        angles = Arrays.copyOf(angles, capacity);
+        speeds = Arrays.copyOf(speeds, capacity);
+        co2s = Arrays.copyOf(co2s, capacity);
+        waitingTimes = Arrays.copyOf(waitingTimes, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+    }
+
+    // vehicles currently in the simulation
+    public ActiveVehicleRegistry getRegistry()
+    {
+        return registry;
+    }
+
+    // type, route and size of the vehicles in the simulation
+    public VehicleAttributeCache getAttributes()
+    {
+        return attributes;
+    }
+
+    // get the frame of the latest step
+    public VehicleFrame getCurrentFrame()
+    {
+        return currentFrame;
+    }
+}